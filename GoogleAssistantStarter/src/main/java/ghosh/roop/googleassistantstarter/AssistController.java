@@ -0,0 +1,102 @@
+package ghosh.roop.googleassistantstarter;
+
+import com.mautini.assistant.demo.exception.RateLimitException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Forward text queries to the assistant. The answer is returned asynchronously,
+ * the servlet thread is released while the request to the assistant is in flight.
+ */
+@RestController
+public class AssistController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AssistController.class);
+
+    private final AssistantService assistantService;
+
+    private final AssistEventBroadcaster assistEventBroadcaster;
+
+    public AssistController(AssistantService assistantService, AssistEventBroadcaster assistEventBroadcaster) {
+        this.assistantService = assistantService;
+        this.assistEventBroadcaster = assistEventBroadcaster;
+    }
+
+    /**
+     * Stream the dialog states and answers of the requests of the session as they arrive
+     */
+    @GetMapping(value = "/assist/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter events(HttpSession session) {
+        return assistEventBroadcaster.connect(session.getId());
+    }
+
+    @PostMapping("/assist")
+    public CompletableFuture<ResponseEntity<AssistResponse>> assist(@RequestBody AssistRequest request, HttpServletRequest servletRequest) {
+        if (request.getQuery() == null || request.getQuery().trim().isEmpty()) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+        String query = request.getQuery().trim();
+        // Only a client with an event stream has a session, the other requests do not create one
+        HttpSession session = servletRequest.getSession(false);
+        String sessionId = session == null ? null : session.getId();
+        // The events of the query are sent to the event streams of the session
+        assistEventBroadcaster.subscribe(sessionId, query);
+        return assistantService.assist(query)
+                .whenComplete((answer, error) -> assistEventBroadcaster.unsubscribe(sessionId, query))
+                .thenApply(answer -> ResponseEntity.ok(new AssistResponse(query, answer)))
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause instanceof RateLimitException) {
+                        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+                    }
+                    logger.warn("Unable to get the answer of {}", query, cause);
+                    return ResponseEntity.status(HttpStatus.BAD_GATEWAY).build();
+                });
+    }
+
+    public static class AssistRequest {
+
+        private String query;
+
+        public String getQuery() {
+            return query;
+        }
+
+        public void setQuery(String query) {
+            this.query = query;
+        }
+    }
+
+    public static class AssistResponse {
+
+        private final String query;
+
+        private final String answer;
+
+        public AssistResponse(String query, String answer) {
+            this.query = query;
+            this.answer = answer;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public String getAnswer() {
+            return answer;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ghosh.roop.googleassistantstarter;
+
+import com.mautini.assistant.demo.api.AssistEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stream the events of the assistant to the connected browsers (server-sent events).
+ *
+ * A connection only receives the events of the queries sent in its session (see subscribe),
+ * the events of the queries of the other users are not sent. The events of the queries not
+ * sent by a user (the scheduled runs) are sent to all the connections.
+ *
+ * Each connection has a small bounded buffer, written by a shared pool of sender threads.
+ * An idle connection only holds its emitter and its empty buffer. A connection whose buffer
+ * is full (the browser does not read fast enough) is closed, the browser reconnects.
+ */
+@Component
+public class AssistEventBroadcaster {
+
+    private static final Logger logger = LoggerFactory.getLogger(AssistEventBroadcaster.class);
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    // Sessions waiting for the events of each query in flight
+    private final Map<String, Set<String>> sessionsByQuery = new ConcurrentHashMap<>();
+
+    // Number of requests in flight of each query sent by a user, with or without a session
+    private final Map<String, Integer> userQueries = new ConcurrentHashMap<>();
+
+    private final ExecutorService senders;
+
+    private final int bufferSize;
+
+    private final long timeoutMs;
+
+    private final LongAdder droppedConnections = new LongAdder();
+
+    public AssistEventBroadcaster(AssistantService assistantService,
+                                  @Value("${assistant.events.buffer-size:32}") int bufferSize,
+                                  @Value("${assistant.events.timeout-ms:1800000}") long timeoutMs,
+                                  @Value("${assistant.events.sender-threads:2}") int senderThreads) {
+        this.bufferSize = bufferSize;
+        this.timeoutMs = timeoutMs;
+        this.senders = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "sse-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        assistantService.addAssistListener(this::broadcast);
+        assistantService.getMetricRegistry().gauge("sse_connections", "Open event streams", connections::size);
+        assistantService.getMetricRegistry().counter("sse_dropped_connections_total", "Event streams closed because they were too slow",
+                droppedConnections::sum);
+    }
+
+    /**
+     * Open a new connection
+     *
+     * @param sessionId the session whose events are sent on the connection
+     */
+    public SseEmitter connect(String sessionId) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Connection connection = new Connection(sessionId, emitter);
+        connections.add(connection);
+        emitter.onCompletion(() -> connections.remove(connection));
+        emitter.onTimeout(() -> connections.remove(connection));
+        emitter.onError(e -> connections.remove(connection));
+        try {
+            // Commit the response, the browser knows the stream is open
+            emitter.send(SseEmitter.event().comment("connected"));
+        } catch (IOException e) {
+            connection.close();
+        }
+        return emitter;
+    }
+
+    /**
+     * Send the events of a query sent by a user to the connections of its session, until unsubscribe
+     *
+     * @param sessionId the session of the user, null if the user has no session (its events are not sent)
+     */
+    public void subscribe(String sessionId, String query) {
+        userQueries.merge(query, 1, Integer::sum);
+        if (sessionId != null) {
+            sessionsByQuery.computeIfAbsent(query, key -> ConcurrentHashMap.newKeySet()).add(sessionId);
+        }
+    }
+
+    public void unsubscribe(String sessionId, String query) {
+        userQueries.computeIfPresent(query, (key, count) -> count > 1 ? count - 1 : null);
+        if (sessionId != null) {
+            sessionsByQuery.computeIfPresent(query, (key, sessions) -> {
+                sessions.remove(sessionId);
+                return sessions.isEmpty() ? null : sessions;
+            });
+        }
+    }
+
+    /**
+     * Queue an event on the connections of the sessions waiting for its query, or on all the connections if no user
+     * sent the query. Never blocks the caller (gRPC thread)
+     */
+    public void broadcast(AssistEvent event) {
+        boolean userQuery = event.getQuery() != null && userQueries.containsKey(event.getQuery());
+        Set<String> sessions = userQuery ? sessionsByQuery.getOrDefault(event.getQuery(), Collections.emptySet()) : null;
+        for (Connection connection : connections) {
+            if (sessions != null && !sessions.contains(connection.sessionId)) {
+                continue;
+            }
+            if (connection.buffer.offer(event)) {
+                connection.scheduleSend();
+            } else {
+                logger.warn("Closing a slow event stream, {} events not read", bufferSize);
+                droppedConnections.increment();
+                connection.close();
+            }
+        }
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public long getDroppedConnectionCount() {
+        return droppedConnections.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        connections.forEach(Connection::close);
+        senders.shutdownNow();
+    }
+
+    private class Connection {
+
+        private final String sessionId;
+
+        private final SseEmitter emitter;
+
+        private final Queue<AssistEvent> buffer = new ArrayBlockingQueue<>(bufferSize);
+
+        // True while a sender thread writes the buffer of this connection
+        private final AtomicBoolean sending = new AtomicBoolean();
+
+        private Connection(String sessionId, SseEmitter emitter) {
+            this.sessionId = sessionId;
+            this.emitter = emitter;
+        }
+
+        private void scheduleSend() {
+            if (sending.compareAndSet(false, true)) {
+                senders.execute(this::send);
+            }
+        }
+
+        private void send() {
+            try {
+                AssistEvent event;
+                while ((event = buffer.poll()) != null) {
+                    emitter.send(SseEmitter.event()
+                            .name(event.getType().name())
+                            .data(event, MediaType.APPLICATION_JSON));
+                }
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Event stream closed", e);
+                close();
+                return;
+            } finally {
+                sending.set(false);
+            }
+            // An event may have been queued after the last poll
+            if (!buffer.isEmpty()) {
+                scheduleSend();
+            }
+        }
+
+        private void close() {
+            if (connections.remove(this)) {
+                buffer.clear();
+                emitter.complete();
+            }
+        }
+    }
+}
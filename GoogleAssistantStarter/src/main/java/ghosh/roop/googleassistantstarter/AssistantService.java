@@ -0,0 +1,190 @@
+package ghosh.roop.googleassistantstarter;
+
+import com.mautini.assistant.demo.GoogleAssistantClient;
+import com.mautini.assistant.demo.api.AssistEvent;
+import com.mautini.assistant.demo.api.AssistListener;
+import com.mautini.assistant.demo.exception.AuthenticationException;
+import com.mautini.assistant.demo.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the GoogleAssistantClient shared by the scheduled task and the REST endpoints.
+ * The client is created in the background once the application is ready (the authentication
+ * may wait for the user), the queries received meanwhile wait for it without holding a thread.
+ */
+@Service
+public class AssistantService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AssistantService.class);
+
+    private final boolean createOnStartup;
+
+    // Creates the client, off the servlet and scheduler threads
+    private final ExecutorService startupExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "assistant-startup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Completed with the client once created, replaced by a new attempt if the creation failed
+    private CompletableFuture<GoogleAssistantClient> googleAssistantClient;
+
+    // Queries in flight, identical concurrent queries share the same answer
+    private final Map<String, CompletableFuture<String>> pendingQueries = new ConcurrentHashMap<>();
+
+    private final LongAdder coalescedQueries = new LongAdder();
+
+    // Notified of the events of the client, whenever they are added
+    private final List<AssistListener> assistListeners = new CopyOnWriteArrayList<>();
+
+    // Metrics of the client and of the endpoints
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    public AssistantService() {
+        this(false);
+    }
+
+    @Autowired
+    public AssistantService(@Value("${assistant.client.create-on-startup:true}") boolean createOnStartup) {
+        this.createOnStartup = createOnStartup;
+        metricRegistry.counter("assist_coalesced_total", "Queries answered by an identical query in flight", coalescedQueries::sum);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (createOnStartup) {
+            // In the FILE input mode, the audio files are sent once the client is created
+            getClientAsync().thenAcceptAsync(client -> {
+                if (client.isFileInputMode()) {
+                    runFileBatch(client);
+                }
+            }, startupExecutor);
+        }
+    }
+
+    /**
+     * @return the client, created in the background if it was not yet
+     */
+    public synchronized CompletableFuture<GoogleAssistantClient> getClientAsync() {
+        if (googleAssistantClient == null || googleAssistantClient.isCompletedExceptionally()) {
+            googleAssistantClient = CompletableFuture.supplyAsync(this::createClient, startupExecutor);
+        }
+        return googleAssistantClient;
+    }
+
+    /**
+     * Wait for the client, for the callers owning their thread (the scheduled task)
+     */
+    public GoogleAssistantClient getClient() throws AuthenticationException, InterruptedException {
+        try {
+            return getClientAsync().get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof AuthenticationException) {
+                throw (AuthenticationException) cause;
+            }
+            throw new IllegalStateException("Unable to create the assistant client", cause);
+        }
+    }
+
+    /**
+     * @return the client if it was already created
+     */
+    public synchronized Optional<GoogleAssistantClient> getClientIfCreated() {
+        if (googleAssistantClient == null || !googleAssistantClient.isDone() || googleAssistantClient.isCompletedExceptionally()) {
+            return Optional.empty();
+        }
+        return Optional.of(googleAssistantClient.join());
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    public void addAssistListener(AssistListener listener) {
+        assistListeners.add(listener);
+    }
+
+    /**
+     * Send a text query to the assistant without blocking the caller
+     *
+     * @param query the text query
+     * @return a future completed with the answer of the assistant
+     */
+    public CompletableFuture<String> assist(String query) {
+        CompletableFuture<String> answer = new CompletableFuture<>();
+        CompletableFuture<String> pending = pendingQueries.putIfAbsent(query, answer);
+        if (pending != null) {
+            coalescedQueries.increment();
+            return pending;
+        }
+
+        send(query).whenComplete((text, error) -> {
+            pendingQueries.remove(query, answer);
+            if (error != null) {
+                answer.completeExceptionally(error);
+            } else {
+                answer.complete(text);
+            }
+        });
+        return answer;
+    }
+
+    public long getCoalescedCount() {
+        return coalescedQueries.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        startupExecutor.shutdownNow();
+    }
+
+    protected CompletableFuture<String> send(String query) {
+        return getClientAsync().thenCompose(client -> client.textQuery(query));
+    }
+
+    private GoogleAssistantClient createClient() {
+        try {
+            GoogleAssistantClient client = new GoogleAssistantClient(metricRegistry);
+            client.addAssistListener(this::onEvent);
+            logger.info("Assistant client created");
+            return client;
+        } catch (AuthenticationException e) {
+            logger.error("Unable to create the assistant client, retrying on the next query", e);
+            throw new CompletionException(e);
+        }
+    }
+
+    private void runFileBatch(GoogleAssistantClient client) {
+        try {
+            logger.info("{} audio files answered", client.runFileBatch());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Unable to send the audio files to the assistant", e);
+        }
+    }
+
+    private void onEvent(AssistEvent event) {
+        assistListeners.forEach(listener -> listener.onEvent(event));
+    }
+}
@@ -1,6 +1,5 @@
 package ghosh.roop.googleassistantstarter;
 
-import com.mautini.assistant.demo.GoogleAssistantClient;
 import com.mautini.assistant.demo.exception.AuthenticationException;
 import com.mautini.assistant.demo.exception.ConverseException;
 import com.mautini.assistant.demo.exception.DeviceRegisterException;
@@ -16,7 +15,12 @@ import java.util.Arrays;
 @EnableScheduling
 public class CommandLineAppStartupRunner{
     private static final Logger logger = LoggerFactory.getLogger(CommandLineAppStartupRunner.class);
-    GoogleAssistantClient googleAssistantClient;
+    private final AssistantService assistantService;
+
+    public CommandLineAppStartupRunner(AssistantService assistantService) {
+        this.assistantService = assistantService;
+    }
+
     public void run(String...args) throws Exception {
         logger.info("Application started with command-line arguments: {} . \n To kill this application, press Ctrl + C.", Arrays.toString(args));
     }
@@ -24,11 +28,8 @@ public class CommandLineAppStartupRunner{
     @Scheduled(cron = "0 0/10 12-23 * * ?", zone = "America/Los_Angeles")
     public void test() {
         try {
-            if (googleAssistantClient == null) {
-                googleAssistantClient = new GoogleAssistantClient();
-            }
             logger.info("Starting scheduled message");
-            googleAssistantClient.scheduledMethod();
+            assistantService.getClient().scheduledMethod();
         } catch (DeviceRegisterException | ConverseException | AuthenticationException | InterruptedException e) {
             throw new RuntimeException(e);
         } catch (Exception e) {
@@ -0,0 +1,68 @@
+package ghosh.roop.googleassistantstarter;
+
+import com.mautini.assistant.demo.GoogleAssistantClient;
+import io.grpc.ConnectivityState;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Metrics (Prometheus text format and json) and health of the assistant client
+ */
+@RestController
+public class MetricsController {
+
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final AssistantService assistantService;
+
+    public MetricsController(AssistantService assistantService) {
+        this.assistantService = assistantService;
+    }
+
+    @GetMapping(value = "/metrics", produces = PROMETHEUS_CONTENT_TYPE)
+    public String prometheus() throws IOException {
+        StringBuilder out = new StringBuilder(4096);
+        assistantService.getMetricRegistry().writePrometheus(out);
+        return out.toString();
+    }
+
+    @GetMapping(value = "/metrics.json", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Double> json() {
+        return assistantService.getMetricRegistry().snapshot();
+    }
+
+    /**
+     * UP until the client is created, then DOWN if the channel failed or the last refresh of the
+     * access token failed (the token is refreshed when used, an expired token alone is not a failure)
+     */
+    @GetMapping(value = "/health", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> health() {
+        Map<String, Object> health = new LinkedHashMap<>();
+        Optional<GoogleAssistantClient> client = assistantService.getClientIfCreated();
+        if (!client.isPresent()) {
+            health.put("status", "UP");
+            health.put("client", "NOT_STARTED");
+            return ResponseEntity.ok(health);
+        }
+
+        Optional<ConnectivityState> channelState = client.get().getChannelState();
+        long tokenExpiresInSeconds = (client.get().getTokenExpirationTime() - System.currentTimeMillis()) / 1000;
+        boolean tokenRefreshFailing = client.get().isTokenRefreshFailing();
+        boolean up = !tokenRefreshFailing
+                && channelState.map(state -> state != ConnectivityState.TRANSIENT_FAILURE && state != ConnectivityState.SHUTDOWN)
+                .orElse(true);
+        health.put("status", up ? "UP" : "DOWN");
+        channelState.ifPresent(state -> health.put("channel", state.name()));
+        health.put("tokenExpiresInSeconds", tokenExpiresInSeconds);
+        health.put("tokenRefreshFailing", tokenRefreshFailing);
+        return ResponseEntity.status(up ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(health);
+    }
+}
@@ -0,0 +1,40 @@
+package ghosh.roop.googleassistantstarter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class AssistantServiceTests {
+
+	@Test
+	void identicalConcurrentQueriesAreSentOnce() throws Exception {
+		AtomicInteger sent = new AtomicInteger();
+		CompletableFuture<String> assistant = new CompletableFuture<>();
+		AssistantService assistantService = new AssistantService() {
+			@Override
+			protected CompletableFuture<String> send(String query) {
+				sent.incrementAndGet();
+				return assistant;
+			}
+		};
+
+		CompletableFuture<String> first = assistantService.assist("Is the TV on");
+		CompletableFuture<String> second = assistantService.assist("Is the TV on");
+		assertSame(first, second);
+		assertEquals(1, sent.get());
+		assertEquals(1, assistantService.getCoalescedCount());
+
+		assistant.complete("The TV is on");
+		assertEquals("The TV is on", second.get());
+
+		// Once answered, the same query is sent again
+		assertNotSame(first, assistantService.assist("Is the TV on"));
+		assertEquals(2, sent.get());
+	}
+
+}
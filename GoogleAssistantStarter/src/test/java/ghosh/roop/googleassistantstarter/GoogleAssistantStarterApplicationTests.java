@@ -3,7 +3,8 @@ package ghosh.roop.googleassistantstarter;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+// Without credentials, the assistant client is not created
+@SpringBootTest(properties = "assistant.client.create-on-startup=false")
 class GoogleAssistantStarterApplicationTests {
 
 	@Test
@@ -1,46 +1,113 @@
 package com.mautini.assistant.demo;
 
-import com.luckycatlabs.sunrisesunset.SunriseSunsetCalculator;
-import com.luckycatlabs.sunrisesunset.dto.Location;
+import com.mautini.assistant.demo.api.AssistListener;
 import com.mautini.assistant.demo.api.AssistantClient;
+import com.mautini.assistant.demo.api.TranscriptListener;
 import com.mautini.assistant.demo.authentication.AuthenticationHelper;
-import com.mautini.assistant.demo.config.AssistantConf;
+import com.mautini.assistant.demo.batch.AudioBatchRunner;
+import com.mautini.assistant.demo.client.audio.AudioOutput;
+import com.mautini.assistant.demo.client.audio.AudioUtil;
+import com.mautini.assistant.demo.client.audio.ResponseAudioCache;
+import com.mautini.assistant.demo.cluster.ClusterCoordinator;
+import com.mautini.assistant.demo.config.AudioConf;
 import com.mautini.assistant.demo.config.AuthenticationConf;
-import com.mautini.assistant.demo.config.DeviceRegisterConf;
+import com.mautini.assistant.demo.config.ConfigService;
+import com.mautini.assistant.demo.config.ConfigSnapshot;
 import com.mautini.assistant.demo.config.IoConf;
 import com.mautini.assistant.demo.device.DeviceRegister;
+import com.mautini.assistant.demo.device.DeviceRegistrationCache;
+import com.mautini.assistant.demo.device.DeviceStateCache;
+import com.mautini.assistant.demo.exception.AudioException;
 import com.mautini.assistant.demo.exception.AuthenticationException;
 import com.mautini.assistant.demo.exception.ConverseException;
 import com.mautini.assistant.demo.exception.DeviceRegisterException;
-import com.typesafe.config.Config;
+import com.mautini.assistant.demo.exception.LeaseException;
+import com.mautini.assistant.demo.exception.RateLimitException;
+import com.mautini.assistant.demo.rule.CommandDispatcher;
+import com.mautini.assistant.demo.rule.RuleEngine;
+import com.mautini.assistant.demo.sun.SunEventService;
+import com.mautini.assistant.demo.limit.Priority;
+import com.mautini.assistant.demo.limit.RateLimiter;
+import com.mautini.assistant.demo.metrics.AssistantMetrics;
+import com.mautini.assistant.demo.metrics.LatencyHistogram;
+import com.mautini.assistant.demo.metrics.MetricRegistry;
 import com.typesafe.config.ConfigBeanFactory;
-import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigException;
+import io.grpc.ConnectivityState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.temporal.ChronoUnit;
-import java.util.Calendar;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
 
 public class GoogleAssistantClient {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GoogleAssistantClient.class);
-    private static final String CHECK_TV_ON = "Is the roop google TV switched on";
-    private static final String SWITCH_ON = "Switch on TV light";
-    private static final String SWITCH_OFF = "Switch off TV light";
-    private static final int hour6 = 18;
-    private static final int nextDayHour2 = 26;
-    private static final Location location = new Location("38.631798", "-121.213416");
-    private static final SunriseSunsetCalculator calculator = new SunriseSunsetCalculator(location, "America/Los_Angeles");
-    private final Config root = ConfigFactory.load();
+    private final ConfigService configService = new ConfigService();
     private final AuthenticationHelper authenticationHelper;
-    private boolean override = false;
+    private volatile SunEventService sunEventService;
+    private final CommandDispatcher commandDispatcher;
+    private volatile DeviceRegistrationCache deviceRegistrationCache;
+    private volatile RuleEngine ruleEngine;
+    private volatile RateLimiter rateLimiter;
+    // Null for a single instance
+    private volatile ClusterCoordinator clusterCoordinator;
+    // Runs the stages of scheduledMethod, and the token refresh and registration of the text queries
+    private final ExecutorService stageExecutor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "assistant-stage");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Notified of the events of the requests of all the assistant clients
+    private final List<AssistListener> assistListeners = new CopyOnWriteArrayList<>();
+    // Notified of the transcripts of the spoken requests of all the assistant clients
+    private final List<TranscriptListener> transcriptListeners = new CopyOnWriteArrayList<>();
+    private final MetricRegistry metricRegistry;
+    private final AssistantMetrics assistantMetrics = new AssistantMetrics();
+    private final LatencyHistogram runDurations = new LatencyHistogram();
+    private volatile long lastRunEpochMs;
+    // Rules skipped by the scheduled runs because an answer was missing (e.g. a poll rejected by the rate limiter)
+    private final LongAdder skippedRulesCount = new LongAdder();
+    // Serializes the refreshes of the access token, apart from the monitor read by the metrics
+    private final Object tokenLock = new Object();
+    // Kept between the runs, rebuilt when its configuration or the device instance changes
+    private volatile AssistantClient assistantClient;
+    // Built with the first client playing the responses (io.outputAudio), null before
+    private AudioOutput audioOutput;
+    private volatile ResponseAudioCache responseAudioCache;
 
     public GoogleAssistantClient() throws AuthenticationException {
+        this(new MetricRegistry());
+    }
+
+    /**
+     * @param metricRegistry the registry in which the metrics of the client are registered
+     */
+    public GoogleAssistantClient(MetricRegistry metricRegistry) throws AuthenticationException {
+        this.metricRegistry = metricRegistry;
+        ConfigSnapshot config = configService.get();
 
-        AuthenticationConf authenticationConf = ConfigBeanFactory.create(root.getConfig("authentication"), AuthenticationConf.class);
+        // A copy, the beans of the snapshot are shared and never modified
+        AuthenticationConf authenticationConf = ConfigBeanFactory.create(config.getConfig().getConfig("authentication"),
+                AuthenticationConf.class);
         authenticationConf.setClientId(System.getenv("clientId"));
         authenticationConf.setClientSecret(System.getenv("secret"));
         // Authentication
@@ -55,69 +122,418 @@ public class GoogleAssistantClient {
                     .refreshAccessToken()
                     .orElseThrow(() -> new AuthenticationException("Error refreshing access token"));
         }
+
+        deviceRegistrationCache = new DeviceRegistrationCache(config.getDeviceRegisterConf());
+        rateLimiter = new RateLimiter(config.getRateLimitConf());
+        try {
+            clusterCoordinator = ClusterCoordinator.fromConf(config.getClusterConf());
+        } catch (LeaseException e) {
+            throw new IllegalStateException("Unable to initialize the lease store", e);
+        }
+
+        // The rules are compiled once
+        sunEventService = new SunEventService(config.getSunConf().getWindowDays());
+        commandDispatcher = new CommandDispatcher(new DeviceStateCache(config.getDeviceStateConf(), Clock.systemUTC()));
+        ruleEngine = RuleEngine.fromConfig(config.getConfig().getConfig("rules"), sunEventService, commandDispatcher);
+
+        registerMetrics();
+        configService.addListener(this::onConfigReload);
+        try {
+            configService.startWatching();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to watch the configuration file, changes will need a restart", e);
+        }
     }
 
     public void scheduledMethod() throws DeviceRegisterException, ConverseException, AuthenticationException, InterruptedException {
-        DeviceRegisterConf deviceRegisterConf = ConfigBeanFactory.create(root.getConfig("deviceRegister"), DeviceRegisterConf.class);
-        AssistantConf assistantConf = ConfigBeanFactory.create(root.getConfig("assistant"), AssistantConf.class);
-        IoConf ioConf = ConfigBeanFactory.create(root.getConfig("io"), IoConf.class);
+        RuleEngine engine = ruleEngine;
+        ClusterCoordinator coordinator = clusterCoordinator;
+        // With several instances, a single one runs the home
+        if (coordinator != null && !coordinator.shouldRun(engine.getLocationId())) {
+            LOGGER.info("The run of {} is handled by another instance", engine.getLocationId());
+            return;
+        }
 
-        // Register Device model and device
-        DeviceRegister deviceRegister = new DeviceRegister(deviceRegisterConf, authenticationHelper.getOAuthCredentials().getAccessToken());
-        deviceRegister.register();
+        long start = System.nanoTime();
+        Map<String, Long> stageTimesMs = new ConcurrentHashMap<>();
 
-        // Build the client (stub)
-        AssistantClient assistantClient = new AssistantClient(authenticationHelper.getOAuthCredentials(), assistantConf,
-                deviceRegister.getDeviceModel(), deviceRegister.getDevice(), ioConf);
+        // Token refresh then device registration run in the background during the local rules
+        CompletableFuture<Void> token = runStage("token", stageTimesMs, this::refreshAccessTokenIfExpired);
+        DeviceRegistrationCache registrationCache = deviceRegistrationCache;
+        // Get the device model and device, registered only once per process, with the refreshed token
+        CompletableFuture<DeviceRegister> registration = token.thenCompose(refreshed -> supplyStage("registration",
+                stageTimesMs, () -> registrationCache.get(authenticationHelper.getOAuthCredentials().getAccessToken())));
 
-        // Check if we need to refresh the access token to request the api
-        if (authenticationHelper.expired()) {
-            authenticationHelper
-                    .refreshAccessToken()
-                    .orElseThrow(() -> new AuthenticationException("Error refreshing access token"));
+        long localStart = System.nanoTime();
+        RuleEngine.Evaluation evaluation = engine.evaluateLocal(Instant.now());
+        stageTimesMs.put("rules", elapsedMs(localStart));
+
+        join(token);
+        int skippedRules = 0;
+        AtomicInteger rejectedPolls = new AtomicInteger();
+        if (evaluation.needsAssistant()) {
+            AssistantClient client = getAssistantClient(join(registration));
+            long decisionStart = System.nanoTime();
+            // Set by the calls of this run only
+            AtomicBoolean deviceRejected = new AtomicBoolean();
+            // The polls of the rules must not delay the interactive queries
+            skippedRules = engine.decide(evaluation, query -> client.textQuery(query, Priority.BACKGROUND).whenComplete((answer, error) -> {
+                if (error instanceof RateLimitException) {
+                    rejectedPolls.incrementAndGet();
+                } else if (error != null && AssistantClient.isDeviceRejected(error)) {
+                    deviceRejected.set(true);
+                }
+            }));
+            skippedRulesCount.add(skippedRules);
+            stageTimesMs.put("decision", elapsedMs(decisionStart));
+            LOGGER.debug("Commands sent: {}, suppressed: {}", commandDispatcher.getSentCount(), commandDispatcher.getSuppressedCount());
+
+            if (deviceRejected.get()) {
+                // The next run will register a new device instance
+                deviceRegistrationCache.invalidate();
+                retireAssistantClient();
+            }
+        } else {
+            LOGGER.info("The local conditions reject all the rules, nothing to ask the assistant");
+        }
+
+        long durationMs = elapsedMs(start);
+        runDurations.record(durationMs);
+        lastRunEpochMs = System.currentTimeMillis();
+        if (skippedRules > 0) {
+            LOGGER.warn("Run finished in {} ms, stages (ms): {}, {} rule(s) skipped, {} poll(s) rejected by the rate limiter",
+                    durationMs, stageTimesMs, skippedRules, rejectedPolls.get());
+        } else {
+            LOGGER.info("Run finished in {} ms, stages (ms): {}", durationMs, stageTimesMs);
+        }
+    }
+
+    /**
+     * Send a text query to the assistant, with the client shared with the scheduled runs. The access token is
+     * refreshed and the device registered in the background, the caller is never blocked.
+     *
+     * @param query the text query
+     * @return a future completed with the text response (null if the assistant did not send any text), or with the
+     * AuthenticationException or DeviceRegisterException of the refresh or the registration
+     */
+    public CompletableFuture<String> textQuery(String query) {
+        DeviceRegistrationCache registrationCache = deviceRegistrationCache;
+        return supplyAsync(() -> {
+            refreshAccessTokenIfExpired();
+            return registrationCache.get(authenticationHelper.getOAuthCredentials().getAccessToken());
+        }).thenCompose(deviceRegister -> getAssistantClient(deviceRegister).textQuery(query));
+    }
+
+    /**
+     * Send the audio files of the directory of the FILE input mode to the assistant and write the results
+     *
+     * @return the number of files answered without error
+     * @throws IOException if the directory can not be listed or the results can not be written
+     */
+    public int runFileBatch() throws DeviceRegisterException, AuthenticationException, IOException, InterruptedException {
+        refreshAccessTokenIfExpired();
+        DeviceRegister deviceRegister = deviceRegistrationCache.get(authenticationHelper.getOAuthCredentials().getAccessToken());
+        AssistantClient client = getAssistantClient(deviceRegister);
+
+        ConfigSnapshot config = configService.get();
+        IoConf ioConf = config.getIoConf();
+        // Started by the user, which waits for the results: the files are not background requests (those are
+        // rejected rather than queued), the runner retries the files rejected anyway
+        AudioBatchRunner runner = new AudioBatchRunner(
+                (label, audio) -> client.audioQuery(label, audio, Priority.INTERACTIVE),
+                AudioUtil.getAssistantFormat(config.getAssistantConf()), ioConf.getFileMaxConcurrency());
+        return runner.run(Paths.get(ioConf.getFileInputDirectory()), Paths.get(ioConf.getFileResultsPath()));
+    }
+
+    /**
+     * @return true if the audio files of io.fileInputDirectory are sent to the assistant (see runFileBatch)
+     */
+    public boolean isFileInputMode() {
+        return IoConf.FILE.equals(configService.get().getIoConf().getInputMode());
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    /**
+     * @return the state of the channel to the assistant, empty if no client was built yet
+     */
+    public Optional<ConnectivityState> getChannelState() {
+        AssistantClient client = assistantClient;
+        return client == null ? Optional.empty() : Optional.of(client.getChannel().getState(false));
+    }
+
+    /**
+     * @return the expiration time (epoch ms) of the access token
+     */
+    public long getTokenExpirationTime() {
+        return authenticationHelper.getOAuthCredentials().getExpirationTime();
+    }
 
-            // Update the token for the assistant client
-            assistantClient.updateCredentials(authenticationHelper.getOAuthCredentials());
+    /**
+     * @return true if the last refresh of the access token failed (the token is refreshed when used, an expired
+     * token is not an error until it is needed)
+     */
+    public boolean isTokenRefreshFailing() {
+        return authenticationHelper.isRefreshFailing();
+    }
+
+    private void registerMetrics() {
+        assistantMetrics.register(metricRegistry);
+
+        Map<String, DoubleSupplier> channelStates = new LinkedHashMap<>();
+        for (ConnectivityState state : ConnectivityState.values()) {
+            channelStates.put("state=\"" + state.name() + "\"",
+                    () -> getChannelState().map(current -> current == state ? 1 : 0).orElse(0));
         }
+        metricRegistry.gauge("assistant_channel_state", "1 for the current state of the channel", channelStates);
+
+        metricRegistry.gauge("auth_token_expiration_seconds", "Expiration time of the access token (epoch)",
+                () -> getTokenExpirationTime() / 1000.0);
+        metricRegistry.counter("auth_token_refreshes_total", "Access token refreshes", authenticationHelper::getRefreshCount);
+        metricRegistry.counter("auth_token_refresh_failures_total", "Failed access token refreshes",
+                authenticationHelper::getRefreshFailureCount);
+
+        metricRegistry.histogram("scheduled_run_duration_ms", "Duration of the scheduled runs", runDurations);
+        metricRegistry.gauge("scheduled_run_last_seconds", "End of the last scheduled run (epoch)", () -> lastRunEpochMs / 1000.0);
+        metricRegistry.counter("scheduled_run_skipped_rules_total", "Rules not evaluated because an answer was missing",
+                skippedRulesCount::sum);
+
+        metricRegistry.counter("device_registration_cache_hits_total", "Registrations served from memory",
+                () -> deviceRegistrationCache.getHitCount());
+        metricRegistry.counter("device_registration_cache_misses_total", "Registrations loaded from the files or the api",
+                () -> deviceRegistrationCache.getMissCount());
+        DeviceStateCache deviceStateCache = commandDispatcher.getDeviceStateCache();
+        metricRegistry.counter("device_state_cache_hits_total", "Lookups of a known device state", deviceStateCache::getHitCount);
+        metricRegistry.counter("device_state_cache_misses_total", "Lookups of an unknown or expired device state",
+                deviceStateCache::getMissCount);
+        metricRegistry.counter("rate_limit_admitted_total", "Requests sent immediately", () -> rateLimiter.getAdmittedCount());
+        metricRegistry.counter("rate_limit_queued_total", "Requests delayed until a token was available",
+                () -> rateLimiter.getQueuedCount());
+        metricRegistry.counter("rate_limit_rejected_total", "Requests rejected by the rate limiter", () -> rateLimiter.getRejectedCount());
+        metricRegistry.counter("response_audio_cache_hits_total", "Answers played from the audio cache",
+                () -> getResponseAudioCache().map(ResponseAudioCache::getHitCount).orElse(0L));
+        metricRegistry.counter("response_audio_cache_misses_total", "Answers not in the audio cache",
+                () -> getResponseAudioCache().map(ResponseAudioCache::getMissCount).orElse(0L));
+        metricRegistry.gauge("response_audio_cache_bytes", "Size of the clips of the audio cache",
+                () -> getResponseAudioCache().map(ResponseAudioCache::getSizeBytes).orElse(0L));
+        metricRegistry.counter("rule_commands_sent_total", "Commands sent by the rules", commandDispatcher::getSentCount);
+        metricRegistry.counter("rule_commands_suppressed_total", "Commands not sent, the device was already in the state",
+                commandDispatcher::getSuppressedCount);
+    }
+
+    private Optional<ResponseAudioCache> getResponseAudioCache() {
+        return Optional.ofNullable(responseAudioCache);
+    }
 
-        assistantClient.requestAssistant(CHECK_TV_ON.getBytes());
-        String response = assistantClient.getTextResponse();
-        LOGGER.info(response);
-        boolean isTVon = response != null && response.toLowerCase().contains("on");
+    /**
+     * Listen to the events of the requests (scheduled runs and text queries) as they arrive
+     *
+     * @param listener the listener, called on the gRPC threads
+     */
+    public void addAssistListener(AssistListener listener) {
+        assistListeners.add(listener);
+    }
 
-        ZonedDateTime local =  LocalDateTime.now().atZone(ZoneId.of("America/Los_Angeles"));
-        boolean isSunset = isAfterSunset(local);
+    public void removeAssistListener(AssistListener listener) {
+        assistListeners.remove(listener);
+    }
 
-        if (isSunset) {
-            if (isTVon) {
-                assistantClient.requestAssistant(SWITCH_ON.getBytes());
-                String actionResponse = assistantClient.getTextResponse();
-                LOGGER.info(actionResponse);
-                if (actionResponse.toLowerCase().contains("on")) {
-                    //  way to override
+    /**
+     * Listen to the transcripts of the spoken requests (file input), partial then final, as they arrive
+     *
+     * @param listener the listener, called on the gRPC threads
+     */
+    public void addTranscriptListener(TranscriptListener listener) {
+        transcriptListeners.add(listener);
+    }
+
+    public void removeTranscriptListener(TranscriptListener listener) {
+        transcriptListeners.remove(listener);
+    }
+
+    /**
+     * Check if we need to refresh the access token to request the api
+     */
+    private void refreshAccessTokenIfExpired() throws AuthenticationException {
+        synchronized (tokenLock) {
+            if (authenticationHelper.expired()) {
+                authenticationHelper
+                        .refreshAccessToken()
+                        .orElseThrow(() -> new AuthenticationException("Error refreshing access token"));
+
+                // Update the token for the assistant client
+                AssistantClient client = assistantClient;
+                if (client != null) {
+                    client.updateCredentials(authenticationHelper.getOAuthCredentials());
                 }
-            } else {
-                assistantClient.requestAssistant(SWITCH_OFF.getBytes());
-                String actionResponse = assistantClient.getTextResponse();
-                LOGGER.info(actionResponse);
             }
-        } else {
-            //nothing to do.
-            LOGGER.info("Its not sunset. Sleeping");
         }
-        assistantClient.getChannel().shutdownNow();
     }
 
+    /**
+     * Get the client (stub) of the previous runs or build a new one
+     *
+     * @param deviceRegister the registered device model and device instance
+     */
+    private synchronized AssistantClient getAssistantClient(DeviceRegister deviceRegister) {
+        if (assistantClient == null) {
+            ConfigSnapshot config = configService.get();
+            // Not during a refresh, the client would keep the previous token
+            synchronized (tokenLock) {
+                assistantClient = new AssistantClient(authenticationHelper.getOAuthCredentials(), config.getAssistantConf(),
+                        deviceRegister.getDeviceModel(), deviceRegister.getDevice(), config.getIoConf(), assistantMetrics, rateLimiter);
+            }
+            assistantClient.addListener(event -> assistListeners.forEach(listener -> listener.onEvent(event)));
+            assistantClient.addTranscriptListener(transcript -> transcriptListeners.forEach(listener -> listener.onTranscript(transcript)));
+            if (config.getIoConf().getOutputAudio()) {
+                enableAudioOutput(assistantClient, config.getAudioConf());
+            }
+        }
+        return assistantClient;
+    }
+
+    /**
+     * Play the responses of a client, the output and the cache of the clips are shared by the successive clients
+     */
+    private void enableAudioOutput(AssistantClient client, AudioConf audioConf) {
+        if (audioOutput == null) {
+            audioOutput = AudioOutput.fromConf(audioConf);
+            if (audioConf.getResponseCacheMaxBytes() > 0) {
+                try {
+                    responseAudioCache = new ResponseAudioCache(Paths.get(audioConf.getResponseCacheDirectory()),
+                            audioConf.getResponseCacheMaxBytes(), audioConf.getResponseCacheMaxEntryBytes());
+                } catch (AudioException e) {
+                    LOGGER.warn("Unable to use the response audio cache, the streamed audio is always played", e);
+                }
+            }
+        }
+        client.enableAudioOutput(audioOutput, responseAudioCache);
+    }
+
+    /**
+     * Replace the shared client: the next caller builds a new one, the calls in flight finish on the previous one
+     */
+    private synchronized void retireAssistantClient() {
+        if (assistantClient != null) {
+            assistantClient.shutdownGracefully();
+            assistantClient = null;
+        }
+    }
+
+    /**
+     * Rebuild the components whose configuration changed
+     */
+    private void onConfigReload(ConfigSnapshot previous, ConfigSnapshot current) {
+        if (current.changed(previous, "assistant") || current.changed(previous, "io")) {
+            // The next run opens a new channel
+            retireAssistantClient();
+        }
+        if (current.changed(previous, "rateLimit")) {
+            rateLimiter = new RateLimiter(current.getRateLimitConf());
+            retireAssistantClient();
+        }
+        if (current.changed(previous, "deviceRegister")) {
+            deviceRegistrationCache = new DeviceRegistrationCache(current.getDeviceRegisterConf());
+            retireAssistantClient();
+        }
+        if (current.changed(previous, "rules") || current.changed(previous, "sun")) {
+            try {
+                // The locations of the rules are added again to a new service
+                SunEventService sunEvents = current.changed(previous, "sun")
+                        ? new SunEventService(current.getSunConf().getWindowDays())
+                        : sunEventService;
+                ruleEngine = RuleEngine.fromConfig(current.getConfig().getConfig("rules"), sunEvents, commandDispatcher);
+                sunEventService = sunEvents;
+            } catch (ConfigException | IllegalArgumentException e) {
+                LOGGER.error("Invalid rules or sun configuration, keeping the previous ones", e);
+            }
+        }
+        if (current.changed(previous, "cluster")) {
+            try {
+                ClusterCoordinator replaced = clusterCoordinator;
+                clusterCoordinator = ClusterCoordinator.fromConf(current.getClusterConf());
+                if (replaced != null) {
+                    replaced.releaseLeases();
+                }
+                LOGGER.info("Cluster configuration applied, lease store: {}", current.getClusterConf().getLeaseStore());
+            } catch (LeaseException e) {
+                LOGGER.error("Unable to initialize the new lease store, keeping the previous one", e);
+            }
+        }
+        // Held by long lived components (known device states, audio line, credentials)
+        for (String path : new String[]{"authentication", "deviceState", "audio"}) {
+            if (current.changed(previous, path)) {
+                LOGGER.warn("The configuration of {} changed, it is applied after a restart", path);
+            }
+        }
+    }
+
+    /**
+     * A stage of the run, which may fail with one of the exceptions of scheduledMethod
+     */
+    private interface Stage<T> {
+
+        T run() throws DeviceRegisterException, AuthenticationException;
+    }
+
+    private interface VoidStage {
+
+        void run() throws DeviceRegisterException, AuthenticationException;
+    }
+
+    private <T> CompletableFuture<T> supplyStage(String name, Map<String, Long> stageTimesMs, Stage<T> stage) {
+        return supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                return stage.run();
+            } finally {
+                stageTimesMs.put(name, elapsedMs(start));
+            }
+        });
+    }
+
+    /**
+     * Run a stage on the stage executor, its exception completes the future
+     */
+    private <T> CompletableFuture<T> supplyAsync(Stage<T> stage) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return stage.run();
+            } catch (DeviceRegisterException | AuthenticationException e) {
+                throw new CompletionException(e);
+            }
+        }, stageExecutor);
+    }
+
+    private CompletableFuture<Void> runStage(String name, Map<String, Long> stageTimesMs, VoidStage stage) {
+        return supplyStage(name, stageTimesMs, () -> {
+            stage.run();
+            return null;
+        });
+    }
+
+    /**
+     * Wait for a stage and rethrow its exception
+     */
+    private static <T> T join(CompletableFuture<T> stage) throws DeviceRegisterException, AuthenticationException, InterruptedException {
+        try {
+            return stage.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof DeviceRegisterException) {
+                throw (DeviceRegisterException) cause;
+            } else if (cause instanceof AuthenticationException) {
+                throw (AuthenticationException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
 
-    private boolean isAfterSunset(ZonedDateTime localDateTime) {
-        final ZonedDateTime sunSetInstant = ZonedDateTime.ofInstant(calculator.getCivilSunsetCalendarForDate(Calendar.getInstance())
-                .toInstant(), ZoneId.of("America/Los_Angeles"));
-        final ZonedDateTime sunriseInstant = ZonedDateTime.ofInstant(calculator.getCivilSunriseCalendarForDate(Calendar.getInstance())
-                        .toInstant(), ZoneId.of("America/Los_Angeles")).plus(1, ChronoUnit.DAYS)
-                .truncatedTo(ChronoUnit.DAYS)
-                .plus(3, ChronoUnit.HOURS);
-        boolean isAfterSunset = localDateTime.isAfter(sunSetInstant.plus(30, ChronoUnit.MINUTES)) && localDateTime.isBefore(sunriseInstant);
-        LOGGER.info("Light is supposed to be switched {}", isAfterSunset ? "ON" : "OFF");
-        return isAfterSunset;
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
     }
 }
@@ -0,0 +1,56 @@
+package com.mautini.assistant.demo.api;
+
+/**
+ * An event of a request to the assistant, published as soon as the assistant sends it
+ */
+public class AssistEvent {
+
+    public enum Type {
+        // Transcript of the speech of the user (audio input)
+        SPEECH_RESULT,
+        // The assistant detected the end of the speech of the user
+        END_OF_UTTERANCE,
+        // Text to display while the assistant answers
+        DIALOG_STATE,
+        // Text response of the assistant
+        TEXT,
+        // End of the request, the data is the final text response
+        COMPLETED,
+        // The request failed, the data is the status
+        ERROR
+    }
+
+    private final Type type;
+
+    private final String query;
+
+    private final String data;
+
+    private final long timestamp;
+
+    public AssistEvent(Type type, String query, String data) {
+        this.type = type;
+        this.query = query;
+        this.data = data;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the text query of the request (null for an audio request)
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,11 @@
+package com.mautini.assistant.demo.api;
+
+/**
+ * Receives the events of the requests to the assistant.
+ * <p>
+ * The events are published on the gRPC threads, a listener must not block.
+ */
+public interface AssistListener {
+
+    void onEvent(AssistEvent event);
+}
@@ -4,50 +4,89 @@ import com.google.assistant.embedded.v1alpha2.*;
 import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.OAuth2Credentials;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import com.mautini.assistant.demo.authentication.OAuthCredentials;
+import com.mautini.assistant.demo.client.audio.AudioOutput;
+import com.mautini.assistant.demo.client.audio.AudioUtil;
+import com.mautini.assistant.demo.client.audio.FlacEncoder;
+import com.mautini.assistant.demo.client.audio.ResponseAudioCache;
 import com.mautini.assistant.demo.config.AssistantConf;
 import com.mautini.assistant.demo.config.IoConf;
 import com.mautini.assistant.demo.device.Device;
 import com.mautini.assistant.demo.device.DeviceModel;
 import com.mautini.assistant.demo.exception.ConverseException;
+import com.mautini.assistant.demo.exception.RateLimitException;
+import com.mautini.assistant.demo.limit.Priority;
+import com.mautini.assistant.demo.limit.RateLimiter;
+import com.mautini.assistant.demo.metrics.AssistantMetrics;
 import io.grpc.CallCredentials;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 import io.grpc.auth.MoreCallCredentials;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
-public class AssistantClient implements StreamObserver<AssistResponse> {
+public class AssistantClient {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AssistantClient.class);
 
-    private CountDownLatch finishLatch = new CountDownLatch(1);
+    // A text request stays open until the text response is received, at most this delay
+    private static final long MAX_WAIT_TEXT_RESPONSE_SECONDS = 10;
 
-    private EmbeddedAssistantGrpc.EmbeddedAssistantStub embeddedAssistantStub;
+    // Maximum duration of a request
+    private static final long REQUEST_TIMEOUT_MINUTES = 1;
+
+    // Samples per FLAC frame, a frame is encoded when the transport is ready to send it
+    private static final int FLAC_BLOCK_SIZE = 4096;
+
+    // Most text queries remembered in displayTextQueries
+    private static final int MAX_DISPLAY_TEXT_QUERIES = 1024;
+
+    // Html element holding the text response in the screen output
+    private static final String TEXT_CONTAINER = "<div class=\"show_text_container\"> <div> <div class=\"show_text_content\">";
+
+    private volatile EmbeddedAssistantGrpc.EmbeddedAssistantStub embeddedAssistantStub;
     // See reference.conf
     private final AssistantConf assistantConf;
 
-    // if text inputType, text query is set
-    private String textQuery;
-
+    // Text response of the last request made with requestAssistant
     private String textResponse;
 
     private final IoConf ioConf;
 
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Timers of the requests in flight
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
 
     /**
-     * Conversation state to continue a conversation if needed
+     * Conversation state of the last answer, continued by the next call if it does not overlap another one (guarded
+     * by this client)
      *
      * @see <a href="https://developers.google.com/assistant/sdk/reference/rpc/google.assistant.embedded.v1alpha2#google.assistant.embedded.v1alpha2.DialogStateOut.FIELDS.bytes.google.assistant.embedded.v1alpha2.DialogStateOut.conversation_state">Google documentation</a>
      */
-    private ByteString currentConversationState;
+    private ByteString currentConversationState = ByteString.EMPTY;
+
+    // Calls started and not finished, a call started while another one is in flight begins a new conversation
+    private int conversationCalls;
 
     private final DeviceModel deviceModel;
 
@@ -55,18 +94,66 @@ public class AssistantClient implements StreamObserver<AssistResponse> {
 
     private ManagedChannel channel;
 
+    // Notified of the events of all the requests
+    private final List<AssistListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Notified of the transcripts of the spoken requests
+    private final List<TranscriptListener> transcriptListeners = new CopyOnWriteArrayList<>();
+
+    private final AssistantMetrics metrics;
+
+    // Admission control of the requests, shared by the clients of the same project
+    private final RateLimiter rateLimiter;
+
+    // Plays the audio of the responses, null when the audio output is disabled
+    private volatile AudioOutput audioOutput;
+
+    // Null without cache
+    private volatile ResponseAudioCache responseAudioCache;
+
+    // Text queries whose last answer had a display text. Without playback (see isTextOnly) they are sent without the
+    // screen output, the other requests keep it to read the answer in the html page
+    private final Set<String> displayTextQueries = Collections.newSetFromMap(Collections.synchronizedMap(
+            new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_DISPLAY_TEXT_QUERIES;
+                }
+            }));
+
+    // Calls accepted and not completed yet, see shutdownGracefully
+    private int callsInFlight;
+
+    private boolean closing;
+
+    private boolean closed;
+
     public AssistantClient(OAuthCredentials oAuthCredentials, AssistantConf assistantConf, DeviceModel deviceModel,
                            Device device, IoConf ioConf) {
+        this(oAuthCredentials, assistantConf, deviceModel, device, ioConf, new AssistantMetrics(), RateLimiter.unlimited());
+    }
+
+    public AssistantClient(OAuthCredentials oAuthCredentials, AssistantConf assistantConf, DeviceModel deviceModel,
+                           Device device, IoConf ioConf, AssistantMetrics metrics, RateLimiter rateLimiter) {
+        // Create a channel to the test service.
+        this(ManagedChannelBuilder.forAddress(assistantConf.getAssistantApiEndpoint(), 443).build(),
+                oAuthCredentials, assistantConf, deviceModel, device, ioConf, metrics, rateLimiter);
+    }
 
+    /**
+     * @param channel the channel to the api (e.g. an in-process channel to a fake api), shut down with the client
+     */
+    AssistantClient(ManagedChannel channel, OAuthCredentials oAuthCredentials, AssistantConf assistantConf,
+                    DeviceModel deviceModel, Device device, IoConf ioConf, AssistantMetrics metrics, RateLimiter rateLimiter) {
+
+        this.metrics = metrics;
+        this.rateLimiter = rateLimiter;
         this.assistantConf = assistantConf;
         this.deviceModel = deviceModel;
         this.device = device;
-        this.currentConversationState = ByteString.EMPTY;
         this.ioConf = ioConf;
 
-        // Create a channel to the test service.
-        channel = ManagedChannelBuilder.forAddress(assistantConf.getAssistantApiEndpoint(), 443)
-                .build();
+        this.channel = channel;
 
         // Create a stub with credential
         embeddedAssistantStub = EmbeddedAssistantGrpc.newStub(channel);
@@ -95,6 +182,17 @@ public class AssistantClient implements StreamObserver<AssistResponse> {
         return MoreCallCredentials.from(oAuth2Credentials);
     }
 
+    /**
+     * Play the audio of the responses
+     *
+     * @param audioOutput        the output playing the audio
+     * @param responseAudioCache the cache of the clips of the answers, null to always play the streamed audio
+     */
+    public void enableAudioOutput(AudioOutput audioOutput, ResponseAudioCache responseAudioCache) {
+        this.responseAudioCache = responseAudioCache;
+        this.audioOutput = audioOutput;
+    }
+
     /**
      * Update the credentials used to request the api
      *
@@ -113,7 +211,7 @@ public class AssistantClient implements StreamObserver<AssistResponse> {
         textResponse = null;
         switch (ioConf.getInputMode()) {
             case IoConf.TEXT:
-                 textRequestAssistant(request);
+                textResponse = awaitResponse(textQuery(new String(request)));
                 break;
             default:
                 LOGGER.error("Unknown input mode {}", ioConf.getInputMode());
@@ -121,131 +219,172 @@ public class AssistantClient implements StreamObserver<AssistResponse> {
     }
 
     /**
-     * Handle text query
+     * Send a text query without waiting for the response, many queries can be in flight at the same time
      *
-     * @param request byte[]
-     * @return byte[]
+     * @param query the text query
+     * @return a future completed with the text response (null if the assistant did not send any text)
      */
-    private void textRequestAssistant(byte[] request) throws ConverseException {
-        this.textQuery = new String(request);
-        try {
-            finishLatch = new CountDownLatch(1);
-            // Send the config request
-            StreamObserver<AssistRequest> requester = embeddedAssistantStub.assist(this);
-
-            requester.onNext(getConfigRequest());
+    public CompletableFuture<String> textQuery(String query) {
+        return textQuery(query, Priority.INTERACTIVE);
+    }
 
-            LOGGER.info("Requesting the assistant {}", textQuery);
+    /**
+     * Send a text query once the rate limiter admits it, without waiting for the response
+     *
+     * @param query    the text query
+     * @param priority the priority of the query for the rate limiter
+     * @return a future completed with the text response, or with a RateLimitException if the query was rejected,
+     * or with a StatusRuntimeException holding the status of the call if it failed (see {@link #isDeviceRejected})
+     */
+    public CompletableFuture<String> textQuery(String query, Priority priority) {
+        if (!acquireCall()) {
+            return failed(Status.UNAVAILABLE.withDescription("The client is shut down").asRuntimeException());
+        }
+        long waitNanos;
+        try {
+            waitNanos = rateLimiter.admit(deviceModel.getProjectId(), device.getId(), priority);
+        } catch (RateLimitException e) {
+            LOGGER.warn("Not requesting the assistant {}: {}", query, e.getMessage());
+            releaseCall();
+            return failed(e);
+        }
 
+        AssistCall call = new AssistCall(query);
+        call.response.whenComplete((text, error) -> releaseCall());
+        if (waitNanos == 0) {
+            call.start();
+        } else {
+            executor.schedule(call::start, waitNanos, TimeUnit.NANOSECONDS);
+        }
+        return call.response;
+    }
 
-            final Integer[] totalTries = {0};
-            totalTries[0]= 5;
-            final Integer[] count = {0};
-            Future<?> future = executor.submit(() -> {
-                while (textResponse == null && count[0] < totalTries[0]) {
-                    try {
-                        Thread.sleep(2000);
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                    count[0]++;
-                    LOGGER.debug("Tried {} times", count[0]);
-                }
-                if (textResponse == null) {
-                    LOGGER.warn("Did not receive any text response");
-                } else {
-                    LOGGER.info("Seeing text response {}", textResponse);
-                }
-            });
+    /**
+     * Send a spoken query, the whole audio is sent at once (e.g. a recorded file) without waiting for the response
+     *
+     * @param label    names the query in the logs and the events
+     * @param audio    the audio in the format of the api (LINEAR16 mono at audioSampleRate), it is not copied
+     * @param priority the priority of the query for the rate limiter
+     * @return a future completed with the transcript and the text response, or with a RateLimitException if the
+     * query was rejected, or with a StatusRuntimeException holding the status of the call if it failed
+     */
+    public CompletableFuture<AudioQueryResult> audioQuery(String label, ByteBuffer audio, Priority priority) {
+        if (!acquireCall()) {
+            return failed(Status.UNAVAILABLE.withDescription("The client is shut down").asRuntimeException());
+        }
+        long waitNanos;
+        try {
+            waitNanos = rateLimiter.admit(deviceModel.getProjectId(), device.getId(), priority);
+        } catch (RateLimitException e) {
+            LOGGER.warn("Not requesting the assistant {}: {}", label, e.getMessage());
+            releaseCall();
+            return failed(e);
+        }
 
-            future.get();
-            // Mark the end of requests
-            requester.onCompleted();
+        AssistCall call = new AssistCall(label, audio);
+        call.response.whenComplete((text, error) -> releaseCall());
+        if (waitNanos == 0) {
+            call.start();
+        } else {
+            executor.schedule(call::start, waitNanos, TimeUnit.NANOSECONDS);
+        }
+        return call.response.thenApply(text -> new AudioQueryResult(call.transcript, text));
+    }
 
-            // Receiving happens asynchronously
-            boolean expired = finishLatch.await(1, TimeUnit.MINUTES);
-            if (expired) {
-                LOGGER.debug("Waited too much time for the response, It could return bad result");
-            }
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
 
-        } catch (Exception e) {
+    private String awaitResponse(CompletableFuture<String> response) throws ConverseException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new ConverseException("Error requesting the assistant", e);
+        } catch (ExecutionException e) {
+            throw new ConverseException("Error requesting the assistant", e.getCause());
         }
     }
 
-    public String getTextResponse() {
-        return textResponse;
+    public void addListener(AssistListener listener) {
+        listeners.add(listener);
     }
 
-    @Override
-    public void onNext(AssistResponse value) {
-        if(value.getEventType() == AssistResponse.EventType.END_OF_UTTERANCE){
-            LOGGER.info("Event type : {}", value.getEventType().name());
-        }
-        try {
-            if (value.getEventType() != AssistResponse.EventType.EVENT_TYPE_UNSPECIFIED) {
+    public void removeListener(AssistListener listener) {
+        listeners.remove(listener);
+    }
 
-                LOGGER.info("Event type : {}", value.getEventType().name());
+    private void publish(AssistEvent event) {
+        for (AssistListener listener : listeners) {
+            try {
+                listener.onEvent(event);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Error in an assist listener", e);
             }
+        }
+    }
 
-            //currentResponse.write(value.getDialogStateOut().getSupplementalDisplayText().getBytes());
-            currentConversationState = value.getDialogStateOut().getConversationState();
-
-            String userRequest = value.getSpeechResultsList().stream()
-                    .map(SpeechRecognitionResult::getTranscript)
-                    .collect(Collectors.joining(" "));
+    public void addTranscriptListener(TranscriptListener listener) {
+        transcriptListeners.add(listener);
+    }
 
-            if (!userRequest.isEmpty()) {
-                LOGGER.info("Request Text : {}", userRequest);
-            }
+    public void removeTranscriptListener(TranscriptListener listener) {
+        transcriptListeners.remove(listener);
+    }
 
-            value.getDialogStateOut().getSupplementalDisplayText();
-            if (!value.getScreenOut().getData().isEmpty()) {
-                String completeString = value.getScreenOut().getData().toString(StandardCharsets.US_ASCII).toLowerCase();
-                String constant = "<div class=\"show_text_container\"> <div> <div class=\"show_text_content\">";
-                if (completeString.contains(constant)) {
-                    int startIndex = completeString.split(constant)[0].lastIndexOf(">");
-                    textResponse = completeString.substring(constant.length()+startIndex + 1,
-                            completeString.indexOf("<", constant.length()+startIndex));
-                    LOGGER.info("SEEING {}",this.textResponse);
-                }
+    private void publish(Transcript transcript) {
+        for (TranscriptListener listener : transcriptListeners) {
+            try {
+                listener.onTranscript(transcript);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Error in a transcript listener", e);
             }
-
-        } catch (Exception e) {
-            LOGGER.warn("Error requesting the assistant", e);
         }
     }
 
-    @Override
-    public void onError(Throwable t) {
-        LOGGER.warn("Error requesting the assistant", t);
-        finishLatch.countDown();
+    public String getTextResponse() {
+        return textResponse;
     }
 
-    @Override
-    public void onCompleted() {
-        LOGGER.info("End of the response");
-        if(textResponse!=null && textResponse.isEmpty()){
-            textResponse = "NO_RESPONSE";
+    /**
+     * Check if a request failed because the api does not know the device model or the device instance
+     *
+     * @param error the failure of the future of the request
+     * @return true if the device must be registered again
+     */
+    public static boolean isDeviceRejected(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (!(cause instanceof StatusRuntimeException)) {
+            return false;
         }
-        finishLatch.countDown();
+        Status status = ((StatusRuntimeException) cause).getStatus();
+        return status.getCode() == Status.Code.NOT_FOUND
+                || (status.getCode() == Status.Code.INVALID_ARGUMENT
+                && status.getDescription() != null
+                && status.getDescription().toLowerCase().contains("device"));
     }
 
     /**
      * Create the config message, this message must be send before the audio for each request
      *
+     * @param textQuery         the text query (if text inputType), null for a spoken request
+     * @param screenOutput      false to ask for the display text only, without the html page
+     * @param conversationState the state of the conversation continued by the request, empty for a new one
      * @return the request to send
      */
-    private AssistRequest getConfigRequest() {
+    private AssistRequest getConfigRequest(String textQuery, boolean screenOutput, ByteString conversationState) {
         AudioInConfig audioInConfig = AudioInConfig
                 .newBuilder()
-                .setEncoding(AudioInConfig.Encoding.LINEAR16)
+                .setEncoding(AudioInConfig.Encoding.valueOf(assistantConf.getAudioEncoding()))
                 .setSampleRateHertz(assistantConf.getAudioSampleRate())
                 .build();
 
+        // The audio output is required, without playback the smallest (compressed) encoding is asked
         AudioOutConfig audioOutConfig = AudioOutConfig
                 .newBuilder()
-                .setEncoding(AudioOutConfig.Encoding.LINEAR16)
+                .setEncoding(isTextOnly() ? AudioOutConfig.Encoding.OPUS_IN_OGG : AudioOutConfig.Encoding.LINEAR16)
                 .setSampleRateHertz(assistantConf.getAudioSampleRate())
                 .setVolumePercentage(assistantConf.getVolumePercent())
                 .build();
@@ -254,7 +393,7 @@ public class AssistantClient implements StreamObserver<AssistResponse> {
                 .newBuilder()
                 // We set the us local as default
                 .setLanguageCode("en-UK")
-                .setConversationState(currentConversationState);
+                .setConversationState(conversationState);
 
         DeviceConfig deviceConfig = DeviceConfig
                 .newBuilder()
@@ -262,8 +401,9 @@ public class AssistantClient implements StreamObserver<AssistResponse> {
                 .setDeviceId(device.getId())
                 .build();
 
+        // The html page of the screen output is only needed when the answers have no display text
         ScreenOutConfig screenOutConfig = ScreenOutConfig.newBuilder()
-                .setScreenMode(ScreenOutConfig.ScreenMode.PLAYING).build();
+                .setScreenMode(screenOutput ? ScreenOutConfig.ScreenMode.PLAYING : ScreenOutConfig.ScreenMode.OFF).build();
 
         AssistConfig.Builder assistConfigBuilder = AssistConfig
                 .newBuilder()
@@ -285,11 +425,11 @@ public class AssistantClient implements StreamObserver<AssistResponse> {
     }
 
     /**
-     * Prepares AssistConfig based on input type
+     * Prepares AssistConfig based on the type of the request
      *
      * @param assistConfigBuilder AssistConfig.Builder
      * @param audioConfig         AudioInConfig
-     * @param text_query          String
+     * @param text_query          String, null for a spoken request
      * @return AssistConfig.Builder
      */
     private AssistConfig.Builder getAssistConfigBuilder(
@@ -297,19 +437,538 @@ public class AssistantClient implements StreamObserver<AssistResponse> {
             AudioInConfig audioConfig,
             String text_query
     ) {
-        switch (ioConf.getInputMode()) {
-            case IoConf.AUDIO:
-                return assistConfigBuilder.setAudioInConfig(audioConfig);
-            case IoConf.TEXT:
-                return assistConfigBuilder.setTextQuery(text_query);
-            default:
-                LOGGER.error("Unknown input mode {}", ioConf.getInputMode());
-                return assistConfigBuilder;
+        // A spoken request (audio or file input) has no text query, a text query (e.g. the polls of the rules) is
+        // sent as text whatever the input mode
+        if (text_query == null) {
+            return assistConfigBuilder.setAudioInConfig(audioConfig);
         }
+        return assistConfigBuilder.setTextQuery(text_query);
+    }
 
+    /**
+     * @return true if the audio of the responses is not played (io.outputAudio is false)
+     */
+    private boolean isTextOnly() {
+        return !Boolean.TRUE.equals(ioConf.getOutputAudio());
     }
 
     public ManagedChannel getChannel() {
         return channel;
     }
+
+    /**
+     * Release the channel and the timers of the client
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        channel.shutdownNow();
+    }
+
+    /**
+     * Release the channel and the timers once the calls in flight complete (at most the request timeout). The calls
+     * sent meanwhile, by the callers which got the client before it was replaced, are still served; the calls sent
+     * after the close fail with UNAVAILABLE.
+     */
+    public synchronized void shutdownGracefully() {
+        closing = true;
+        if (callsInFlight == 0) {
+            close();
+        }
+    }
+
+    private synchronized boolean acquireCall() {
+        if (closed) {
+            return false;
+        }
+        callsInFlight++;
+        return true;
+    }
+
+    private synchronized void releaseCall() {
+        callsInFlight--;
+        if (closing && callsInFlight == 0) {
+            close();
+        }
+    }
+
+    private void close() {
+        closed = true;
+        executor.shutdownNow();
+        channel.shutdown();
+    }
+
+    /**
+     * @return the conversation state sent by the call, empty if another call is in flight: the turns of concurrent
+     * calls do not follow each other
+     */
+    private synchronized ByteString startConversationTurn(AssistCall call) {
+        call.continuesConversation = conversationCalls++ == 0;
+        return call.continuesConversation ? currentConversationState : ByteString.EMPTY;
+    }
+
+    /**
+     * Keep the conversation state of a call which continued the conversation, for the next call
+     */
+    private synchronized void endConversationTurn(AssistCall call, boolean succeeded) {
+        conversationCalls--;
+        if (succeeded && call.continuesConversation && !call.conversationState.isEmpty()) {
+            currentConversationState = call.conversationState;
+        }
+    }
+
+    /**
+     * A single request to the assistant, receives the responses of its stream.
+     * <p>
+     * The responses are pulled from the api as they are consumed (manual flow control): at most responseBufferSize
+     * responses are requested or waiting to be played, the next ones stay in the transport (whose window then stops
+     * the server) instead of piling up on the heap when the playback is slower than the network.
+     */
+    private class AssistCall implements ClientResponseObserver<AssistRequest, AssistResponse> {
+
+        // Names the request in the logs and the events (the text query for a text request)
+        private final String query;
+
+        // Null for a spoken request
+        private final String textQuery;
+
+        // Null for a text request
+        private final ByteBuffer audio;
+
+        private final CompletableFuture<String> response = new CompletableFuture<>();
+
+        private final AtomicBoolean halfClosed = new AtomicBoolean();
+
+        private volatile StreamObserver<AssistRequest> requester;
+
+        // The same stream as requester, pulls the responses
+        private volatile ClientCallStreamObserver<AssistRequest> requestStream;
+
+        private volatile String text;
+
+        private volatile String transcript;
+
+        // When the first audio was sent, 0 for a text request
+        private volatile long audioStartNanos;
+
+        // Chunks of the audio not sent yet, null once sent (guarded by the call)
+        private Iterator<ByteString> pendingAudio;
+
+        // Audio of the response received so far, cached at the end of the response
+        private byte[] responseAudio;
+
+        private int responseAudioLength;
+
+        // The response is longer than a cached clip, its audio is not kept
+        private boolean responseAudioTooLong;
+
+        // The streamed audio started playing
+        private boolean playingStreamedAudio;
+
+        // A cached clip is played instead of the streamed audio
+        private boolean playingCachedClip;
+
+        // First text of the answer, the key of its audio in the cache
+        private String answerText;
+
+        // Size of the responses received
+        private long receivedBytes;
+
+        // Set when the call starts
+        private volatile boolean screenOutput;
+
+        // No other call was in flight when this one started (guarded by the client)
+        private boolean continuesConversation;
+
+        // Conversation state of the answer, empty until the api sends one
+        private volatile ByteString conversationState = ByteString.EMPTY;
+
+        // Null for a spoken request
+        private volatile ScheduledFuture<?> halfCloseTimer;
+
+        private volatile ScheduledFuture<?> timeoutTimer;
+
+        private long startNanos;
+
+        AssistCall(String textQuery) {
+            this.query = textQuery;
+            this.textQuery = textQuery;
+            this.audio = null;
+        }
+
+        AssistCall(String label, ByteBuffer audio) {
+            this.query = label;
+            this.textQuery = null;
+            this.audio = audio;
+        }
+
+        void start() {
+            startNanos = metrics.requestStarted();
+            if (audio == null) {
+                // Mark the end of requests once we got the text response, or after a delay. A spoken request is
+                // half closed once its audio is sent, however long the upload takes
+                halfCloseTimer = executor.schedule(this::halfClose, MAX_WAIT_TEXT_RESPONSE_SECONDS, TimeUnit.SECONDS);
+            }
+            timeoutTimer = executor.schedule(() -> {
+                LOGGER.warn("No complete response to {} after {} minute(s)", query, REQUEST_TIMEOUT_MINUTES);
+                Status timeout = Status.DEADLINE_EXCEEDED.withDescription("No complete response from the assistant");
+                // Fail before cancelling the call, its partial text is not an answer
+                finish(timeout);
+                requester.onError(timeout.asRuntimeException());
+            }, REQUEST_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+
+            // Without the screen output, an answer without display text would be lost
+            screenOutput = !isTextOnly() || textQuery == null || !displayTextQueries.contains(textQuery);
+            // Send the config request
+            requester = embeddedAssistantStub.assist(this);
+            requester.onNext(getConfigRequest(textQuery, screenOutput, startConversationTurn(this)));
+            LOGGER.info("Requesting the assistant {}", query);
+
+            if (audio != null) {
+                sendAudio();
+            }
+        }
+
+        /**
+         * Send the audio in the configured encoding, then mark the end of the requests
+         */
+        private void sendAudio() {
+            audioStartNanos = System.nanoTime();
+            synchronized (this) {
+                pendingAudio = AudioInConfig.Encoding.FLAC.name().equals(assistantConf.getAudioEncoding())
+                        ? flacFrames() : linear16Chunks();
+            }
+            sendReadyAudio();
+        }
+
+        /**
+         * Send the chunks of the audio while the transport accepts them, the ready handler of the stream sends the
+         * next ones (outbound flow control: the chunks are not all buffered in the transport at once)
+         */
+        private synchronized void sendReadyAudio() {
+            if (pendingAudio == null) {
+                return;
+            }
+            while (pendingAudio.hasNext() && requestStream.isReady() && !response.isDone() && !halfClosed.get()) {
+                requester.onNext(AssistRequest.newBuilder()
+                        .setAudioIn(pendingAudio.next())
+                        .build());
+            }
+            if (!pendingAudio.hasNext() || response.isDone() || halfClosed.get()) {
+                pendingAudio = null;
+                if (!response.isDone() && halfClosed.compareAndSet(false, true)) {
+                    requester.onCompleted();
+                }
+            }
+        }
+
+        /**
+         * Send the raw samples in chunks wrapping the buffer
+         */
+        private Iterator<ByteString> linear16Chunks() {
+            ByteBuffer remaining = audio.duplicate();
+            int chunkSize = assistantConf.getChunkSize();
+            return new Iterator<ByteString>() {
+                @Override
+                public boolean hasNext() {
+                    return remaining.hasRemaining();
+                }
+
+                @Override
+                public ByteString next() {
+                    ByteBuffer chunk = remaining.slice();
+                    chunk.limit(Math.min(chunkSize, remaining.remaining()));
+                    remaining.position(remaining.position() + chunk.limit());
+                    return UnsafeByteOperations.unsafeWrap(chunk);
+                }
+            };
+        }
+
+        /**
+         * Send the stream header then the FLAC frames, a block of samples is only encoded when its frame is taken:
+         * the audio waiting for the transport is never held encoded
+         */
+        private Iterator<ByteString> flacFrames() {
+            ByteBuffer remaining = audio.duplicate();
+            FlacEncoder encoder = new FlacEncoder(assistantConf.getAudioSampleRate(), FLAC_BLOCK_SIZE);
+            // Bytes written by the encoder for the current step, copied as its buffer is reused
+            ByteString[] encoded = new ByteString[1];
+            FlacEncoder.FrameSink sink = (data, offset, length) -> encoded[0] = ByteString.copyFrom(data, offset, length);
+            encoder.start(sink);
+            return new Iterator<ByteString>() {
+                private ByteString next = encoded[0];
+
+                private boolean finished;
+
+                @Override
+                public boolean hasNext() {
+                    if (next == null && !finished) {
+                        encodeNextFrame();
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public ByteString next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    ByteString frame = next;
+                    next = null;
+                    return frame;
+                }
+
+                private void encodeNextFrame() {
+                    encoded[0] = null;
+                    if (remaining.remaining() >= 2) {
+                        // The samples of a single block, the encoder writes one frame
+                        ByteBuffer block = remaining.slice();
+                        block.limit(Math.min(block.limit(), FLAC_BLOCK_SIZE * 2));
+                        encoder.encode(block, sink);
+                        remaining.position(remaining.position() + block.position());
+                    }
+                    if (encoded[0] == null) {
+                        // The last (shorter) block, if any
+                        encoder.finish(sink);
+                        finished = true;
+                    }
+                    next = encoded[0];
+                }
+            };
+        }
+
+        private synchronized void halfClose() {
+            if (!response.isDone() && halfClosed.compareAndSet(false, true)) {
+                if (text == null) {
+                    LOGGER.warn("Did not receive any text response");
+                } else {
+                    LOGGER.info("Seeing text response {}", text);
+                }
+                requester.onCompleted();
+            }
+        }
+
+        /**
+         * Complete the response with the text, or with a StatusRuntimeException holding the status of the call
+         */
+        private void finish(Status status) {
+            if (halfCloseTimer != null) {
+                halfCloseTimer.cancel(false);
+            }
+            timeoutTimer.cancel(false);
+            if (status.isOk() ? response.complete(text) : response.completeExceptionally(status.asRuntimeException())) {
+                endConversationTurn(this, status.isOk());
+                metrics.requestFinished(startNanos, status.isOk());
+                metrics.responseReceived(receivedBytes);
+            }
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<AssistRequest> requestStream) {
+            this.requestStream = requestStream;
+            requestStream.disableAutoRequestWithInitial(assistantConf.getResponseBufferSize());
+            requestStream.setOnReadyHandler(this::sendReadyAudio);
+        }
+
+        @Override
+        public void onNext(AssistResponse value) {
+            if (value.getEventType() == AssistResponse.EventType.END_OF_UTTERANCE) {
+                LOGGER.info("Event type : {}", value.getEventType().name());
+                publish(new AssistEvent(AssistEvent.Type.END_OF_UTTERANCE, query, null));
+            }
+            receivedBytes += value.getSerializedSize();
+            // Completed once the response is consumed, null if it is consumed in onNext
+            CompletableFuture<Void> playback = null;
+            try {
+                if (value.getSpeechResultsCount() > 0) {
+                    onSpeechResults(value.getSpeechResultsList());
+                }
+
+                // Without audio output the audio is not kept (text only)
+                if (!value.getAudioOut().getAudioData().isEmpty()) {
+                    playback = onAudio(value.getAudioOut().getAudioData());
+                }
+
+                if (value.getEventType() != AssistResponse.EventType.EVENT_TYPE_UNSPECIFIED) {
+
+                    LOGGER.info("Event type : {}", value.getEventType().name());
+                }
+
+                //currentResponse.write(value.getDialogStateOut().getSupplementalDisplayText().getBytes());
+                if (!value.getDialogStateOut().getConversationState().isEmpty()) {
+                    conversationState = value.getDialogStateOut().getConversationState();
+                }
+
+                String displayText = value.getDialogStateOut().getSupplementalDisplayText();
+                if (!displayText.isEmpty()) {
+                    if (textQuery != null) {
+                        displayTextQueries.add(textQuery);
+                    }
+                    onAnswer(displayText);
+                    publish(new AssistEvent(AssistEvent.Type.DIALOG_STATE, query, displayText));
+                    if (!screenOutput && text == null) {
+                        // No html page to wait for, the display text is the answer
+                        text = displayText;
+                        LOGGER.info("SEEING {}", text);
+                        publish(new AssistEvent(AssistEvent.Type.TEXT, query, text));
+                        halfClose();
+                    }
+                }
+
+                if (!value.getScreenOut().getData().isEmpty()) {
+                    String completeString = value.getScreenOut().getData().toString(StandardCharsets.US_ASCII).toLowerCase();
+                    if (completeString.contains(TEXT_CONTAINER)) {
+                        int startIndex = completeString.split(TEXT_CONTAINER)[0].lastIndexOf(">");
+                        text = completeString.substring(TEXT_CONTAINER.length() + startIndex + 1,
+                                completeString.indexOf("<", TEXT_CONTAINER.length() + startIndex));
+                        LOGGER.info("SEEING {}", text);
+                        onAnswer(text);
+                        publish(new AssistEvent(AssistEvent.Type.TEXT, query, text));
+                        halfClose();
+                    }
+                }
+
+            } catch (Exception e) {
+                LOGGER.warn("Error requesting the assistant", e);
+            } finally {
+                pullNext(playback);
+            }
+        }
+
+        /**
+         * Publish the transcript of the utterance so far, partial or final
+         */
+        private void onSpeechResults(List<SpeechRecognitionResult> speechResults) {
+            String userRequest = speechResults.stream()
+                    .map(SpeechRecognitionResult::getTranscript)
+                    .collect(Collectors.joining(" "));
+            if (userRequest.isEmpty()) {
+                return;
+            }
+            float stability = 1;
+            for (SpeechRecognitionResult speechResult : speechResults) {
+                stability = Math.min(stability, speechResult.getStability());
+            }
+            long latencyNanos = audioStartNanos == 0 ? 0 : System.nanoTime() - audioStartNanos;
+            if (transcript == null) {
+                metrics.firstTranscriptReceived(latencyNanos);
+            }
+            LOGGER.info("Request Text : {} (stability {})", userRequest, stability);
+            transcript = userRequest;
+            publish(new Transcript(query, userRequest, stability, TimeUnit.NANOSECONDS.toMillis(latencyNanos)));
+            publish(new AssistEvent(AssistEvent.Type.SPEECH_RESULT, query, userRequest));
+        }
+
+        /**
+         * Request the next response once this one is consumed
+         *
+         * @param playback the playback of the audio of the response, null if there is nothing to wait for
+         */
+        private void pullNext(CompletableFuture<Void> playback) {
+            if (playback == null || playback.isDone()) {
+                requestStream.request(1);
+            } else {
+                // Played, interrupted or rejected by a full output: request is thread safe
+                playback.whenComplete((ignored, error) -> requestStream.request(1));
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (response.isDone()) {
+                // Cancelled after a timeout
+                LOGGER.debug("Call of {} closed", query, t);
+                return;
+            }
+            LOGGER.warn("Error requesting the assistant", t);
+            Status status = Status.fromThrowable(t);
+            publish(new AssistEvent(AssistEvent.Type.ERROR, query, status.getCode().name()));
+            finish(status);
+        }
+
+        @Override
+        public void onCompleted() {
+            LOGGER.info("End of the response");
+            if (text != null && text.isEmpty()) {
+                text = "NO_RESPONSE";
+            }
+            if (!screenOutput && text == null && displayTextQueries.remove(textQuery)) {
+                LOGGER.info("The answer of {} had no display text, the next ones ask for the screen output", query);
+            }
+            cacheResponseAudio();
+            publish(new AssistEvent(AssistEvent.Type.COMPLETED, query, text));
+            finish(Status.OK);
+        }
+
+        /**
+         * Play a chunk of the streamed audio, unless the cached clip of the answer is played
+         *
+         * @return the playback of the chunk, null if it is not played
+         */
+        private CompletableFuture<Void> onAudio(ByteString data) {
+            AudioOutput output = audioOutput;
+            if (output == null || playingCachedClip) {
+                return null;
+            }
+            byte[] chunk = data.toByteArray();
+            playingStreamedAudio = true;
+            CompletableFuture<Void> playback = output.play(chunk, AudioUtil.getAssistantFormat(assistantConf));
+            keepResponseAudio(chunk);
+            return playback;
+        }
+
+        /**
+         * Keep the audio of the response for the cache, at most the size of a cached clip
+         */
+        private void keepResponseAudio(byte[] chunk) {
+            ResponseAudioCache cache = responseAudioCache;
+            if (cache == null || responseAudioTooLong) {
+                return;
+            }
+            int maxLength = cache.getMaxEntryBytes();
+            if (responseAudioLength + chunk.length > maxLength) {
+                responseAudioTooLong = true;
+                responseAudio = null;
+                responseAudioLength = 0;
+                return;
+            }
+            if (responseAudio == null) {
+                responseAudio = new byte[Math.min(Math.max(chunk.length * 16, 64 * 1024), maxLength)];
+            } else if (responseAudioLength + chunk.length > responseAudio.length) {
+                responseAudio = Arrays.copyOf(responseAudio,
+                        Math.min(Math.max(responseAudio.length * 2, responseAudioLength + chunk.length), maxLength));
+            }
+            System.arraycopy(chunk, 0, responseAudio, responseAudioLength, chunk.length);
+            responseAudioLength += chunk.length;
+        }
+
+        /**
+         * Play the cached clip of the answer, if the streamed audio did not start yet
+         */
+        private void onAnswer(String answer) {
+            ResponseAudioCache cache = responseAudioCache;
+            AudioOutput output = audioOutput;
+            if (answerText != null || cache == null || output == null) {
+                return;
+            }
+            answerText = answer;
+            if (!playingStreamedAudio) {
+                cache.get(getAnswerKey()).ifPresent(clip -> {
+                    LOGGER.debug("Playing the cached audio of {}", answer);
+                    playingCachedClip = true;
+                    output.play(clip, AudioUtil.getAssistantFormat(assistantConf));
+                });
+            }
+        }
+
+        private void cacheResponseAudio() {
+            ResponseAudioCache cache = responseAudioCache;
+            if (cache != null && answerText != null && !playingCachedClip && responseAudioLength > 0) {
+                cache.put(getAnswerKey(), responseAudio, responseAudioLength);
+            }
+        }
+
+        private String getAnswerKey() {
+            return ResponseAudioCache.key(answerText, assistantConf.getAudioSampleRate(), assistantConf.getVolumePercent());
+        }
+    }
 }
@@ -0,0 +1,26 @@
+package com.mautini.assistant.demo.api;
+
+/**
+ * Response of the assistant to a spoken query
+ */
+public class AudioQueryResult {
+
+    // What the assistant understood, null if it did not recognize any speech
+    private final String transcript;
+
+    // Text response of the assistant, null if it did not send any text
+    private final String text;
+
+    public AudioQueryResult(String transcript, String text) {
+        this.transcript = transcript;
+        this.text = text;
+    }
+
+    public String getTranscript() {
+        return transcript;
+    }
+
+    public String getText() {
+        return text;
+    }
+}
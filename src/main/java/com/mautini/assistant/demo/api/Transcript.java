@@ -0,0 +1,67 @@
+package com.mautini.assistant.demo.api;
+
+/**
+ * What the assistant understood of the speech of the user so far.
+ * <p>
+ * Each transcript of an utterance replaces the previous one: the recognizer can still change the words of a partial
+ * transcript, the lower its stability the more likely. The final transcript (stability 1) does not change anymore.
+ */
+public class Transcript {
+
+    private final String query;
+
+    private final String text;
+
+    private final float stability;
+
+    private final long latencyMs;
+
+    private final long timestamp;
+
+    /**
+     * @param query     names the request
+     * @param text      the transcript of the whole utterance so far
+     * @param stability the lowest stability of the speech results of the transcript
+     * @param latencyMs the delay since the first audio of the request was sent
+     */
+    public Transcript(String query, String text, float stability, long latencyMs) {
+        this.query = query;
+        this.text = text;
+        this.stability = stability;
+        this.latencyMs = latencyMs;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the label of the request (e.g. the name of the audio file)
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the likelihood (0 to 1) that the recognizer will not change the transcript, 0 if not estimated
+     */
+    public float getStability() {
+        return stability;
+    }
+
+    /**
+     * @return true if the recognizer will not change the transcript anymore
+     */
+    public boolean isFinal() {
+        return stability >= 1;
+    }
+
+    public long getLatencyMs() {
+        return latencyMs;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
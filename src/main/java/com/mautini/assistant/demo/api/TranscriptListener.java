@@ -0,0 +1,13 @@
+package com.mautini.assistant.demo.api;
+
+/**
+ * Receives the transcripts of the speech of the user (audio requests), the partial ones then the final one.
+ * <p>
+ * A transcript is published as soon as its response arrives, before the end of the utterance: a listener can start
+ * its work early (display, intent matching). The transcripts are published on the gRPC threads, a listener must not
+ * block.
+ */
+public interface TranscriptListener {
+
+    void onTranscript(Transcript transcript);
+}
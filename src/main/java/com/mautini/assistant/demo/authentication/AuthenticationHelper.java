@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.gson.stream.JsonReader;
 import com.mautini.assistant.demo.config.AuthenticationConf;
 import com.mautini.assistant.demo.exception.AuthenticationException;
+import com.mautini.assistant.demo.json.JsonUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import retrofit2.Response;
@@ -14,6 +15,7 @@ import java.io.*;
 import java.net.URISyntaxException;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.concurrent.atomic.LongAdder;
 
 public class AuthenticationHelper {
 
@@ -31,29 +33,53 @@ public class AuthenticationHelper {
     // The configuration for the authentication module (see reference.conf in resources)
     private final AuthenticationConf authenticationConf;
 
+    private final LongAdder refreshes = new LongAdder();
+
+    private final LongAdder refreshFailures = new LongAdder();
+
+    // The last refresh of the access token failed, until a refresh succeeds
+    private volatile boolean refreshFailing;
+
     public AuthenticationHelper(AuthenticationConf authenticationConf) {
         this.authenticationConf = authenticationConf;
 
         Retrofit retrofit = new Retrofit.Builder()
                 .baseUrl(authenticationConf.getGoogleOAuthEndpoint())
-                .addConverterFactory(GsonConverterFactory.create())
+                .addConverterFactory(GsonConverterFactory.create(JsonUtil.GSON))
                 .build();
 
         oAuthClient = retrofit.create(OAuthClient.class);
-        gson = new Gson();
+        gson = JsonUtil.GSON;
     }
 
     public OAuthCredentials getOAuthCredentials() {
         return oAuthCredentials;
     }
 
+    public long getRefreshCount() {
+        return refreshes.sum();
+    }
+
+    public long getRefreshFailureCount() {
+        return refreshFailures.sum();
+    }
+
+    /**
+     * @return true if the last refresh of the access token failed
+     */
+    public boolean isRefreshFailing() {
+        return refreshFailing;
+    }
+
     public Optional<OAuthCredentials> authenticate() throws AuthenticationException {
         try {
             File file = new File(authenticationConf.getCredentialsFilePath());
             if (file.exists()) {
                 LOGGER.info("Loading oAuth credentials from file");
                 // If we have previous credentials in a file, use them
-                oAuthCredentials = gson.fromJson(new JsonReader(new FileReader(authenticationConf.getCredentialsFilePath())), OAuthCredentials.class);
+                try (JsonReader reader = new JsonReader(new BufferedReader(new FileReader(file)))) {
+                    oAuthCredentials = gson.fromJson(reader, OAuthCredentials.class);
+                }
                 LOGGER.info("Access Token: " + oAuthCredentials.getAccessToken());
             } else {
                 // Create new credentials
@@ -102,11 +128,17 @@ public class AuthenticationHelper {
                 oAuthCredentials.setExpiresIn(body.getExpiresIn());
                 oAuthCredentials.setTokenType(body.getTokenType());
                 saveCredentials();
+                refreshes.increment();
+                refreshFailing = false;
                 return Optional.of(oAuthCredentials);
             } else {
+                refreshFailures.increment();
+                refreshFailing = true;
                 return Optional.empty();
             }
         } catch (Exception e) {
+            refreshFailures.increment();
+            refreshFailing = true;
             throw new AuthenticationException("Error during authentication", e);
         }
     }
@@ -157,7 +189,7 @@ public class AuthenticationHelper {
      * @throws IOException if the file cannot be created
      */
     private void saveCredentials() throws IOException {
-        try (FileWriter writer = new FileWriter(authenticationConf.getCredentialsFilePath())) {
+        try (Writer writer = new BufferedWriter(new FileWriter(authenticationConf.getCredentialsFilePath()))) {
             // Set the expiration Date
             oAuthCredentials.setExpirationTime(System.currentTimeMillis() + oAuthCredentials.getExpiresIn() * 1000L);
             gson.toJson(oAuthCredentials, writer);
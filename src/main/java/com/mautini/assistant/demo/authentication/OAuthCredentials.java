@@ -1,7 +1,10 @@
 package com.mautini.assistant.demo.authentication;
 
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.mautini.assistant.demo.json.OAuthCredentialsAdapter;
 
+@JsonAdapter(OAuthCredentialsAdapter.class)
 public class OAuthCredentials {
 
     @SerializedName("access_token")
@@ -0,0 +1,182 @@
+package com.mautini.assistant.demo.batch;
+
+import com.google.gson.stream.JsonWriter;
+import com.mautini.assistant.demo.api.AudioQueryResult;
+import com.mautini.assistant.demo.client.audio.MappedAudioFile;
+import com.mautini.assistant.demo.exception.AudioException;
+import com.mautini.assistant.demo.exception.RateLimitException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * Send the recorded utterances of a directory to the assistant (regression suites, replays).
+ * <p>
+ * The files are mapped in memory and their audio is sent without being copied on the heap. At most maxConcurrency
+ * files are requested at the same time, the result of each file (transcript, answer or error) is appended to the
+ * results file, one json object per line, as soon as it is received. A file rejected by the rate limiter is sent
+ * again after a delay, doubled for each try.
+ */
+public class AudioBatchRunner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AudioBatchRunner.class);
+
+    // First delay before sending again a file rejected by the rate limiter
+    private static final long RATE_LIMIT_RETRY_DELAY_MS = 500;
+
+    private static final int MAX_RATE_LIMIT_RETRIES = 6;
+
+    private final BiFunction<String, ByteBuffer, CompletableFuture<AudioQueryResult>> audioQuery;
+
+    // Format of the audio sent to the assistant, also the format of the raw PCM files
+    private final AudioFormat format;
+
+    private final int maxConcurrency;
+
+    /**
+     * @param audioQuery     sends the audio of a file (named by the first argument) to the assistant
+     * @param format         the format expected by the assistant
+     * @param maxConcurrency the number of files requested at the same time
+     */
+    public AudioBatchRunner(BiFunction<String, ByteBuffer, CompletableFuture<AudioQueryResult>> audioQuery,
+                            AudioFormat format, int maxConcurrency) {
+        this.audioQuery = audioQuery;
+        this.format = format;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Request the assistant with each audio file of a directory, in the order of their names
+     *
+     * @param directory   the directory of the files (.wav, .raw or .pcm)
+     * @param resultsPath the file receiving the results, replaced if it exists
+     * @return the number of files answered without error
+     * @throws IOException if the directory can not be listed or the results can not be written
+     */
+    public int run(Path directory, Path resultsPath) throws IOException, InterruptedException {
+        List<Path> files = listAudioFiles(directory);
+        LOGGER.info("Requesting the assistant with {} files of {}", files.size(), directory);
+
+        Semaphore permits = new Semaphore(maxConcurrency);
+        AtomicInteger succeeded = new AtomicInteger();
+        long start = System.nanoTime();
+        ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor();
+        try (Writer results = Files.newBufferedWriter(resultsPath, StandardCharsets.UTF_8)) {
+            for (Path file : files) {
+                permits.acquire();
+                long fileStart = System.nanoTime();
+                CompletableFuture<AudioQueryResult> response = new CompletableFuture<>();
+                request(file, 0, retries, response);
+                response.whenComplete((result, error) -> {
+                    try {
+                        writeResult(results, file, result, error, fileStart);
+                        if (error == null) {
+                            succeeded.incrementAndGet();
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            // Wait for the last requests
+            permits.acquire(maxConcurrency);
+        } finally {
+            retries.shutdownNow();
+        }
+
+        LOGGER.info("{} files answered out of {} in {} ms, results written to {}", succeeded.get(), files.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), resultsPath);
+        return succeeded.get();
+    }
+
+    /**
+     * Send a file, again after a delay while the rate limiter rejects it
+     *
+     * @param response completed with the result of the last try
+     */
+    private void request(Path file, int retry, ScheduledExecutorService retries, CompletableFuture<AudioQueryResult> response) {
+        request(file).whenComplete((result, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof RateLimitException && retry < MAX_RATE_LIMIT_RETRIES) {
+                long delayMs = RATE_LIMIT_RETRY_DELAY_MS << retry;
+                LOGGER.debug("{} rejected by the rate limiter, sent again in {} ms", file, delayMs);
+                retries.schedule(() -> request(file, retry + 1, retries, response), delayMs, TimeUnit.MILLISECONDS);
+            } else if (error != null) {
+                response.completeExceptionally(error);
+            } else {
+                response.complete(result);
+            }
+        });
+    }
+
+    private CompletableFuture<AudioQueryResult> request(Path file) {
+        try {
+            MappedAudioFile audioFile = MappedAudioFile.open(file, format);
+            return audioQuery.apply(file.getFileName().toString(), audioFile.getAudio(format));
+        } catch (AudioException | RuntimeException e) {
+            CompletableFuture<AudioQueryResult> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private void writeResult(Writer results, Path file, AudioQueryResult result, Throwable error, long startNanos) {
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause != null) {
+            LOGGER.warn("Error requesting the assistant with {}", file, cause);
+        }
+        synchronized (results) {
+            try {
+                JsonWriter json = new JsonWriter(results);
+                json.beginObject();
+                json.name("file").value(file.getFileName().toString());
+                if (result != null) {
+                    json.name("transcript").value(result.getTranscript());
+                    json.name("answer").value(result.getText());
+                } else {
+                    json.name("error").value(String.valueOf(cause));
+                }
+                json.name("latencyMs").value(latencyMs);
+                json.endObject();
+                json.flush();
+                results.write('\n');
+                results.flush();
+            } catch (IOException e) {
+                LOGGER.error("Unable to write the result of {}", file, e);
+            }
+        }
+    }
+
+    private static List<Path> listAudioFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.{wav,WAV,raw,pcm}")) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+}
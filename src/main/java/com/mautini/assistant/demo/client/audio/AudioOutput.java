@@ -0,0 +1,236 @@
+package com.mautini.assistant.demo.client.audio;
+
+import com.mautini.assistant.demo.config.AudioConf;
+import com.mautini.assistant.demo.exception.AudioException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Plays the responses one after the other on a single thread.
+ * <p>
+ * A sink is opened on the first response of each format and kept open for the next ones, so a response does not pay
+ * the setup of a line (tens of ms). The responses are queued: the audio of a response streamed in several chunks is
+ * played without gap, and the sink is only drained when the queue is empty. The current playback can be interrupted
+ * (e.g. when the user speaks again).
+ */
+public class AudioOutput implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AudioOutput.class);
+
+    // The interruption is checked between the writes of this size
+    private static final int WRITE_CHUNK_SIZE = 4096;
+
+    private final AudioSink.Factory sinkFactory;
+
+    private final BlockingQueue<Playback> queue;
+
+    // The sinks of each format, opened by the playback thread and closed by close
+    private final Map<String, AudioSink> sinks = new HashMap<>();
+
+    private final Thread thread;
+
+    // Receives the audio of the buffers without array (e.g. mapped files), only used by the playback thread
+    private final byte[] chunk = new byte[WRITE_CHUNK_SIZE];
+
+    private volatile Playback current;
+
+    private volatile AudioSink currentSink;
+
+    private final LongAdder played = new LongAdder();
+
+    private final LongAdder interrupted = new LongAdder();
+
+    /**
+     * @param sinkFactory   opens the sink of a format
+     * @param queueCapacity the number of responses waiting to be played
+     */
+    public AudioOutput(AudioSink.Factory sinkFactory, int queueCapacity) {
+        this.sinkFactory = sinkFactory;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.thread = new Thread(this::run, "audio-output");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Build the output of the configured sink
+     */
+    public static AudioOutput fromConf(AudioConf audioConf) {
+        AudioSink.Factory factory;
+        switch (audioConf.getOutputSink()) {
+            case "file":
+                factory = FileAudioSink.inDirectory(Paths.get(audioConf.getOutputDirectory()));
+                break;
+            case "null":
+                factory = format -> new NullAudioSink();
+                break;
+            default:
+                factory = LineAudioSink::new;
+        }
+        return new AudioOutput(factory, audioConf.getOutputQueueSize());
+    }
+
+    /**
+     * Queue audio to play after the audio already queued
+     *
+     * @param sound  the audio, not copied: it must not be modified until played
+     * @param format the format of the audio
+     * @return a future completed when the audio is played, cancelled if the playback is interrupted
+     */
+    public CompletableFuture<Void> play(byte[] sound, AudioFormat format) {
+        return play(ByteBuffer.wrap(sound), format);
+    }
+
+    /**
+     * Queue audio to play after the audio already queued
+     *
+     * @param sound  the audio, from its position to its limit (e.g. a mapped file), it must not be modified until played
+     * @param format the format of the audio
+     * @return a future completed when the audio is played, cancelled if the playback is interrupted
+     */
+    public CompletableFuture<Void> play(ByteBuffer sound, AudioFormat format) {
+        Playback playback = new Playback(sound.slice(), format);
+        if (!queue.offer(playback)) {
+            playback.done.completeExceptionally(new AudioException("Too many responses waiting to be played"));
+        }
+        return playback.done;
+    }
+
+    /**
+     * Interrupt the current playback, the next queued audio is played
+     */
+    public void interrupt() {
+        Playback playback = current;
+        AudioSink sink = currentSink;
+        if (playback != null) {
+            playback.interrupted = true;
+            if (sink != null) {
+                // Unblock the write or drain of the playback thread
+                sink.flush();
+            }
+        }
+    }
+
+    /**
+     * Interrupt the current playback and discard the queued audio
+     */
+    public void stop() {
+        List<Playback> discarded = new ArrayList<>();
+        queue.drainTo(discarded);
+        discarded.forEach(playback -> playback.done.cancel(false));
+        interrupt();
+    }
+
+    public long getPlayedCount() {
+        return played.sum();
+    }
+
+    public long getInterruptedCount() {
+        return interrupted.sum();
+    }
+
+    @Override
+    public void close() {
+        stop();
+        thread.interrupt();
+        synchronized (sinks) {
+            sinks.values().forEach(AudioSink::close);
+            sinks.clear();
+        }
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Playback playback;
+            try {
+                playback = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                current = playback;
+                AudioSink sink = getSink(playback.format);
+                currentSink = sink;
+                write(playback, sink);
+                if (!playback.interrupted && queue.isEmpty()) {
+                    sink.drain();
+                }
+                if (playback.interrupted) {
+                    interrupted.increment();
+                    playback.done.cancel(false);
+                } else {
+                    played.increment();
+                    playback.done.complete(null);
+                }
+            } catch (AudioException | RuntimeException e) {
+                LOGGER.warn("Unable to play a response", e);
+                playback.done.completeExceptionally(e);
+            } finally {
+                current = null;
+                currentSink = null;
+            }
+        }
+    }
+
+    private void write(Playback playback, AudioSink sink) throws AudioException {
+        ByteBuffer sound = playback.sound;
+        // Whole frames only
+        int chunkSize = Math.max(1, WRITE_CHUNK_SIZE / playback.format.getFrameSize()) * playback.format.getFrameSize();
+        while (sound.hasRemaining() && !playback.interrupted) {
+            int length = Math.min(chunkSize, sound.remaining());
+            if (sound.hasArray()) {
+                sink.write(sound.array(), sound.arrayOffset() + sound.position(), length);
+                sound.position(sound.position() + length);
+            } else {
+                sound.get(chunk, 0, length);
+                sink.write(chunk, 0, length);
+            }
+        }
+        if (playback.interrupted) {
+            sink.flush();
+        }
+    }
+
+    private AudioSink getSink(AudioFormat format) throws AudioException {
+        // AudioFormat does not implement equals
+        String key = format.toString();
+        synchronized (sinks) {
+            AudioSink sink = sinks.get(key);
+            if (sink == null) {
+                sink = sinkFactory.open(format);
+                sinks.put(key, sink);
+            }
+            return sink;
+        }
+    }
+
+    private static final class Playback {
+
+        private final ByteBuffer sound;
+
+        private final AudioFormat format;
+
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private volatile boolean interrupted;
+
+        private Playback(ByteBuffer sound, AudioFormat format) {
+            this.sound = sound;
+            this.format = format;
+        }
+    }
+}
@@ -3,31 +3,50 @@ package com.mautini.assistant.demo.client.audio;
 import com.mautini.assistant.demo.config.AudioConf;
 import com.mautini.assistant.demo.exception.AudioException;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.DataLine;
-import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
-public class AudioPlayer {
+/**
+ * Plays the responses in the format of the AudioConf, on the output kept open between the responses
+ */
+public class AudioPlayer implements AutoCloseable {
 
     private final AudioConf audioConf;
 
+    private final AudioOutput audioOutput;
+
     public AudioPlayer(AudioConf audioConf) {
+        this(audioConf, AudioOutput.fromConf(audioConf));
+    }
+
+    public AudioPlayer(AudioConf audioConf, AudioOutput audioOutput) {
         this.audioConf = audioConf;
+        this.audioOutput = audioOutput;
     }
 
+    /**
+     * Play a response and wait until it is played (or interrupted)
+     */
     public void play(byte[] sound) throws AudioException {
         try {
-            AudioFormat format = AudioUtil.getAudioFormat(audioConf);
-            DataLine.Info dataLineInfo = new DataLine.Info(SourceDataLine.class, format);
-            SourceDataLine speakers = (SourceDataLine) AudioSystem.getLine(dataLineInfo);
-            speakers.open(format);
-            speakers.start();
-            speakers.write(sound, 0, sound.length);
-            speakers.drain();
-            speakers.close();
-        } catch (Exception e) {
-            throw new AudioException("Unable to play the response", e);
+            audioOutput.play(sound, AudioUtil.getAudioFormat(audioConf)).get();
+        } catch (CancellationException e) {
+            // Interrupted by the user
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            audioOutput.interrupt();
+            throw new AudioException("Interrupted while playing the response", e);
+        } catch (ExecutionException e) {
+            throw new AudioException("Unable to play the response", e.getCause());
         }
     }
+
+    public AudioOutput getAudioOutput() {
+        return audioOutput;
+    }
+
+    @Override
+    public void close() {
+        audioOutput.close();
+    }
 }
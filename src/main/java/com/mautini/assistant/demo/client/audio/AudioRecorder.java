@@ -11,22 +11,48 @@ import javax.sound.sampled.DataLine;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.TargetDataLine;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class AudioRecorder {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AudioRecorder.class);
 
-    private TargetDataLine microphone;
+    // Set by another thread (stdin or the caller) to end the capture
+    private volatile boolean stopped = false;
 
-    private boolean stopped = false;
+    // Recorder whose capture ends at the next line typed on stdin, null when no capture waits for it
+    private static final AtomicReference<AudioRecorder> STDIN_LISTENER = new AtomicReference<>();
+
+    // Reads stdin for all the captures, started with the first one
+    private static Thread stdinReader;
+
+    // Size of the chunks read from the ring buffer when the audio is converted
+    private static final int CONVERSION_CHUNK_SIZE = 4096;
 
     private final AudioConf audioConf;
 
+    // Format of the returned records
+    private final AudioFormat recordFormat;
+
+    /**
+     * Record in the capture format
+     */
     public AudioRecorder(AudioConf audioConf) {
+        this(audioConf, AudioUtil.getAudioFormat(audioConf));
+    }
+
+    /**
+     * Record in another format than the capture (e.g. capture at 48 kHz stereo and record 16 kHz mono)
+     *
+     * @param audioConf    the capture format and settings
+     * @param recordFormat the format of the returned records
+     */
+    public AudioRecorder(AudioConf audioConf, AudioFormat recordFormat) {
         this.audioConf = audioConf;
+        this.recordFormat = recordFormat;
     }
 
     public byte[] getRecord() throws AudioException {
@@ -34,67 +60,165 @@ public class AudioRecorder {
             // Reset the flag
             stopped = false;
 
-            // Start a new thread to wait during listening
-            Thread stopper = new Thread(() -> {
-                try {
-                    BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-                    br.readLine();
-                    stopped = true;
-                    LOGGER.info("End of the capture");
-                } catch (IOException ex) {
-                    ex.printStackTrace();
+            // The next line typed on stdin stops this capture
+            listenToStdin(this);
+
+            LOGGER.info(audioConf.getVadEnabled() ? "Listening, stops at the end of speech or tap enter ..." : "Listening, tap enter to stop ...");
+            PcmConverter converter = new PcmConverter(AudioUtil.getAudioFormat(audioConf), recordFormat);
+            byte[] chunk = converter.isIdentity() ? null : new byte[CONVERSION_CHUNK_SIZE];
+            int maxChunkOutput = converter.isIdentity() ? 0 : converter.prepare(CONVERSION_CHUNK_SIZE);
+            AudioRingBuffer ringBuffer = startCapture();
+
+            // The whole record is allocated once, at its maximum size
+            int maxLength = getMaxRecordBytes();
+            byte[] record = new byte[maxLength + maxChunkOutput];
+            VoiceActivityDetector detector = audioConf.getVadEnabled()
+                    ? new VoiceActivityDetector(audioConf, recordFormat) : null;
+            int length = 0;
+            int read;
+            while (length < maxLength) {
+                if (chunk == null) {
+                    // Same format, read directly into the record
+                    read = ringBuffer.readBlocking(record, length, maxLength - length);
+                    if (read <= 0) {
+                        break;
+                    }
+                } else {
+                    int chunkLength = ringBuffer.readBlocking(chunk, 0, chunk.length);
+                    if (chunkLength <= 0) {
+                        // End of the capture, convert the audio kept by the converter
+                        length += converter.flush(record, length);
+                        break;
+                    }
+                    read = converter.convert(chunk, 0, chunkLength, record, length);
                 }
-                stop();
-            });
-
-            // Start the thread that can stop the record
-            stopper.start();
-
-            return record();
+                length += read;
+                if (detector != null && detector.process(record, length)) {
+                    LOGGER.info("End of speech detected");
+                    stop();
+                }
+            }
+            length = Math.min(length, maxLength);
+
+            if (detector == null) {
+                return Arrays.copyOf(record, length);
+            }
+            if (!detector.hasSpeech()) {
+                LOGGER.info("No speech detected");
+            }
+            // Do not upload the silence before and after the speech
+            return Arrays.copyOfRange(record, detector.getSpeechStart(), detector.getSpeechEnd(length));
         } catch (Exception e) {
             throw new AudioException("Unable to record your voice", e);
+        } finally {
+            // A line typed after the end of speech is not kept for the next capture
+            STDIN_LISTENER.compareAndSet(this, null);
+        }
+    }
+
+    /**
+     * Start capturing the microphone on a new thread, until {@link #stop()} or the maximum duration
+     *
+     * @return the buffer receiving the audio, closed at the end of the capture
+     * @throws AudioException if the microphone is not available
+     */
+    public AudioRingBuffer startCapture() throws AudioException {
+        stopped = false;
+        TargetDataLine microphone;
+        try {
+            microphone = openMicrophone();
+        } catch (LineUnavailableException e) {
+            throw new AudioException("Unable to open the microphone", e);
+        }
+
+        AudioRingBuffer ringBuffer = new AudioRingBuffer(
+                Math.max(microphone.getBufferSize(), bytesPerMs() * audioConf.getRingBufferMs()));
+        Thread capture = new Thread(() -> capture(microphone, ringBuffer), "audio-capture");
+        capture.setDaemon(true);
+        capture.start();
+        return ringBuffer;
+    }
+
+    /**
+     * Stop the capture
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private static synchronized void listenToStdin(AudioRecorder recorder) {
+        STDIN_LISTENER.set(recorder);
+        if (stdinReader == null) {
+            // A single reader, a reader per capture would stay blocked after a capture ended by the detector and
+            // take the line of the next one
+            stdinReader = new Thread(AudioRecorder::readStdin, "stdin-reader");
+            stdinReader.setDaemon(true);
+            stdinReader.start();
+        }
+    }
+
+    private static void readStdin() {
+        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+        try {
+            while (br.readLine() != null) {
+                AudioRecorder recorder = STDIN_LISTENER.getAndSet(null);
+                if (recorder != null) {
+                    LOGGER.info("End of the capture");
+                    recorder.stop();
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read the standard input, the captures stop at the end of speech only", e);
         }
     }
 
-    private byte[] record() throws LineUnavailableException {
+    private TargetDataLine openMicrophone() throws LineUnavailableException, AudioException {
         AudioFormat format = AudioUtil.getAudioFormat(audioConf);
         DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
 
         // Checks if system supports the data line
         if (!AudioSystem.isLineSupported(info)) {
-            LOGGER.error("Line not supported");
-            System.exit(0);
+            throw new AudioException("Line not supported");
         }
 
-        microphone = (TargetDataLine) AudioSystem.getLine(info);
+        TargetDataLine microphone = (TargetDataLine) AudioSystem.getLine(info);
         microphone.open(format);
-        microphone.start();
-
-        LOGGER.info("Listening, tap enter to stop ...");
-
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        int numBytesRead;
-        byte[] data = new byte[microphone.getBufferSize() / 5];
-
-        // Begin audio capture.
-        microphone.start();
+        return microphone;
+    }
 
-        // Here, stopped is a global boolean set by another thread.
-        while (!stopped) {
-            // Read the next chunk of data from the TargetDataLine.
-            numBytesRead = microphone.read(data, 0, data.length);
-            // Save this chunk of data.
-            byteArrayOutputStream.write(data, 0, numBytesRead);
+    private void capture(TargetDataLine microphone, AudioRingBuffer ringBuffer) {
+        int chunkSize = microphone.getBufferSize() / 5;
+        long maxBytes = (long) bytesPerMs() * audioConf.getMaxRecordSeconds() * 1000;
+        long captured = 0;
+        try {
+            // Begin audio capture.
+            microphone.start();
+            while (!stopped && captured < maxBytes) {
+                // Read the next chunk directly into the ring buffer
+                int read = ringBuffer.fill(microphone::read, (int) Math.min(chunkSize, maxBytes - captured));
+                if (read == 0) {
+                    // The consumer is late, the line keeps buffering meanwhile
+                    ringBuffer.awaitSpace();
+                }
+                captured += read;
+            }
+            if (captured >= maxBytes) {
+                LOGGER.info("Maximum duration of the capture reached ({} s)", audioConf.getMaxRecordSeconds());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            microphone.stop();
+            microphone.close();
+            ringBuffer.close();
         }
+    }
 
-        return byteArrayOutputStream.toByteArray();
+    private int getMaxRecordBytes() {
+        return (int) recordFormat.getSampleRate() / 1000 * recordFormat.getFrameSize() * audioConf.getMaxRecordSeconds() * 1000;
     }
 
-    /**
-     * Stop the capture
-     */
-    private void stop() {
-        microphone.stop();
-        microphone.close();
+    private int bytesPerMs() {
+        return audioConf.getSampleRate() / 1000 * audioConf.getChannels() * audioConf.getSampleSizeInBits() / 8;
     }
 }
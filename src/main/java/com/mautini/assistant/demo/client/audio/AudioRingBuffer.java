@@ -0,0 +1,125 @@
+package com.mautini.assistant.demo.client.audio;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring buffer of audio bytes between a single producer (the capture thread) and a single consumer.
+ * <p>
+ * The buffer is allocated once, the producer reads the audio line directly into it and the consumer copies out of
+ * it, so the capture does not allocate anything per chunk. The positions are published with ordered writes, without
+ * lock. The producer closes the buffer at the end of the capture.
+ */
+public class AudioRingBuffer {
+
+    // Pause of a side waiting for the other one
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * A source of audio bytes, e.g. TargetDataLine::read
+     */
+    public interface Source {
+
+        int read(byte[] buffer, int offset, int length);
+    }
+
+    private final byte[] buffer;
+
+    // Total number of bytes written by the producer / read by the consumer, the index is the position modulo capacity
+    private final AtomicLong writePosition = new AtomicLong();
+
+    private final AtomicLong readPosition = new AtomicLong();
+
+    private volatile boolean closed;
+
+    public AudioRingBuffer(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Producer side: read from the source into the free space of the buffer
+     *
+     * @param source    the source of the audio
+     * @param maxLength the maximum number of bytes to read
+     * @return the number of bytes read, 0 if the buffer is full
+     */
+    public int fill(Source source, int maxLength) {
+        long write = writePosition.get();
+        int free = buffer.length - (int) (write - readPosition.get());
+        int index = (int) (write % buffer.length);
+        // A single contiguous region, the next call continues at the beginning of the array
+        int length = Math.min(Math.min(free, maxLength), buffer.length - index);
+        if (length == 0) {
+            return 0;
+        }
+        int read = source.read(buffer, index, length);
+        if (read > 0) {
+            writePosition.lazySet(write + read);
+        }
+        return Math.max(read, 0);
+    }
+
+    /**
+     * Producer side: mark the end of the audio
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Consumer side: copy the available bytes
+     *
+     * @return the number of bytes copied, 0 if the buffer is empty, -1 if it is empty and closed
+     */
+    public int read(byte[] destination, int offset, int length) {
+        long read = readPosition.get();
+        // Read the closed flag before the position, a close is always after the last write
+        boolean end = closed;
+        int available = (int) (writePosition.get() - read);
+        if (available == 0) {
+            return end ? -1 : 0;
+        }
+
+        int count = Math.min(available, length);
+        int index = (int) (read % buffer.length);
+        int first = Math.min(count, buffer.length - index);
+        System.arraycopy(buffer, index, destination, offset, first);
+        System.arraycopy(buffer, 0, destination, offset + first, count - first);
+        readPosition.lazySet(read + count);
+        return count;
+    }
+
+    /**
+     * Consumer side: wait for bytes and copy them
+     *
+     * @return the number of bytes copied (at least 1), -1 at the end of the audio
+     */
+    public int readBlocking(byte[] destination, int offset, int length) throws InterruptedException {
+        int count;
+        while ((count = read(destination, offset, length)) == 0) {
+            park();
+        }
+        return count;
+    }
+
+    /**
+     * Producer side: wait until some space is free
+     */
+    public void awaitSpace() throws InterruptedException {
+        while (writePosition.get() - readPosition.get() == buffer.length) {
+            park();
+        }
+    }
+
+    private static void park() throws InterruptedException {
+        LockSupport.parkNanos(PARK_NANOS);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
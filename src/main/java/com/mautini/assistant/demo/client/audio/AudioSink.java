@@ -0,0 +1,37 @@
+package com.mautini.assistant.demo.client.audio;
+
+import com.mautini.assistant.demo.exception.AudioException;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Destination of the played audio (speakers, file, nothing), kept open across the responses by {@link AudioOutput}
+ */
+public interface AudioSink extends AutoCloseable {
+
+    /**
+     * Opens a sink for a format
+     */
+    interface Factory {
+
+        AudioSink open(AudioFormat format) throws AudioException;
+    }
+
+    /**
+     * Write audio, blocks while the sink is full
+     */
+    void write(byte[] data, int offset, int length) throws AudioException;
+
+    /**
+     * Wait until the written audio is played
+     */
+    void drain();
+
+    /**
+     * Discard the audio not played yet, can be called by another thread to unblock write and drain
+     */
+    void flush();
+
+    @Override
+    void close();
+}
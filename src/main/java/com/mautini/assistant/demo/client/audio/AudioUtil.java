@@ -1,5 +1,6 @@
 package com.mautini.assistant.demo.client.audio;
 
+import com.mautini.assistant.demo.config.AssistantConf;
 import com.mautini.assistant.demo.config.AudioConf;
 
 import javax.sound.sampled.AudioFormat;
@@ -16,4 +17,11 @@ public class AudioUtil {
                 audioConf.getSigned(),
                 audioConf.getBigEndian());
     }
+
+    /**
+     * Defines the audio format expected by the assistant api (LINEAR16: 16 bits signed little endian mono)
+     */
+    public static AudioFormat getAssistantFormat(AssistantConf assistantConf) {
+        return new AudioFormat(assistantConf.getAudioSampleRate(), 16, 1, true, false);
+    }
 }
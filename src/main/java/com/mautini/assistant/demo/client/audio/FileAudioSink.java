@@ -0,0 +1,72 @@
+package com.mautini.assistant.demo.client.audio;
+
+import com.mautini.assistant.demo.exception.AudioException;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends the raw audio to a file (headless tests), one file per format
+ */
+public class FileAudioSink implements AudioSink {
+
+    private final FileChannel channel;
+
+    public FileAudioSink(Path file) throws AudioException {
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new AudioException("Unable to open the audio output file " + file, e);
+        }
+    }
+
+    /**
+     * @return a factory writing the files of each format in a directory
+     */
+    public static AudioSink.Factory inDirectory(Path directory) {
+        return format -> new FileAudioSink(directory.resolve(getFileName(format)));
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws AudioException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new AudioException("Unable to write the audio output file", e);
+        }
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more to write
+        }
+    }
+
+    private static String getFileName(AudioFormat format) {
+        return String.format("output-%d-%dbit-%dch-%s.pcm", (int) format.getSampleRate(), format.getSampleSizeInBits(),
+                format.getChannels(), format.isBigEndian() ? "be" : "le");
+    }
+}
@@ -0,0 +1,475 @@
+package com.mautini.assistant.demo.client.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Streaming FLAC encoder for 16 bits mono PCM (the audio accepted by the assistant api).
+ * <p>
+ * Each block of samples is encoded with the best fixed polynomial predictor (order 0 to 4) and a partitioned Rice
+ * coding of the residual, or as a constant (silence) or verbatim subframe when it is smaller. A frame is given to the
+ * {@link FrameSink} as soon as its block is complete, so it can be sent while the following audio is encoded. The
+ * stream header does not know the total number of samples nor their MD5, as allowed for a stream.
+ * <p>
+ * The buffers are allocated with the encoder, which is not thread safe (use one per stream).
+ */
+public class FlacEncoder {
+
+    /**
+     * Receives the encoded bytes, the array is reused after the call
+     */
+    public interface FrameSink {
+
+        void write(byte[] data, int offset, int length);
+    }
+
+    private static final int BITS_PER_SAMPLE = 16;
+
+    private static final int MAX_FIXED_ORDER = 4;
+
+    private static final int MAX_PARTITION_ORDER = 8;
+
+    // The parameter 15 is the escape code of the 4 bits Rice parameters
+    private static final int MAX_RICE_PARAMETER = 14;
+
+    private static final int[] CRC8_TABLE = new int[256];
+
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8_TABLE[i] = crc8 & 0xFF;
+            CRC16_TABLE[i] = crc16 & 0xFFFF;
+        }
+    }
+
+    private final int sampleRate;
+
+    private final int blockSize;
+
+    private final int[] samples;
+
+    private int sampleCount;
+
+    private final int[] residual;
+
+    // Sums of the absolute residuals of each fixed predictor order
+    private final long[] orderSums = new long[MAX_FIXED_ORDER + 1];
+
+    // Sums of the zigzag residual of each partition, at the finest partition order
+    private final long[] partitionSums = new long[1 << MAX_PARTITION_ORDER];
+
+    private final int[] riceParameters = new int[1 << MAX_PARTITION_ORDER];
+
+    private final BitWriter writer;
+
+    private long frameNumber;
+
+    /**
+     * @param sampleRate the sample rate of the audio
+     * @param blockSize  the number of samples per frame (4096 by default with libFLAC)
+     */
+    public FlacEncoder(int sampleRate, int blockSize) {
+        this.sampleRate = sampleRate;
+        this.blockSize = blockSize;
+        this.samples = new int[blockSize];
+        this.residual = new int[blockSize];
+        // A frame is never larger than a verbatim one
+        this.writer = new BitWriter(blockSize * BITS_PER_SAMPLE / 8 + 64);
+    }
+
+    /**
+     * Write the stream header ("fLaC" and the STREAMINFO block), before the first frame
+     */
+    public void start(FrameSink sink) {
+        writer.reset();
+        writer.writeBits(0x664C6143, 32);
+        // Last metadata block, STREAMINFO, 34 bytes
+        writer.writeBits(0x80, 8);
+        writer.writeBits(34, 24);
+        writer.writeBits(blockSize, 16);
+        writer.writeBits(blockSize, 16);
+        // Unknown minimum and maximum frame sizes
+        writer.writeBits(0, 24);
+        writer.writeBits(0, 24);
+        writer.writeBits(sampleRate, 20);
+        writer.writeBits(0, 3);
+        writer.writeBits(BITS_PER_SAMPLE - 1, 5);
+        // Unknown number of samples and MD5
+        writer.writeBits(0, 4);
+        for (int i = 0; i < 5; i++) {
+            writer.writeBits(0, 32);
+        }
+        sink.write(writer.buffer, 0, writer.length());
+    }
+
+    /**
+     * Encode the samples of a buffer (16 bits signed little endian), the frames are written as the blocks are complete
+     *
+     * @param pcm  the audio, read up to its limit (an odd last byte is left in the buffer)
+     * @param sink receives the frames
+     */
+    public void encode(ByteBuffer pcm, FrameSink sink) {
+        ByteOrder order = pcm.order();
+        pcm.order(ByteOrder.LITTLE_ENDIAN);
+        while (pcm.remaining() >= 2) {
+            samples[sampleCount++] = pcm.getShort();
+            if (sampleCount == blockSize) {
+                writeFrame(sink);
+            }
+        }
+        pcm.order(order);
+    }
+
+    /**
+     * Write the last (shorter) frame, at the end of the stream
+     */
+    public void finish(FrameSink sink) {
+        if (sampleCount > 0) {
+            writeFrame(sink);
+        }
+        frameNumber = 0;
+    }
+
+    private void writeFrame(FrameSink sink) {
+        int count = sampleCount;
+        writer.reset();
+
+        // Frame header: sync code, fixed block size
+        writer.writeBits(0xFFF8, 16);
+        int blockSizeCode = getBlockSizeCode(count);
+        writer.writeBits(blockSizeCode, 4);
+        // Sample rate of the STREAMINFO, mono, 16 bits
+        writer.writeBits(0, 4);
+        writer.writeBits(0, 4);
+        writer.writeBits(0b100, 3);
+        writer.writeBits(0, 1);
+        writeUtf8(frameNumber);
+        if (blockSizeCode == 6) {
+            writer.writeBits(count - 1, 8);
+        } else if (blockSizeCode == 7) {
+            writer.writeBits(count - 1, 16);
+        }
+        writer.writeBits(crc8(writer.buffer, writer.length()), 8);
+
+        writeSubframe(count);
+
+        writer.alignToByte();
+        int crc16 = crc16(writer.buffer, writer.length());
+        writer.writeBits(crc16, 16);
+        sink.write(writer.buffer, 0, writer.length());
+
+        frameNumber++;
+        sampleCount = 0;
+    }
+
+    private void writeSubframe(int count) {
+        boolean constant = true;
+        for (int i = 1; i < count && constant; i++) {
+            constant = samples[i] == samples[0];
+        }
+        if (constant) {
+            writer.writeBits(0, 8);
+            writer.writeBits(samples[0], BITS_PER_SAMPLE);
+            return;
+        }
+
+        int order = chooseFixedOrder(count);
+        computeResidual(order, count);
+        int partitionOrder = choosePartitions(order, count);
+        long residualBits = 0;
+        int partitions = 1 << partitionOrder;
+        for (int partition = 0; partition < partitions; partition++) {
+            residualBits += 4 + riceBits(partition, partitionOrder, order, count);
+        }
+        long fixedBits = 8 + (long) order * BITS_PER_SAMPLE + 6 + residualBits;
+
+        if (fixedBits >= 8 + (long) count * BITS_PER_SAMPLE) {
+            // Verbatim
+            writer.writeBits(0b00000010, 8);
+            for (int i = 0; i < count; i++) {
+                writer.writeBits(samples[i], BITS_PER_SAMPLE);
+            }
+            return;
+        }
+
+        writer.writeBits((0b001000 | order) << 1, 8);
+        for (int i = 0; i < order; i++) {
+            writer.writeBits(samples[i], BITS_PER_SAMPLE);
+        }
+        // Rice coding with 4 bits parameters
+        writer.writeBits(0, 2);
+        writer.writeBits(partitionOrder, 4);
+        int partitionSize = count >> partitionOrder;
+        int index = order;
+        for (int partition = 0; partition < partitions; partition++) {
+            int parameter = riceParameters[partition];
+            writer.writeBits(parameter, 4);
+            int end = (partition + 1) * partitionSize;
+            for (; index < end; index++) {
+                int value = residual[index];
+                int zigzag = (value << 1) ^ (value >> 31);
+                writer.writeUnary(zigzag >>> parameter);
+                writer.writeBits(zigzag, parameter);
+            }
+        }
+    }
+
+    /**
+     * The order of the fixed predictor with the smallest sum of absolute residuals
+     */
+    private int chooseFixedOrder(int count) {
+        if (count <= MAX_FIXED_ORDER) {
+            return 0;
+        }
+        long[] sums = orderSums;
+        Arrays.fill(sums, 0);
+        for (int i = MAX_FIXED_ORDER; i < count; i++) {
+            int e0 = samples[i];
+            int e1 = e0 - samples[i - 1];
+            int e2 = e1 - (samples[i - 1] - samples[i - 2]);
+            int e3 = e2 - (samples[i - 1] - 2 * samples[i - 2] + samples[i - 3]);
+            int e4 = e3 - (samples[i - 1] - 3 * samples[i - 2] + 3 * samples[i - 3] - samples[i - 4]);
+            sums[0] += Math.abs(e0);
+            sums[1] += Math.abs(e1);
+            sums[2] += Math.abs(e2);
+            sums[3] += Math.abs(e3);
+            sums[4] += Math.abs(e4);
+        }
+        int best = 0;
+        for (int order = 1; order <= MAX_FIXED_ORDER; order++) {
+            if (sums[order] < sums[best]) {
+                best = order;
+            }
+        }
+        return best;
+    }
+
+    private void computeResidual(int order, int count) {
+        int[] x = samples;
+        for (int i = order; i < count; i++) {
+            switch (order) {
+                case 0:
+                    residual[i] = x[i];
+                    break;
+                case 1:
+                    residual[i] = x[i] - x[i - 1];
+                    break;
+                case 2:
+                    residual[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+                    break;
+                case 3:
+                    residual[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                    break;
+                default:
+                    residual[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+            }
+        }
+    }
+
+    /**
+     * Choose the partition order and the Rice parameter of each partition with the smallest estimated size
+     *
+     * @return the partition order, the parameters are in riceParameters
+     */
+    private int choosePartitions(int order, int count) {
+        // The partitions must split the block evenly and the first one must hold more than the warm-up samples
+        int maxOrder = 0;
+        while (maxOrder < MAX_PARTITION_ORDER && count % (2 << maxOrder) == 0 && (count >> (maxOrder + 1)) > order) {
+            maxOrder++;
+        }
+
+        int partitionSize = count >> maxOrder;
+        for (int partition = 0; partition < (1 << maxOrder); partition++) {
+            long sum = 0;
+            for (int i = Math.max(order, partition * partitionSize); i < (partition + 1) * partitionSize; i++) {
+                int value = residual[i];
+                sum += (value << 1) ^ (value >> 31);
+            }
+            partitionSums[partition] = sum;
+        }
+
+        int bestOrder = maxOrder;
+        long bestBits = Long.MAX_VALUE;
+        for (int partitionOrder = maxOrder; partitionOrder >= 0; partitionOrder--) {
+            if (partitionOrder < maxOrder) {
+                // Merge the sums of the finer order
+                for (int partition = 0; partition < (1 << partitionOrder); partition++) {
+                    partitionSums[partition] = partitionSums[2 * partition] + partitionSums[2 * partition + 1];
+                }
+            }
+            long bits = 0;
+            for (int partition = 0; partition < (1 << partitionOrder); partition++) {
+                int size = (count >> partitionOrder) - (partition == 0 ? order : 0);
+                bits += 4 + estimateBits(partitionSums[partition], size, bestParameter(partitionSums[partition], size));
+            }
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestOrder = partitionOrder;
+            }
+        }
+
+        // Recompute the sums of the chosen order (merged in place above)
+        int size = count >> bestOrder;
+        for (int partition = 0; partition < (1 << bestOrder); partition++) {
+            long sum = 0;
+            for (int i = Math.max(order, partition * size); i < (partition + 1) * size; i++) {
+                int value = residual[i];
+                sum += (value << 1) ^ (value >> 31);
+            }
+            riceParameters[partition] = bestParameter(sum, size - (partition == 0 ? order : 0));
+        }
+        return bestOrder;
+    }
+
+    /**
+     * Exact number of bits of the residual of a partition with its Rice parameter
+     */
+    private long riceBits(int partition, int partitionOrder, int order, int count) {
+        int size = count >> partitionOrder;
+        int parameter = riceParameters[partition];
+        long bits = 0;
+        for (int i = Math.max(order, partition * size); i < (partition + 1) * size; i++) {
+            int value = residual[i];
+            int zigzag = (value << 1) ^ (value >> 31);
+            bits += (zigzag >>> parameter) + 1 + parameter;
+        }
+        return bits;
+    }
+
+    private static int bestParameter(long sum, int size) {
+        if (size <= 0 || sum <= size) {
+            return 0;
+        }
+        // The mean of the values is about 2^parameter
+        int parameter = 63 - Long.numberOfLeadingZeros(sum / size);
+        return Math.min(parameter, MAX_RICE_PARAMETER);
+    }
+
+    private static long estimateBits(long sum, int size, int parameter) {
+        return (long) size * (parameter + 1) + (sum >> parameter);
+    }
+
+    private int getBlockSizeCode(int count) {
+        if (count == 192) {
+            return 1;
+        }
+        for (int code = 2; code <= 5; code++) {
+            if (count == 576 << (code - 2)) {
+                return code;
+            }
+        }
+        for (int code = 8; code <= 15; code++) {
+            if (count == 256 << (code - 8)) {
+                return code;
+            }
+        }
+        return count <= 256 ? 6 : 7;
+    }
+
+    /**
+     * Write the frame number with the UTF-8 like coding of FLAC
+     */
+    private void writeUtf8(long value) {
+        if (value < 0x80) {
+            writer.writeBits((int) value, 8);
+            return;
+        }
+        int bytes = value < 0x800 ? 2 : value < 0x10000 ? 3 : value < 0x200000 ? 4 : value < 0x4000000 ? 5 : 6;
+        int firstBits = 7 - bytes;
+        writer.writeBits((0xFF00 >> bytes) & 0xFF | (int) (value >>> (6 * (bytes - 1))) & ((1 << firstBits) - 1), 8);
+        for (int i = bytes - 2; i >= 0; i--) {
+            writer.writeBits(0x80 | (int) (value >>> (6 * i)) & 0x3F, 8);
+        }
+    }
+
+    static int crc8(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc = CRC8_TABLE[(crc ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    static int crc16(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    /**
+     * Writes bits, most significant first, in a reused buffer
+     */
+    private static final class BitWriter {
+
+        private byte[] buffer;
+
+        private int position;
+
+        private long accumulator;
+
+        private int pendingBits;
+
+        private BitWriter(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        private void reset() {
+            position = 0;
+            accumulator = 0;
+            pendingBits = 0;
+        }
+
+        /**
+         * Write the lowest bits of a value (up to 32)
+         */
+        private void writeBits(int value, int bits) {
+            if (bits == 0) {
+                return;
+            }
+            accumulator = (accumulator << bits) | (value & (0xFFFFFFFFL >>> (32 - bits)));
+            pendingBits += bits;
+            while (pendingBits >= 8) {
+                pendingBits -= 8;
+                if (position == buffer.length) {
+                    // Only with an unusual residual, the frame is then larger than verbatim
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                buffer[position++] = (byte) (accumulator >>> pendingBits);
+            }
+        }
+
+        /**
+         * Write a value in unary: as many 0 as the value, then a 1
+         */
+        private void writeUnary(int value) {
+            while (value >= 31) {
+                writeBits(0, 31);
+                value -= 31;
+            }
+            writeBits(1, value + 1);
+        }
+
+        private void alignToByte() {
+            if (pendingBits > 0) {
+                writeBits(0, 8 - pendingBits);
+            }
+        }
+
+        /**
+         * @return the number of complete bytes written
+         */
+        private int length() {
+            return position;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.mautini.assistant.demo.client.audio;
+
+import com.mautini.assistant.demo.exception.AudioException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Plays the audio on the speakers, the line is opened once
+ */
+public class LineAudioSink implements AudioSink {
+
+    private final SourceDataLine line;
+
+    public LineAudioSink(AudioFormat format) throws AudioException {
+        try {
+            line = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, format));
+            line.open(format);
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            throw new AudioException("Unable to open the speakers for " + format, e);
+        }
+        line.start();
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        line.write(data, offset, length);
+    }
+
+    @Override
+    public void drain() {
+        line.drain();
+    }
+
+    @Override
+    public void flush() {
+        line.flush();
+    }
+
+    @Override
+    public void close() {
+        line.close();
+    }
+}
@@ -0,0 +1,146 @@
+package com.mautini.assistant.demo.client.audio;
+
+import com.mautini.assistant.demo.exception.AudioException;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A recorded audio file (WAV or raw PCM) mapped in memory.
+ * <p>
+ * The audio is read from the page cache through a {@link ByteBuffer}, the file is not copied on the heap (unless it
+ * must be converted to another format).
+ */
+public class MappedAudioFile {
+
+    private static final int RIFF = 0x46464952;
+
+    private static final int WAVE = 0x45564157;
+
+    private static final int FMT = 0x20746d66;
+
+    private static final int DATA = 0x61746164;
+
+    private static final int WAVE_FORMAT_PCM = 1;
+
+    // Size of the chunks converted at once when the format does not match
+    private static final int CONVERSION_CHUNK_SIZE = 64 * 1024;
+
+    private final Path path;
+
+    private final AudioFormat format;
+
+    private final ByteBuffer audio;
+
+    private MappedAudioFile(Path path, AudioFormat format, ByteBuffer audio) {
+        this.path = path;
+        this.format = format;
+        this.audio = audio;
+    }
+
+    /**
+     * Map an audio file
+     *
+     * @param path      the file, a WAV file (.wav) or raw PCM
+     * @param rawFormat the format of the raw PCM files
+     * @return the mapped audio
+     * @throws AudioException if the file can not be read or is not PCM
+     */
+    public static MappedAudioFile open(Path path, AudioFormat rawFormat) throws AudioException {
+        ByteBuffer content;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid once the channel is closed
+            content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new AudioException("Unable to read the audio file " + path, e);
+        }
+
+        if (!path.getFileName().toString().toLowerCase().endsWith(".wav")) {
+            return new MappedAudioFile(path, rawFormat, content);
+        }
+        return parseWave(path, content.order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return a read only view of the audio samples, in the format of the file
+     */
+    public ByteBuffer getAudio() {
+        return audio.asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the audio in a format, without copy if the file already has this format
+     *
+     * @param target the expected format
+     * @return a read only view of the samples in the target format
+     * @throws AudioException if the format of the file can not be converted
+     */
+    public ByteBuffer getAudio(AudioFormat target) throws AudioException {
+        if (format.matches(target)) {
+            return getAudio();
+        }
+
+        PcmConverter converter = new PcmConverter(format, target);
+        ByteBuffer input = getAudio();
+        byte[] chunk = new byte[CONVERSION_CHUNK_SIZE];
+        int maxChunkOutput = converter.prepare(chunk.length);
+        int chunks = (input.remaining() + chunk.length - 1) / chunk.length + 1;
+        byte[] output = new byte[chunks * maxChunkOutput];
+        int length = 0;
+        while (input.hasRemaining()) {
+            int chunkLength = Math.min(chunk.length, input.remaining());
+            input.get(chunk, 0, chunkLength);
+            length += converter.convert(chunk, 0, chunkLength, output, length);
+        }
+        length += converter.flush(output, length);
+        return ByteBuffer.wrap(output, 0, length).slice().asReadOnlyBuffer();
+    }
+
+    private static MappedAudioFile parseWave(Path path, ByteBuffer content) throws AudioException {
+        if (content.remaining() < 12 || content.getInt(0) != RIFF || content.getInt(8) != WAVE) {
+            throw new AudioException("Not a WAV file " + path);
+        }
+
+        AudioFormat format = null;
+        int position = 12;
+        while (position + 8 <= content.limit()) {
+            int id = content.getInt(position);
+            long size = content.getInt(position + 4) & 0xFFFFFFFFL;
+            int start = position + 8;
+            if (id == FMT) {
+                if (content.getShort(start) != WAVE_FORMAT_PCM) {
+                    throw new AudioException("Only PCM WAV files are supported " + path);
+                }
+                int channels = content.getShort(start + 2);
+                int sampleRate = content.getInt(start + 4);
+                int bits = content.getShort(start + 14);
+                // 8 bits WAV samples are unsigned
+                format = new AudioFormat(sampleRate, bits, channels, bits > 8, false);
+            } else if (id == DATA) {
+                if (format == null) {
+                    throw new AudioException("No format before the data of " + path);
+                }
+                // Some writers leave the size of a stream at 0 or -1, the data goes to the end of the file
+                int end = size == 0 || start + size > content.limit() ? content.limit() : (int) (start + size);
+                ByteBuffer data = ((ByteBuffer) content.duplicate().position(start).limit(end)).slice();
+                return new MappedAudioFile(path, format, data);
+            }
+            // The chunks are aligned on 2 bytes
+            position = (int) Math.min(content.limit(), start + size + (size & 1));
+        }
+        throw new AudioException("No audio data in " + path);
+    }
+}
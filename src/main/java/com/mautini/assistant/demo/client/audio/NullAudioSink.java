@@ -0,0 +1,32 @@
+package com.mautini.assistant.demo.client.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Discards the audio (headless runs and benchmarks), only counts the bytes
+ */
+public class NullAudioSink implements AudioSink {
+
+    private final AtomicLong writtenBytes = new AtomicLong();
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        writtenBytes.addAndGet(length);
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+}
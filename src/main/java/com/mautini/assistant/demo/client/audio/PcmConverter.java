@@ -0,0 +1,337 @@
+package com.mautini.assistant.demo.client.audio;
+
+import com.mautini.assistant.demo.exception.AudioException;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Streaming conversion of PCM audio: sample size (8 to 32 bits), signed/unsigned, endianness, channel count
+ * (down mix to mono or duplication of mono) and sample rate.
+ * <p>
+ * The resampling uses a windowed sinc filter, with a cutoff at the lowest Nyquist frequency to avoid aliasing when
+ * downsampling (e.g. 48 kHz to 16 kHz). The filter is tabulated once and the samples are kept in a float buffer
+ * allocated with the converter, so {@link #convert(byte[], int, int, byte[], int)} does not allocate. The input can
+ * be split anywhere (even in the middle of a frame), the converter keeps the state between the calls.
+ * <p>
+ * A converter is not thread safe, use one per stream.
+ */
+public class PcmConverter {
+
+    // Half width of the filter, in samples at the lowest rate
+    private static final int HALF_ZERO_CROSSINGS = 8;
+
+    // Resolution of the tabulated filter, in entries per input sample
+    private static final int KERNEL_PHASES = 256;
+
+    private final AudioFormat source;
+
+    private final AudioFormat target;
+
+    private final int sourceFrameSize;
+
+    private final int targetFrameSize;
+
+    private final int channels;
+
+    private final boolean identity;
+
+    private final boolean resample;
+
+    // Converts a decoded sample to [-1, 1[
+    private final float sourceScale;
+
+    private final int sourceRate;
+
+    private final int targetRate;
+
+    // Half width of the filter in input samples (0 without resampling)
+    private final int halfWidth;
+
+    private final float[] kernel;
+
+    // Bytes of an incomplete input frame, completed by the next call
+    private final byte[] partialFrame;
+
+    private int partialLength;
+
+    // Decoded input frames (interleaved target channels), the first one is the input frame firstFrame
+    private float[] frames;
+
+    private int frameCount;
+
+    private long firstFrame;
+
+    // Index of the next output frame
+    private long outputFrame;
+
+    public PcmConverter(AudioFormat source, AudioFormat target) throws AudioException {
+        checkFormat(source);
+        checkFormat(target);
+        if (source.getChannels() != target.getChannels() && source.getChannels() != 1 && target.getChannels() != 1) {
+            throw new AudioException("Unable to convert " + source.getChannels() + " channels to " + target.getChannels());
+        }
+
+        this.source = source;
+        this.target = target;
+        this.sourceFrameSize = source.getChannels() * source.getSampleSizeInBits() / 8;
+        this.targetFrameSize = target.getChannels() * target.getSampleSizeInBits() / 8;
+        this.channels = target.getChannels();
+        this.sourceRate = Math.round(source.getSampleRate());
+        this.targetRate = Math.round(target.getSampleRate());
+        this.resample = sourceRate != targetRate;
+        this.identity = source.matches(target);
+        this.sourceScale = 1.0f / (1L << (source.getSampleSizeInBits() - 1));
+
+        double cutoff = Math.min(1.0, (double) targetRate / sourceRate);
+        this.halfWidth = resample ? (int) Math.ceil(HALF_ZERO_CROSSINGS / cutoff) : 0;
+        this.kernel = resample ? createKernel(cutoff, halfWidth) : new float[0];
+        this.partialFrame = new byte[sourceFrameSize];
+        this.frames = new float[0];
+    }
+
+    public AudioFormat getSourceFormat() {
+        return source;
+    }
+
+    public AudioFormat getTargetFormat() {
+        return target;
+    }
+
+    /**
+     * @return true if the converter only copies the audio
+     */
+    public boolean isIdentity() {
+        return identity;
+    }
+
+    /**
+     * Reserve the buffers for inputs up to a size, so the conversion does not allocate
+     *
+     * @param maxInputLength the maximum number of bytes given to convert
+     * @return the maximum number of bytes written by convert (or flush) for such an input
+     */
+    public int prepare(int maxInputLength) {
+        int maxFrames = (maxInputLength + sourceFrameSize) / sourceFrameSize + 2 * halfWidth + 1;
+        if (frames.length < maxFrames * channels) {
+            float[] resized = new float[maxFrames * channels];
+            System.arraycopy(frames, 0, resized, 0, frameCount * channels);
+            frames = resized;
+        }
+        return getMaxOutputLength(maxFrames);
+    }
+
+    /**
+     * Convert a chunk of audio
+     *
+     * @param input        the audio in the source format
+     * @param inputOffset  the first byte to convert
+     * @param inputLength  the number of bytes to convert
+     * @param output       receives the audio in the target format, see {@link #prepare(int)} for its size
+     * @param outputOffset the first byte to write
+     * @return the number of bytes written
+     */
+    public int convert(byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) {
+        if (identity) {
+            System.arraycopy(input, inputOffset, output, outputOffset, inputLength);
+            return inputLength;
+        }
+        prepare(inputLength);
+
+        int position = inputOffset;
+        int end = inputOffset + inputLength;
+        if (partialLength > 0) {
+            int copied = Math.min(sourceFrameSize - partialLength, inputLength);
+            System.arraycopy(input, position, partialFrame, partialLength, copied);
+            partialLength += copied;
+            position += copied;
+            if (partialLength < sourceFrameSize) {
+                return 0;
+            }
+            decodeFrame(partialFrame, 0);
+            partialLength = 0;
+        }
+        for (; position + sourceFrameSize <= end; position += sourceFrameSize) {
+            decodeFrame(input, position);
+        }
+        partialLength = end - position;
+        System.arraycopy(input, position, partialFrame, 0, partialLength);
+
+        return resample ? resample(output, outputOffset, false) : encodeAll(output, outputOffset);
+    }
+
+    /**
+     * Convert the audio kept for the filter, at the end of the stream
+     *
+     * @param output       receives the end of the audio in the target format
+     * @param outputOffset the first byte to write
+     * @return the number of bytes written
+     */
+    public int flush(byte[] output, int outputOffset) {
+        partialLength = 0;
+        return resample ? resample(output, outputOffset, true) : 0;
+    }
+
+    /**
+     * Forget the state of the previous stream
+     */
+    public void reset() {
+        partialLength = 0;
+        frameCount = 0;
+        firstFrame = 0;
+        outputFrame = 0;
+    }
+
+    private int getMaxOutputLength(int inputFrames) {
+        long outputFrames = resample ? (long) inputFrames * targetRate / sourceRate + 2 : inputFrames;
+        return (int) (outputFrames * targetFrameSize);
+    }
+
+    private void decodeFrame(byte[] input, int offset) {
+        int sourceChannels = source.getChannels();
+        int sampleBytes = source.getSampleSizeInBits() / 8;
+        int frame = frameCount * channels;
+        if (sourceChannels == channels) {
+            for (int channel = 0; channel < channels; channel++) {
+                frames[frame + channel] = decodeSample(input, offset + channel * sampleBytes);
+            }
+        } else if (channels == 1) {
+            // Down mix
+            float sum = 0;
+            for (int channel = 0; channel < sourceChannels; channel++) {
+                sum += decodeSample(input, offset + channel * sampleBytes);
+            }
+            frames[frame] = sum / sourceChannels;
+        } else {
+            // Mono to every channel
+            float sample = decodeSample(input, offset);
+            for (int channel = 0; channel < channels; channel++) {
+                frames[frame + channel] = sample;
+            }
+        }
+        frameCount++;
+    }
+
+    /**
+     * @return the sample in [-1, 1[
+     */
+    private float decodeSample(byte[] input, int offset) {
+        int sampleBytes = source.getSampleSizeInBits() / 8;
+        int value = 0;
+        if (source.isBigEndian()) {
+            for (int i = 0; i < sampleBytes; i++) {
+                value = (value << 8) | (input[offset + i] & 0xFF);
+            }
+        } else {
+            for (int i = sampleBytes - 1; i >= 0; i--) {
+                value = (value << 8) | (input[offset + i] & 0xFF);
+            }
+        }
+        int bits = sampleBytes * 8;
+        if (source.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED)) {
+            value -= 1 << (bits - 1);
+        } else if (bits < 32) {
+            // Sign extension
+            value = (value << (32 - bits)) >> (32 - bits);
+        }
+        return value * sourceScale;
+    }
+
+    private int encodeSample(float sample, byte[] output, int offset) {
+        int sampleBytes = target.getSampleSizeInBits() / 8;
+        int bits = sampleBytes * 8;
+        long max = (1L << (bits - 1)) - 1;
+        long value = Math.max(-max - 1, Math.min(max, Math.round(sample * (max + 1))));
+        if (target.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED)) {
+            value += max + 1;
+        }
+        if (target.isBigEndian()) {
+            for (int i = sampleBytes - 1; i >= 0; i--) {
+                output[offset + i] = (byte) value;
+                value >>= 8;
+            }
+        } else {
+            for (int i = 0; i < sampleBytes; i++) {
+                output[offset + i] = (byte) value;
+                value >>= 8;
+            }
+        }
+        return sampleBytes;
+    }
+
+    private int encodeAll(byte[] output, int outputOffset) {
+        int position = outputOffset;
+        for (int i = 0; i < frameCount * channels; i++) {
+            position += encodeSample(frames[i], output, position);
+        }
+        frameCount = 0;
+        return position - outputOffset;
+    }
+
+    private int resample(byte[] output, int outputOffset, boolean flush) {
+        int position = outputOffset;
+        while (true) {
+            // Time of the output frame, in input frames: center + fraction / targetRate
+            long time = outputFrame * sourceRate;
+            long center = time / targetRate;
+            // Position of the output frame between the input frames center and center + 1, in filter phases
+            int phase = (int) ((time % targetRate) * KERNEL_PHASES / targetRate);
+            long lastNeeded = center + halfWidth;
+            long available = firstFrame + frameCount;
+            if (lastNeeded >= available && !(flush && center < available)) {
+                break;
+            }
+
+            // The frames before the start and after the end of the stream are silent
+            int first = (int) (Math.max(center - halfWidth + 1, firstFrame) - firstFrame);
+            int last = (int) (Math.min(lastNeeded, available - 1) - firstFrame);
+            int centerIndex = (int) (center - firstFrame);
+            for (int channel = 0; channel < channels; channel++) {
+                float sum = 0;
+                for (int input = first; input <= last; input++) {
+                    int distance = input <= centerIndex
+                            ? (centerIndex - input) * KERNEL_PHASES + phase
+                            : (input - centerIndex) * KERNEL_PHASES - phase;
+                    sum += frames[input * channels + channel] * kernel[distance];
+                }
+                position += encodeSample(sum, output, position);
+            }
+            outputFrame++;
+        }
+
+        // Drop the frames the next output frames do not need
+        long keepFrom = Math.max(firstFrame, outputFrame * sourceRate / targetRate - halfWidth + 1);
+        int dropped = (int) (keepFrom - firstFrame);
+        if (dropped > 0) {
+            System.arraycopy(frames, dropped * channels, frames, 0, (frameCount - dropped) * channels);
+            frameCount -= dropped;
+            firstFrame = keepFrom;
+        }
+        if (flush) {
+            reset();
+        }
+        return position - outputOffset;
+    }
+
+    /**
+     * Tabulate the low pass filter (sinc with a Blackman window) for the distances in [0, halfWidth]
+     */
+    private static float[] createKernel(double cutoff, int halfWidth) {
+        float[] kernel = new float[halfWidth * KERNEL_PHASES + 1];
+        for (int i = 0; i < kernel.length; i++) {
+            double x = (double) i / KERNEL_PHASES;
+            double sinc = i == 0 ? 1 : Math.sin(Math.PI * cutoff * x) / (Math.PI * cutoff * x);
+            double window = 0.42 + 0.5 * Math.cos(Math.PI * x / halfWidth) + 0.08 * Math.cos(2 * Math.PI * x / halfWidth);
+            kernel[i] = (float) (cutoff * sinc * window);
+        }
+        return kernel;
+    }
+
+    private static void checkFormat(AudioFormat format) throws AudioException {
+        boolean pcm = format.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED)
+                || format.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED);
+        int bits = format.getSampleSizeInBits();
+        if (!pcm || bits % 8 != 0 || bits < 8 || bits > 32 || format.getChannels() < 1) {
+            throw new AudioException("Unsupported audio format " + format);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.mautini.assistant.demo.client.audio;
+
+import com.mautini.assistant.demo.exception.AudioException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Audio of the spoken responses (audio_out), by answer text and output config.
+ * <p>
+ * The same fixed phrases (confirmations, status answers) are spoken again and again: with the clip in the cache the
+ * response starts playing as soon as its text is known, without waiting for the audio stream. Each clip is a file of
+ * the cache directory, mapped in memory (off heap, in the page cache) and evicted in LRU order when the total size
+ * exceeds maxBytes. The files are reloaded at startup, in the order of their last use.
+ */
+public class ResponseAudioCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseAudioCache.class);
+
+    private static final String EXTENSION = ".pcm";
+
+    // Clip being written, renamed once complete
+    private static final String TEMPORARY_PREFIX = "clip";
+
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    private final Path directory;
+
+    private final long maxBytes;
+
+    private final int maxEntryBytes;
+
+    // Guarded by itself, in access order (LRU first)
+    private final LinkedHashMap<String, MappedByteBuffer> clips = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalBytes;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param directory     the directory of the clips, created if needed
+     * @param maxBytes      the maximum size of all the clips
+     * @param maxEntryBytes the maximum size of a clip, longer responses are not cached
+     * @throws AudioException if the directory can not be read
+     */
+    public ResponseAudioCache(Path directory, long maxBytes, int maxEntryBytes) throws AudioException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        try {
+            Files.createDirectories(directory);
+            load();
+        } catch (IOException e) {
+            throw new AudioException("Unable to read the response audio cache " + directory, e);
+        }
+    }
+
+    /**
+     * Build the key of a response
+     *
+     * @param answer        the text of the answer
+     * @param sampleRate    the sample rate of the AudioOutConfig
+     * @param volumePercent the volume of the AudioOutConfig
+     * @return the key, the answer is normalized so that case, spacing and final punctuation do not matter
+     */
+    public static String key(String answer, int sampleRate, int volumePercent) {
+        String normalized = answer.toLowerCase(Locale.ROOT).trim().replaceAll("\\s+", " ").replaceAll("[.!?]+$", "");
+        return normalized + '|' + sampleRate + '|' + volumePercent;
+    }
+
+    /**
+     * @return a read only view of the clip, empty if it is not cached
+     */
+    public Optional<ByteBuffer> get(String key) {
+        String fileName = fileName(key);
+        MappedByteBuffer clip;
+        synchronized (clips) {
+            clip = clips.get(fileName);
+        }
+        if (clip == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        touch(directory.resolve(fileName));
+        return Optional.of(clip.asReadOnlyBuffer());
+    }
+
+    /**
+     * Add a clip, the eldest clips are evicted to keep the total size under maxBytes
+     */
+    public void put(String key, byte[] audio, int length) {
+        if (length == 0 || length > maxEntryBytes || length > maxBytes) {
+            return;
+        }
+        String fileName = fileName(key);
+        Path file = directory.resolve(fileName);
+        Path temporary = null;
+        try {
+            // Write a temporary file then move it, a reader never maps a partial clip
+            temporary = Files.createTempFile(directory, TEMPORARY_PREFIX, TEMPORARY_EXTENSION);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(audio, 0, length);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            MappedByteBuffer clip = map(file);
+            synchronized (clips) {
+                MappedByteBuffer previous = clips.put(fileName, clip);
+                totalBytes += clip.capacity() - (previous == null ? 0 : previous.capacity());
+                evict();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to cache the audio of a response", e);
+        } finally {
+            // Already moved unless the write or the move failed
+            if (temporary != null) {
+                deleteQuietly(temporary);
+            }
+        }
+    }
+
+    /**
+     * @return the maximum size of a clip, longer responses are not cached
+     */
+    public int getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getSizeBytes() {
+        synchronized (clips) {
+            return totalBytes;
+        }
+    }
+
+    public int getClipCount() {
+        synchronized (clips) {
+            return clips.size();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, MappedByteBuffer>> eldest = clips.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, MappedByteBuffer> entry = eldest.next();
+            eldest.remove();
+            totalBytes -= entry.getValue().capacity();
+            try {
+                // The mapping stays readable by the playbacks in progress
+                Files.deleteIfExists(directory.resolve(entry.getKey()));
+            } catch (IOException e) {
+                LOGGER.warn("Unable to delete the evicted clip {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        // Clips whose write was interrupted (e.g. the process was killed)
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, TEMPORARY_PREFIX + "*" + TEMPORARY_EXTENSION)) {
+            stream.forEach(ResponseAudioCache::deleteQuietly);
+        }
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            stream.forEach(files::add);
+        }
+        // The least recently used first
+        files.sort(Comparator.comparingLong(file -> file.toFile().lastModified()));
+        synchronized (clips) {
+            for (Path file : files) {
+                MappedByteBuffer clip = map(file);
+                clips.put(file.getFileName().toString(), clip);
+                totalBytes += clip.capacity();
+            }
+            evict();
+        }
+        LOGGER.info("{} response clips loaded from {} ({} bytes)", clips.size(), directory, totalBytes);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to delete {}", file, e);
+        }
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Keep the order of use for the next startup
+     */
+    private static void touch(Path file) {
+        if (!file.toFile().setLastModified(System.currentTimeMillis())) {
+            LOGGER.debug("Unable to update the last use of {}", file);
+        }
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + EXTENSION.length());
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.append(EXTENSION).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.mautini.assistant.demo.client.audio;
+
+import com.mautini.assistant.demo.config.AudioConf;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Streaming voice activity detection on 16 bits signed PCM.
+ * <p>
+ * The audio is split in frames of vadFrameMs. A frame is speech if its energy (RMS) is above vadEnergyThreshold, or
+ * above half of it with a zero crossing rate above vadZeroCrossingRate (unvoiced sounds like "s" or "f" are quiet
+ * but noisy). The end of speech is detected after vadEndSilenceMs of silence following speech, or after
+ * vadNoSpeechTimeoutMs without any speech. The detector keeps the bounds of the speech, to trim the silence.
+ * <p>
+ * The detector reads the frames in place in the record (no copy), {@link #process(byte[], int)} is called each
+ * time the record grows.
+ */
+public class VoiceActivityDetector {
+
+    private final int frameBytes;
+
+    private final int bytesPerMs;
+
+    private final boolean bigEndian;
+
+    private final double energyThreshold;
+
+    private final double zeroCrossingRate;
+
+    private final int endSilenceBytes;
+
+    private final int noSpeechTimeoutBytes;
+
+    private final int paddingBytes;
+
+    // Offset of the next frame to analyze
+    private int position;
+
+    // Bounds of the speech, -1 until the first speech frame
+    private int speechStart = -1;
+
+    private int speechEnd = -1;
+
+    private boolean endOfSpeech;
+
+    /**
+     * @param audioConf the settings of the detection
+     * @param format    the format of the analyzed audio (see {@link PcmConverter} to get 16 bits)
+     */
+    public VoiceActivityDetector(AudioConf audioConf, AudioFormat format) {
+        this.bytesPerMs = (int) format.getSampleRate() / 1000 * format.getFrameSize();
+        this.frameBytes = bytesPerMs * audioConf.getVadFrameMs();
+        this.bigEndian = format.isBigEndian();
+        this.energyThreshold = audioConf.getVadEnergyThreshold();
+        this.zeroCrossingRate = audioConf.getVadZeroCrossingRate();
+        this.endSilenceBytes = bytesPerMs * audioConf.getVadEndSilenceMs();
+        this.noSpeechTimeoutBytes = bytesPerMs * audioConf.getVadNoSpeechTimeoutMs();
+        this.paddingBytes = bytesPerMs * audioConf.getVadPaddingMs();
+    }
+
+    /**
+     * Analyze the new complete frames of the record
+     *
+     * @param record the audio recorded so far
+     * @param length the number of bytes of the record
+     * @return true when the end of speech is detected
+     */
+    public boolean process(byte[] record, int length) {
+        while (!endOfSpeech && position + frameBytes <= length) {
+            if (isSpeech(record, position)) {
+                if (speechStart < 0) {
+                    speechStart = position;
+                }
+                speechEnd = position + frameBytes;
+            }
+            position += frameBytes;
+
+            endOfSpeech = speechStart >= 0
+                    ? position - speechEnd >= endSilenceBytes
+                    : position >= noSpeechTimeoutBytes;
+        }
+        return endOfSpeech;
+    }
+
+    public boolean isEndOfSpeech() {
+        return endOfSpeech;
+    }
+
+    public boolean hasSpeech() {
+        return speechStart >= 0;
+    }
+
+    /**
+     * @return the first byte of the speech, with a padding of silence (0 if no speech)
+     */
+    public int getSpeechStart() {
+        return speechStart < 0 ? 0 : align(Math.max(0, speechStart - paddingBytes));
+    }
+
+    /**
+     * @param length the number of bytes of the record
+     * @return the end of the speech, with a padding of silence (0 if no speech)
+     */
+    public int getSpeechEnd(int length) {
+        return speechStart < 0 ? 0 : align(Math.min(length, speechEnd + paddingBytes));
+    }
+
+    private boolean isSpeech(byte[] record, int offset) {
+        double sumSquares = 0;
+        int crossings = 0;
+        int previous = 0;
+        int samples = frameBytes / 2;
+        for (int i = 0; i < samples; i++) {
+            int sample = readSample(record, offset + 2 * i);
+            sumSquares += (double) sample * sample;
+            if (i > 0 && (sample >= 0) != (previous >= 0)) {
+                crossings++;
+            }
+            previous = sample;
+        }
+        double rms = Math.sqrt(sumSquares / samples);
+        double rate = (double) crossings / samples;
+        return rms >= energyThreshold || (rms >= energyThreshold / 2 && rate >= zeroCrossingRate);
+    }
+
+    private int readSample(byte[] record, int offset) {
+        return bigEndian
+                ? (short) ((record[offset] << 8) | (record[offset + 1] & 0xFF))
+                : (short) ((record[offset + 1] << 8) | (record[offset] & 0xFF));
+    }
+
+    // Keep whole samples
+    private static int align(int offset) {
+        return offset & ~1;
+    }
+}
@@ -0,0 +1,121 @@
+package com.mautini.assistant.demo.cluster;
+
+import com.mautini.assistant.demo.config.ClusterConf;
+import com.mautini.assistant.demo.exception.LeaseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decide which instance runs the scheduled work of a home (see cluster in reference.conf).
+ * <p>
+ * Without partitioning, a single leader (the holder of the leader lease) runs all the homes. With partitioning, the
+ * homes are spread over the live instances by consistent hashing, and the instance owning a home also takes a lease
+ * on it, so a home never runs twice even while the instances disagree on the membership. The leases are renewed on
+ * each run, the lease TTL must be longer than the period of the runs.
+ */
+public class ClusterCoordinator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterCoordinator.class);
+
+    private static final String LEADER_LEASE = "leader";
+
+    private static final String MEMBER_PREFIX = "member/";
+
+    private static final String HOME_PREFIX = "home/";
+
+    private final LeaseStore leaseStore;
+
+    private final ClusterConf clusterConf;
+
+    private final String nodeId;
+
+    // Homes whose lease this instance holds
+    private final Set<String> homes = ConcurrentHashMap.newKeySet();
+
+    public ClusterCoordinator(LeaseStore leaseStore, ClusterConf clusterConf) {
+        this.leaseStore = leaseStore;
+        this.clusterConf = clusterConf;
+        this.nodeId = clusterConf.getNodeId().isEmpty()
+                // pid@hostname
+                ? ManagementFactory.getRuntimeMXBean().getName()
+                : clusterConf.getNodeId();
+    }
+
+    /**
+     * Build the coordinator of the configured lease store
+     *
+     * @return the coordinator, null if the lease store is none (single instance)
+     * @throws LeaseException if the lease store cannot be initialized
+     */
+    public static ClusterCoordinator fromConf(ClusterConf clusterConf) throws LeaseException {
+        switch (clusterConf.getLeaseStore()) {
+            case "file":
+                return new ClusterCoordinator(new FileLeaseStore(clusterConf.getLeaseFilePath()), clusterConf);
+            case "jdbc":
+                return new ClusterCoordinator(new JdbcLeaseStore(clusterConf.getJdbcUrl(), clusterConf.getJdbcUser(),
+                        clusterConf.getJdbcPassword()), clusterConf);
+            default:
+                return null;
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @param homeId the id of the home
+     * @return true if this instance must run the scheduled work of the home now
+     */
+    public boolean shouldRun(String homeId) {
+        long ttl = clusterConf.getLeaseTtlMs();
+        try {
+            if (!clusterConf.getPartitionHomes()) {
+                return leaseStore.tryAcquire(LEADER_LEASE, nodeId, ttl);
+            }
+
+            // Announce this instance, then place the home on the ring of the live instances
+            leaseStore.tryAcquire(MEMBER_PREFIX + nodeId, nodeId, ttl);
+            List<String> members = leaseStore.getOwners(MEMBER_PREFIX);
+            String owner = new HashRing(members, clusterConf.getVirtualNodes()).ownerOf(homeId);
+            if (!nodeId.equals(owner)) {
+                // The home moved to another instance, let it take the lease
+                leaseStore.release(HOME_PREFIX + homeId, nodeId);
+                homes.remove(homeId);
+                LOGGER.debug("{} belongs to {} ({} instances)", homeId, owner, members.size());
+                return false;
+            }
+            boolean acquired = leaseStore.tryAcquire(HOME_PREFIX + homeId, nodeId, ttl);
+            if (acquired) {
+                homes.add(homeId);
+            }
+            return acquired;
+        } catch (LeaseException e) {
+            // Better skip a run than run it twice
+            LOGGER.warn("Lease store unavailable, skipping the run of {}", homeId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Release the leases of this instance (e.g. when the coordinator is replaced), the other instances take over
+     * without waiting for the lease TTL
+     */
+    public void releaseLeases() {
+        try {
+            leaseStore.release(LEADER_LEASE, nodeId);
+            leaseStore.release(MEMBER_PREFIX + nodeId, nodeId);
+            for (String homeId : homes) {
+                leaseStore.release(HOME_PREFIX + homeId, nodeId);
+            }
+            homes.clear();
+        } catch (LeaseException e) {
+            LOGGER.warn("Unable to release the leases of {}, they expire after their TTL", nodeId, e);
+        }
+    }
+}
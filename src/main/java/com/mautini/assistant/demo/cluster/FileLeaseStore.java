@@ -0,0 +1,117 @@
+package com.mautini.assistant.demo.cluster;
+
+import com.mautini.assistant.demo.exception.LeaseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Leases stored in a local file, for the instances running on the same host (or sharing a file system with working
+ * locks). Each operation locks the whole file, reads it, updates it and writes it back.
+ * <p>
+ * Format: a properties file, name = owner expiration (epoch ms).
+ */
+public class FileLeaseStore implements LeaseStore {
+
+    private final String filePath;
+
+    public FileLeaseStore(String filePath) {
+        this.filePath = filePath;
+    }
+
+    @Override
+    public synchronized boolean tryAcquire(String name, String owner, long ttlMs) throws LeaseException {
+        return update(leases -> {
+            long now = System.currentTimeMillis();
+            String lease = leases.getProperty(name);
+            if (lease != null && !owner.equals(ownerOf(lease)) && expirationOf(lease) > now) {
+                return false;
+            }
+            leases.setProperty(name, owner + " " + (now + ttlMs));
+            return true;
+        });
+    }
+
+    @Override
+    public synchronized void release(String name, String owner) throws LeaseException {
+        update(leases -> {
+            String lease = leases.getProperty(name);
+            if (lease != null && owner.equals(ownerOf(lease))) {
+                leases.remove(name);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public synchronized List<String> getOwners(String prefix) throws LeaseException {
+        List<String> owners = new ArrayList<>();
+        update(leases -> {
+            long now = System.currentTimeMillis();
+            for (String name : leases.stringPropertyNames()) {
+                String lease = leases.getProperty(name);
+                if (name.startsWith(prefix) && expirationOf(lease) > now) {
+                    owners.add(ownerOf(lease));
+                }
+            }
+            return false;
+        });
+        return owners;
+    }
+
+    private interface Update {
+
+        /**
+         * @return true if the leases were modified and must be written
+         */
+        boolean apply(Properties leases);
+    }
+
+    /**
+     * Apply an update to the leases of the file, under an exclusive lock (the synchronized methods protect it from
+     * the other threads, a FileLock is held by the whole process)
+     */
+    private boolean update(Update update) throws LeaseException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+
+            ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // Read the whole file
+            }
+            Properties leases = new Properties();
+            leases.load(new ByteArrayInputStream(content.array(), 0, content.position()));
+
+            boolean modified = update.apply(leases);
+            if (modified) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                leases.store(out, null);
+                channel.truncate(0);
+                channel.write(ByteBuffer.wrap(out.toByteArray()), 0);
+                channel.force(false);
+            }
+            return modified;
+        } catch (IOException e) {
+            throw new LeaseException("Unable to update the leases of " + filePath, e);
+        }
+    }
+
+    private static String ownerOf(String lease) {
+        return lease.substring(0, lease.lastIndexOf(' '));
+    }
+
+    private static long expirationOf(String lease) {
+        return Long.parseLong(lease.substring(lease.lastIndexOf(' ') + 1));
+    }
+}
@@ -0,0 +1,113 @@
+package com.mautini.assistant.demo.cluster;
+
+import com.mautini.assistant.demo.exception.LeaseException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Leases stored in a database table, for the instances running on several hosts. Any JDBC database works (an
+ * embedded one like H2 or SQLite in file mode for local tests), its driver must be on the classpath.
+ * <p>
+ * A lease is acquired with a conditional update (free, expired or already owned), or an insert if it does not exist
+ * yet, so the database arbitrates the concurrent instances. A connection is opened for each operation, the leases
+ * are only used once per scheduled run.
+ */
+public class JdbcLeaseStore implements LeaseStore {
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS assistant_lease ("
+            + "name VARCHAR(255) PRIMARY KEY, owner VARCHAR(255) NOT NULL, expires_at BIGINT NOT NULL)";
+
+    private static final String UPDATE = "UPDATE assistant_lease SET owner = ?, expires_at = ? "
+            + "WHERE name = ? AND (owner = ? OR expires_at < ?)";
+
+    private static final String INSERT = "INSERT INTO assistant_lease (name, owner, expires_at) VALUES (?, ?, ?)";
+
+    private static final String DELETE = "DELETE FROM assistant_lease WHERE name = ? AND owner = ?";
+
+    private static final String SELECT_OWNERS = "SELECT owner FROM assistant_lease WHERE name LIKE ? AND expires_at >= ?";
+
+    private final String jdbcUrl;
+
+    private final String user;
+
+    private final String password;
+
+    public JdbcLeaseStore(String jdbcUrl, String user, String password) throws LeaseException {
+        this.jdbcUrl = jdbcUrl;
+        this.user = user;
+        this.password = password;
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_TABLE);
+        } catch (SQLException e) {
+            throw new LeaseException("Unable to create the lease table", e);
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(String name, String owner, long ttlMs) throws LeaseException {
+        long now = System.currentTimeMillis();
+        try (Connection connection = connect()) {
+            try (PreparedStatement update = connection.prepareStatement(UPDATE)) {
+                update.setString(1, owner);
+                update.setLong(2, now + ttlMs);
+                update.setString(3, name);
+                update.setString(4, owner);
+                update.setLong(5, now);
+                if (update.executeUpdate() == 1) {
+                    return true;
+                }
+            }
+            try (PreparedStatement insert = connection.prepareStatement(INSERT)) {
+                insert.setString(1, name);
+                insert.setString(2, owner);
+                insert.setLong(3, now + ttlMs);
+                return insert.executeUpdate() == 1;
+            } catch (SQLException e) {
+                // The lease exists and is held by another owner (or another instance inserted it first)
+                return false;
+            }
+        } catch (SQLException e) {
+            throw new LeaseException("Unable to acquire the lease " + name, e);
+        }
+    }
+
+    @Override
+    public void release(String name, String owner) throws LeaseException {
+        try (Connection connection = connect(); PreparedStatement delete = connection.prepareStatement(DELETE)) {
+            delete.setString(1, name);
+            delete.setString(2, owner);
+            delete.executeUpdate();
+        } catch (SQLException e) {
+            throw new LeaseException("Unable to release the lease " + name, e);
+        }
+    }
+
+    @Override
+    public List<String> getOwners(String prefix) throws LeaseException {
+        List<String> owners = new ArrayList<>();
+        try (Connection connection = connect(); PreparedStatement select = connection.prepareStatement(SELECT_OWNERS)) {
+            // The prefixes used by the coordinator do not contain any LIKE wildcard
+            select.setString(1, prefix + "%");
+            select.setLong(2, System.currentTimeMillis());
+            try (ResultSet result = select.executeQuery()) {
+                while (result.next()) {
+                    owners.add(result.getString(1));
+                }
+            }
+        } catch (SQLException e) {
+            throw new LeaseException("Unable to read the leases " + prefix, e);
+        }
+        return owners;
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(jdbcUrl, user, password);
+    }
+}
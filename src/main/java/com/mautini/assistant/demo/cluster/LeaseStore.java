@@ -0,0 +1,36 @@
+package com.mautini.assistant.demo.cluster;
+
+import com.mautini.assistant.demo.exception.LeaseException;
+
+import java.util.List;
+
+/**
+ * Leases shared by all the instances of the application.
+ * <p>
+ * A lease has a name and is held by one owner until it expires. The expiration times are compared with the clock
+ * of the instances, which must be roughly synchronized (a lease TTL is minutes, a clock skew must be seconds).
+ */
+public interface LeaseStore {
+
+    /**
+     * Acquire a lease, or renew it if the owner already holds it
+     *
+     * @param name  the name of the lease
+     * @param owner the id of the instance
+     * @param ttlMs the duration of the lease
+     * @return true if the owner holds the lease until now + ttlMs, false if another owner holds it
+     * @throws LeaseException if the store cannot be reached
+     */
+    boolean tryAcquire(String name, String owner, long ttlMs) throws LeaseException;
+
+    /**
+     * Release a lease before its expiration, nothing happens if the owner does not hold it
+     */
+    void release(String name, String owner) throws LeaseException;
+
+    /**
+     * @param prefix the beginning of the names of the leases
+     * @return the owners of the leases which are not expired
+     */
+    List<String> getOwners(String prefix) throws LeaseException;
+}
@@ -6,10 +6,14 @@ public class AssistantConf {
 
     private Integer audioSampleRate;
 
+    private String audioEncoding;
+
     private Integer chunkSize;
 
     private Integer volumePercent;
 
+    private Integer responseBufferSize;
+
     public AssistantConf() {
     }
 
@@ -48,4 +52,22 @@ public class AssistantConf {
     public void setVolumePercent(Integer volumePercent) {
         this.volumePercent = volumePercent;
     }
-}
\ No newline at end of file
+
+    public String getAudioEncoding() {
+        return audioEncoding;
+    }
+
+    @SuppressWarnings("unused")
+    public void setAudioEncoding(String audioEncoding) {
+        this.audioEncoding = audioEncoding;
+    }
+
+    public Integer getResponseBufferSize() {
+        return responseBufferSize;
+    }
+
+    @SuppressWarnings("unused")
+    public void setResponseBufferSize(Integer responseBufferSize) {
+        this.responseBufferSize = responseBufferSize;
+    }
+}
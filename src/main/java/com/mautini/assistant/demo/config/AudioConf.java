@@ -12,6 +12,36 @@ public class AudioConf {
 
     private Boolean bigEndian;
 
+    private Integer maxRecordSeconds;
+
+    private Integer ringBufferMs;
+
+    private Boolean vadEnabled;
+
+    private Integer vadFrameMs;
+
+    private Double vadEnergyThreshold;
+
+    private Double vadZeroCrossingRate;
+
+    private Integer vadEndSilenceMs;
+
+    private Integer vadNoSpeechTimeoutMs;
+
+    private Integer vadPaddingMs;
+
+    private String outputSink;
+
+    private String outputDirectory;
+
+    private Integer outputQueueSize;
+
+    private String responseCacheDirectory;
+
+    private Long responseCacheMaxBytes;
+
+    private Integer responseCacheMaxEntryBytes;
+
     public AudioConf() {
     }
 
@@ -59,4 +89,139 @@ public class AudioConf {
     public void setBigEndian(Boolean bigEndian) {
         this.bigEndian = bigEndian;
     }
+
+    public Integer getMaxRecordSeconds() {
+        return maxRecordSeconds;
+    }
+
+    @SuppressWarnings("unused")
+    public void setMaxRecordSeconds(Integer maxRecordSeconds) {
+        this.maxRecordSeconds = maxRecordSeconds;
+    }
+
+    public Integer getRingBufferMs() {
+        return ringBufferMs;
+    }
+
+    @SuppressWarnings("unused")
+    public void setRingBufferMs(Integer ringBufferMs) {
+        this.ringBufferMs = ringBufferMs;
+    }
+
+    public Boolean getVadEnabled() {
+        return vadEnabled;
+    }
+
+    @SuppressWarnings("unused")
+    public void setVadEnabled(Boolean vadEnabled) {
+        this.vadEnabled = vadEnabled;
+    }
+
+    public Integer getVadFrameMs() {
+        return vadFrameMs;
+    }
+
+    @SuppressWarnings("unused")
+    public void setVadFrameMs(Integer vadFrameMs) {
+        this.vadFrameMs = vadFrameMs;
+    }
+
+    public Double getVadEnergyThreshold() {
+        return vadEnergyThreshold;
+    }
+
+    @SuppressWarnings("unused")
+    public void setVadEnergyThreshold(Double vadEnergyThreshold) {
+        this.vadEnergyThreshold = vadEnergyThreshold;
+    }
+
+    public Double getVadZeroCrossingRate() {
+        return vadZeroCrossingRate;
+    }
+
+    @SuppressWarnings("unused")
+    public void setVadZeroCrossingRate(Double vadZeroCrossingRate) {
+        this.vadZeroCrossingRate = vadZeroCrossingRate;
+    }
+
+    public Integer getVadEndSilenceMs() {
+        return vadEndSilenceMs;
+    }
+
+    @SuppressWarnings("unused")
+    public void setVadEndSilenceMs(Integer vadEndSilenceMs) {
+        this.vadEndSilenceMs = vadEndSilenceMs;
+    }
+
+    public Integer getVadNoSpeechTimeoutMs() {
+        return vadNoSpeechTimeoutMs;
+    }
+
+    @SuppressWarnings("unused")
+    public void setVadNoSpeechTimeoutMs(Integer vadNoSpeechTimeoutMs) {
+        this.vadNoSpeechTimeoutMs = vadNoSpeechTimeoutMs;
+    }
+
+    public Integer getVadPaddingMs() {
+        return vadPaddingMs;
+    }
+
+    @SuppressWarnings("unused")
+    public void setVadPaddingMs(Integer vadPaddingMs) {
+        this.vadPaddingMs = vadPaddingMs;
+    }
+
+    public String getOutputSink() {
+        return outputSink;
+    }
+
+    @SuppressWarnings("unused")
+    public void setOutputSink(String outputSink) {
+        this.outputSink = outputSink;
+    }
+
+    public String getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    @SuppressWarnings("unused")
+    public void setOutputDirectory(String outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    public Integer getOutputQueueSize() {
+        return outputQueueSize;
+    }
+
+    @SuppressWarnings("unused")
+    public void setOutputQueueSize(Integer outputQueueSize) {
+        this.outputQueueSize = outputQueueSize;
+    }
+
+    public String getResponseCacheDirectory() {
+        return responseCacheDirectory;
+    }
+
+    @SuppressWarnings("unused")
+    public void setResponseCacheDirectory(String responseCacheDirectory) {
+        this.responseCacheDirectory = responseCacheDirectory;
+    }
+
+    public Long getResponseCacheMaxBytes() {
+        return responseCacheMaxBytes;
+    }
+
+    @SuppressWarnings("unused")
+    public void setResponseCacheMaxBytes(Long responseCacheMaxBytes) {
+        this.responseCacheMaxBytes = responseCacheMaxBytes;
+    }
+
+    public Integer getResponseCacheMaxEntryBytes() {
+        return responseCacheMaxEntryBytes;
+    }
+
+    @SuppressWarnings("unused")
+    public void setResponseCacheMaxEntryBytes(Integer responseCacheMaxEntryBytes) {
+        this.responseCacheMaxEntryBytes = responseCacheMaxEntryBytes;
+    }
 }
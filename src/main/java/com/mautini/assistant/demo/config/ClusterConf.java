@@ -0,0 +1,106 @@
+package com.mautini.assistant.demo.config;
+
+public class ClusterConf {
+
+    private String leaseStore;
+
+    private String nodeId;
+
+    private Long leaseTtlMs;
+
+    private Boolean partitionHomes;
+
+    private Integer virtualNodes;
+
+    private String leaseFilePath;
+
+    private String jdbcUrl;
+
+    private String jdbcUser;
+
+    private String jdbcPassword;
+
+    public ClusterConf() {
+    }
+
+    public String getLeaseStore() {
+        return leaseStore;
+    }
+
+    @SuppressWarnings("unused")
+    public void setLeaseStore(String leaseStore) {
+        this.leaseStore = leaseStore;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @SuppressWarnings("unused")
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public Long getLeaseTtlMs() {
+        return leaseTtlMs;
+    }
+
+    @SuppressWarnings("unused")
+    public void setLeaseTtlMs(Long leaseTtlMs) {
+        this.leaseTtlMs = leaseTtlMs;
+    }
+
+    public Boolean getPartitionHomes() {
+        return partitionHomes;
+    }
+
+    @SuppressWarnings("unused")
+    public void setPartitionHomes(Boolean partitionHomes) {
+        this.partitionHomes = partitionHomes;
+    }
+
+    public Integer getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    @SuppressWarnings("unused")
+    public void setVirtualNodes(Integer virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public String getLeaseFilePath() {
+        return leaseFilePath;
+    }
+
+    @SuppressWarnings("unused")
+    public void setLeaseFilePath(String leaseFilePath) {
+        this.leaseFilePath = leaseFilePath;
+    }
+
+    public String getJdbcUrl() {
+        return jdbcUrl;
+    }
+
+    @SuppressWarnings("unused")
+    public void setJdbcUrl(String jdbcUrl) {
+        this.jdbcUrl = jdbcUrl;
+    }
+
+    public String getJdbcUser() {
+        return jdbcUser;
+    }
+
+    @SuppressWarnings("unused")
+    public void setJdbcUser(String jdbcUser) {
+        this.jdbcUser = jdbcUser;
+    }
+
+    public String getJdbcPassword() {
+        return jdbcPassword;
+    }
+
+    @SuppressWarnings("unused")
+    public void setJdbcPassword(String jdbcPassword) {
+        this.jdbcPassword = jdbcPassword;
+    }
+}
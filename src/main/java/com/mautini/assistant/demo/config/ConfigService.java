@@ -0,0 +1,160 @@
+package com.mautini.assistant.demo.config;
+
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Give access to the current {@link ConfigSnapshot}.
+ * <p>
+ * The conf beans are bound once, the request path only reads the current snapshot. If the configuration is loaded
+ * from a file (-Dconfig.file=...), the file is watched and a new snapshot is swapped in when it changes, then the
+ * listeners are notified. An invalid file is ignored and the previous snapshot is kept.
+ */
+public class ConfigService implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigService.class);
+
+    // Editors often write a file in several steps, wait for the last one before reloading
+    private static final long RELOAD_DELAY_MS = 200;
+
+    /**
+     * Notified after a new snapshot is swapped in
+     */
+    public interface Listener {
+
+        void onReload(ConfigSnapshot previous, ConfigSnapshot current);
+    }
+
+    private final AtomicReference<ConfigSnapshot> snapshot;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // The watched configuration file, empty if the configuration only comes from the classpath
+    private final Optional<Path> configFile;
+
+    private WatchService watchService;
+
+    public ConfigService() {
+        this.snapshot = new AtomicReference<>(new ConfigSnapshot(ConfigFactory.load()));
+        String file = System.getProperty("config.file");
+        this.configFile = file == null ? Optional.empty() : Optional.of(Paths.get(file).toAbsolutePath());
+    }
+
+    public ConfigSnapshot get() {
+        return snapshot.get();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Load the configuration again and swap in the new snapshot
+     *
+     * @return true if the new configuration is valid
+     */
+    public boolean reload() {
+        ConfigSnapshot current;
+        try {
+            ConfigFactory.invalidateCaches();
+            current = new ConfigSnapshot(ConfigFactory.load());
+        } catch (ConfigException e) {
+            LOGGER.error("Invalid configuration, keeping the previous one", e);
+            return false;
+        }
+
+        ConfigSnapshot previous = snapshot.getAndSet(current);
+        LOGGER.info("Configuration reloaded");
+        for (Listener listener : listeners) {
+            try {
+                listener.onReload(previous, current);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Error in a configuration listener", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Start a thread reloading the configuration when its file changes
+     *
+     * @throws IOException if the directory of the file cannot be watched
+     */
+    public synchronized void startWatching() throws IOException {
+        if (!configFile.isPresent() || watchService != null) {
+            return;
+        }
+        Path file = configFile.get();
+        watchService = FileSystems.getDefault().newWatchService();
+        // Only directories can be watched
+        file.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        WatchService watcher = watchService;
+        Thread thread = new Thread(() -> watch(watcher, file), "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        LOGGER.info("Watching {}", file);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+    }
+
+    private void watch(WatchService watcher, Path file) {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = containsFile(key, file);
+                key.reset();
+                if (changed) {
+                    // Group the events of a single save
+                    WatchKey next;
+                    while ((next = watcher.poll(RELOAD_DELAY_MS, TimeUnit.MILLISECONDS)) != null) {
+                        next.pollEvents();
+                        next.reset();
+                    }
+                    reload();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            LOGGER.debug("Stopped watching {}", file);
+        }
+    }
+
+    private static boolean containsFile(WatchKey key, Path file) {
+        boolean found = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || (context instanceof Path && file.getFileName().equals(context))) {
+                found = true;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,111 @@
+package com.mautini.assistant.demo.config;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigBeanFactory;
+
+/**
+ * All the conf beans bound from one version of the configuration.
+ * <p>
+ * A snapshot is bound once by the {@link ConfigService} and shared by all the components, the beans must not be
+ * modified. A new snapshot replaces it when the configuration file changes.
+ */
+public final class ConfigSnapshot {
+
+    private final Config config;
+
+    private final AuthenticationConf authenticationConf;
+
+    private final DeviceRegisterConf deviceRegisterConf;
+
+    private final AssistantConf assistantConf;
+
+    private final AudioConf audioConf;
+
+    private final IoConf ioConf;
+
+    private final SunConf sunConf;
+
+    private final SchedulerConf schedulerConf;
+
+    private final DeviceStateConf deviceStateConf;
+
+    private final RateLimitConf rateLimitConf;
+
+    private final ClusterConf clusterConf;
+
+    /**
+     * Bind all the sections of the configuration
+     *
+     * @param config the root of the configuration
+     * @throws com.typesafe.config.ConfigException if a section is missing or invalid
+     */
+    public ConfigSnapshot(Config config) {
+        this.config = config;
+        this.authenticationConf = ConfigBeanFactory.create(config.getConfig("authentication"), AuthenticationConf.class);
+        this.deviceRegisterConf = ConfigBeanFactory.create(config.getConfig("deviceRegister"), DeviceRegisterConf.class);
+        this.assistantConf = ConfigBeanFactory.create(config.getConfig("assistant"), AssistantConf.class);
+        this.audioConf = ConfigBeanFactory.create(config.getConfig("audio"), AudioConf.class);
+        this.ioConf = ConfigBeanFactory.create(config.getConfig("io"), IoConf.class);
+        this.sunConf = ConfigBeanFactory.create(config.getConfig("sun"), SunConf.class);
+        this.schedulerConf = ConfigBeanFactory.create(config.getConfig("scheduler"), SchedulerConf.class);
+        this.deviceStateConf = ConfigBeanFactory.create(config.getConfig("deviceState"), DeviceStateConf.class);
+        this.rateLimitConf = ConfigBeanFactory.create(config.getConfig("rateLimit"), RateLimitConf.class);
+        this.clusterConf = ConfigBeanFactory.create(config.getConfig("cluster"), ClusterConf.class);
+    }
+
+    /**
+     * @return the raw configuration, for the sections without bean (e.g. rules)
+     */
+    public Config getConfig() {
+        return config;
+    }
+
+    /**
+     * @param other a previous snapshot
+     * @param path  the path of a section (e.g. assistant)
+     * @return true if the section is not the same in both snapshots
+     */
+    public boolean changed(ConfigSnapshot other, String path) {
+        return !config.getValue(path).equals(other.config.getValue(path));
+    }
+
+    public AuthenticationConf getAuthenticationConf() {
+        return authenticationConf;
+    }
+
+    public DeviceRegisterConf getDeviceRegisterConf() {
+        return deviceRegisterConf;
+    }
+
+    public AssistantConf getAssistantConf() {
+        return assistantConf;
+    }
+
+    public AudioConf getAudioConf() {
+        return audioConf;
+    }
+
+    public IoConf getIoConf() {
+        return ioConf;
+    }
+
+    public SunConf getSunConf() {
+        return sunConf;
+    }
+
+    public SchedulerConf getSchedulerConf() {
+        return schedulerConf;
+    }
+
+    public DeviceStateConf getDeviceStateConf() {
+        return deviceStateConf;
+    }
+
+    public RateLimitConf getRateLimitConf() {
+        return rateLimitConf;
+    }
+
+    public ClusterConf getClusterConf() {
+        return clusterConf;
+    }
+}
@@ -10,6 +10,14 @@ public class DeviceRegisterConf {
 
     private String deviceInstanceFilePath;
 
+    private Integer fleetParallelism;
+
+    private Integer fleetRequestsPerSecond;
+
+    private Integer fleetMaxRetries;
+
+    private String deviceRegistryFilePath;
+
     public DeviceRegisterConf() {
     }
 
@@ -48,4 +56,40 @@ public class DeviceRegisterConf {
     public void setDeviceInstanceFilePath(String deviceInstanceFilePath) {
         this.deviceInstanceFilePath = deviceInstanceFilePath;
     }
+
+    public Integer getFleetParallelism() {
+        return fleetParallelism;
+    }
+
+    @SuppressWarnings("unused")
+    public void setFleetParallelism(Integer fleetParallelism) {
+        this.fleetParallelism = fleetParallelism;
+    }
+
+    public Integer getFleetRequestsPerSecond() {
+        return fleetRequestsPerSecond;
+    }
+
+    @SuppressWarnings("unused")
+    public void setFleetRequestsPerSecond(Integer fleetRequestsPerSecond) {
+        this.fleetRequestsPerSecond = fleetRequestsPerSecond;
+    }
+
+    public Integer getFleetMaxRetries() {
+        return fleetMaxRetries;
+    }
+
+    @SuppressWarnings("unused")
+    public void setFleetMaxRetries(Integer fleetMaxRetries) {
+        this.fleetMaxRetries = fleetMaxRetries;
+    }
+
+    public String getDeviceRegistryFilePath() {
+        return deviceRegistryFilePath;
+    }
+
+    @SuppressWarnings("unused")
+    public void setDeviceRegistryFilePath(String deviceRegistryFilePath) {
+        this.deviceRegistryFilePath = deviceRegistryFilePath;
+    }
 }
@@ -0,0 +1,31 @@
+package com.mautini.assistant.demo.config;
+
+import java.time.Duration;
+
+public class DeviceStateConf {
+
+    private Duration knownStateTtl;
+
+    private Duration commandedStateTtl;
+
+    public DeviceStateConf() {
+    }
+
+    public Duration getKnownStateTtl() {
+        return knownStateTtl;
+    }
+
+    @SuppressWarnings("unused")
+    public void setKnownStateTtl(Duration knownStateTtl) {
+        this.knownStateTtl = knownStateTtl;
+    }
+
+    public Duration getCommandedStateTtl() {
+        return commandedStateTtl;
+    }
+
+    @SuppressWarnings("unused")
+    public void setCommandedStateTtl(Duration commandedStateTtl) {
+        this.commandedStateTtl = commandedStateTtl;
+    }
+}
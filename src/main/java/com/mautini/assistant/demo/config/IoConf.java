@@ -6,10 +6,19 @@ public class IoConf {
 
     public static final String AUDIO = "AUDIO";
 
+    // Batch of recorded audio files
+    public static final String FILE = "FILE";
+
     private String inputMode;
 
     private Boolean outputAudio;
 
+    private String fileInputDirectory;
+
+    private String fileResultsPath;
+
+    private Integer fileMaxConcurrency;
+
     public IoConf() {
     }
 
@@ -30,4 +39,31 @@ public class IoConf {
     public void setOutputAudio(Boolean outputAudio) {
         this.outputAudio = outputAudio;
     }
+
+    public String getFileInputDirectory() {
+        return fileInputDirectory;
+    }
+
+    @SuppressWarnings("unused")
+    public void setFileInputDirectory(String fileInputDirectory) {
+        this.fileInputDirectory = fileInputDirectory;
+    }
+
+    public String getFileResultsPath() {
+        return fileResultsPath;
+    }
+
+    @SuppressWarnings("unused")
+    public void setFileResultsPath(String fileResultsPath) {
+        this.fileResultsPath = fileResultsPath;
+    }
+
+    public Integer getFileMaxConcurrency() {
+        return fileMaxConcurrency;
+    }
+
+    @SuppressWarnings("unused")
+    public void setFileMaxConcurrency(Integer fileMaxConcurrency) {
+        this.fileMaxConcurrency = fileMaxConcurrency;
+    }
 }
@@ -0,0 +1,84 @@
+package com.mautini.assistant.demo.config;
+
+public class RateLimitConf {
+
+    private Double projectRequestsPerSecond;
+
+    private Integer projectBurst;
+
+    private Double deviceRequestsPerSecond;
+
+    private Integer deviceBurst;
+
+    private Boolean queue;
+
+    private Long maxQueueMs;
+
+    private Integer backgroundReserve;
+
+    public RateLimitConf() {
+    }
+
+    public Double getProjectRequestsPerSecond() {
+        return projectRequestsPerSecond;
+    }
+
+    @SuppressWarnings("unused")
+    public void setProjectRequestsPerSecond(Double projectRequestsPerSecond) {
+        this.projectRequestsPerSecond = projectRequestsPerSecond;
+    }
+
+    public Integer getProjectBurst() {
+        return projectBurst;
+    }
+
+    @SuppressWarnings("unused")
+    public void setProjectBurst(Integer projectBurst) {
+        this.projectBurst = projectBurst;
+    }
+
+    public Double getDeviceRequestsPerSecond() {
+        return deviceRequestsPerSecond;
+    }
+
+    @SuppressWarnings("unused")
+    public void setDeviceRequestsPerSecond(Double deviceRequestsPerSecond) {
+        this.deviceRequestsPerSecond = deviceRequestsPerSecond;
+    }
+
+    public Integer getDeviceBurst() {
+        return deviceBurst;
+    }
+
+    @SuppressWarnings("unused")
+    public void setDeviceBurst(Integer deviceBurst) {
+        this.deviceBurst = deviceBurst;
+    }
+
+    public Boolean getQueue() {
+        return queue;
+    }
+
+    @SuppressWarnings("unused")
+    public void setQueue(Boolean queue) {
+        this.queue = queue;
+    }
+
+    public Long getMaxQueueMs() {
+        return maxQueueMs;
+    }
+
+    @SuppressWarnings("unused")
+    public void setMaxQueueMs(Long maxQueueMs) {
+        this.maxQueueMs = maxQueueMs;
+    }
+
+    public Integer getBackgroundReserve() {
+        return backgroundReserve;
+    }
+
+    @SuppressWarnings("unused")
+    public void setBackgroundReserve(Integer backgroundReserve) {
+        this.backgroundReserve = backgroundReserve;
+    }
+}
@@ -0,0 +1,40 @@
+package com.mautini.assistant.demo.config;
+
+public class SchedulerConf {
+
+    private Long tickMs;
+
+    private Integer workerThreads;
+
+    private Integer queueCapacity;
+
+    public SchedulerConf() {
+    }
+
+    public Long getTickMs() {
+        return tickMs;
+    }
+
+    @SuppressWarnings("unused")
+    public void setTickMs(Long tickMs) {
+        this.tickMs = tickMs;
+    }
+
+    public Integer getWorkerThreads() {
+        return workerThreads;
+    }
+
+    @SuppressWarnings("unused")
+    public void setWorkerThreads(Integer workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public Integer getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @SuppressWarnings("unused")
+    public void setQueueCapacity(Integer queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+}
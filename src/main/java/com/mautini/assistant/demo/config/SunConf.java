@@ -0,0 +1,18 @@
+package com.mautini.assistant.demo.config;
+
+public class SunConf {
+
+    private Integer windowDays;
+
+    public SunConf() {
+    }
+
+    public Integer getWindowDays() {
+        return windowDays;
+    }
+
+    @SuppressWarnings("unused")
+    public void setWindowDays(Integer windowDays) {
+        this.windowDays = windowDays;
+    }
+}
@@ -1,5 +1,9 @@
 package com.mautini.assistant.demo.device;
 
+import com.google.gson.annotations.JsonAdapter;
+import com.mautini.assistant.demo.json.DeviceAdapter;
+
+@JsonAdapter(DeviceAdapter.class)
 public class Device {
 
     private String id;
@@ -1,5 +1,9 @@
 package com.mautini.assistant.demo.device;
 
+import com.google.gson.annotations.JsonAdapter;
+import com.mautini.assistant.demo.json.DeviceModelAdapter;
+
+@JsonAdapter(DeviceModelAdapter.class)
 public class DeviceModel {
 
     private String deviceModelId;
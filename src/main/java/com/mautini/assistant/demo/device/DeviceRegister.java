@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.gson.stream.JsonReader;
 import com.mautini.assistant.demo.config.DeviceRegisterConf;
 import com.mautini.assistant.demo.exception.DeviceRegisterException;
+import com.mautini.assistant.demo.json.JsonUtil;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import org.slf4j.Logger;
@@ -12,10 +13,13 @@ import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -39,8 +43,18 @@ public class DeviceRegister {
     public DeviceRegister(DeviceRegisterConf deviceRegisterConf, String accessToken) {
         this.deviceRegisterConf = deviceRegisterConf;
 
-        gson = new Gson();
+        gson = JsonUtil.GSON;
+        deviceInterface = createDeviceInterface(deviceRegisterConf, accessToken);
+    }
 
+    /**
+     * Create the retrofit client for the registration api
+     *
+     * @param deviceRegisterConf the configuration holding the api endpoint
+     * @param accessToken        the token added in the queries
+     * @return the API interface
+     */
+    static DeviceInterface createDeviceInterface(DeviceRegisterConf deviceRegisterConf, String accessToken) {
         // Add an interceptor to add our accessToken in the queries
         OkHttpClient client = new OkHttpClient.Builder().addInterceptor(chain -> {
             Request newRequest = chain.request().newBuilder()
@@ -52,10 +66,10 @@ public class DeviceRegister {
         Retrofit retrofit = new Retrofit.Builder()
                 .client(client)
                 .baseUrl(deviceRegisterConf.getApiEndpoint())
-                .addConverterFactory(GsonConverterFactory.create())
+                .addConverterFactory(GsonConverterFactory.create(JsonUtil.GSON))
                 .build();
 
-        deviceInterface = retrofit.create(DeviceInterface.class);
+        return retrofit.create(DeviceInterface.class);
     }
 
     public void register() throws DeviceRegisterException {
@@ -104,7 +118,7 @@ public class DeviceRegister {
             Response<DeviceModel> response = deviceInterface.registerModel(projectId, deviceModel).execute();
             if (response.isSuccessful() && response.body() != null) {
                 // Save the device model in a file to not request the api each time we start the project
-                try (FileWriter writer = new FileWriter(deviceRegisterConf.getDeviceModelFilePath())) {
+                try (Writer writer = new BufferedWriter(new FileWriter(deviceRegisterConf.getDeviceModelFilePath()))) {
                     gson.toJson(response.body(), writer);
                 }
                 return Optional.of(response.body());
@@ -134,7 +148,7 @@ public class DeviceRegister {
             Response<Device> response = deviceInterface.registerDevice(projectId, device).execute();
             if (response.isSuccessful() && response.body() != null) {
                 // Save the device instance in a file to not request the api each time we start the project
-                try (FileWriter writer = new FileWriter(deviceRegisterConf.getDeviceInstanceFilePath())) {
+                try (Writer writer = new BufferedWriter(new FileWriter(deviceRegisterConf.getDeviceInstanceFilePath()))) {
                     gson.toJson(response.body(), writer);
                 }
                 return Optional.of(response.body());
@@ -157,8 +171,8 @@ public class DeviceRegister {
     private <T> Optional<T> readFromFile(String filePath, Class<T> targetClass) {
         File file = new File(filePath);
         if (file.exists()) {
-            try {
-                return Optional.of(gson.fromJson(new JsonReader(new FileReader(file)), targetClass));
+            try (JsonReader reader = new JsonReader(new BufferedReader(new FileReader(file)))) {
+                return Optional.of(gson.fromJson(reader, targetClass));
             } catch (IOException e) {
                 LOGGER.warn("Unable to read the content of the file", e);
             }
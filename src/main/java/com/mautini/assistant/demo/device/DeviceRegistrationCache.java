@@ -0,0 +1,103 @@
+package com.mautini.assistant.demo.device;
+
+import com.mautini.assistant.demo.config.DeviceRegisterConf;
+import com.mautini.assistant.demo.exception.DeviceRegisterException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-level cache for the device model and the device instance.
+ * <p>
+ * The registration is resolved once (from the json files or from the API) and then served from memory. It is
+ * resolved again only after {@link #invalidate()}, when the assistant api rejected the device.
+ */
+public class DeviceRegistrationCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeviceRegistrationCache.class);
+
+    // Configuration from typesafe
+    private final DeviceRegisterConf deviceRegisterConf;
+
+    // The registered device model and instance, null until the first lookup or after an invalidation
+    private volatile DeviceRegister deviceRegister;
+
+    // Model of the last rejected registration, null if the last rejection dropped the model too
+    private String rejectedModelId;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    public DeviceRegistrationCache(DeviceRegisterConf deviceRegisterConf) {
+        this.deviceRegisterConf = deviceRegisterConf;
+    }
+
+    /**
+     * Get the registered device model and instance, registering them on the first call
+     *
+     * @param accessToken the token used if a request to the registration api is needed
+     * @return the device register holding the device model and the device instance
+     * @throws DeviceRegisterException if the registration fails
+     */
+    public DeviceRegister get(String accessToken) throws DeviceRegisterException {
+        DeviceRegister current = deviceRegister;
+        if (current != null) {
+            hits.increment();
+            return current;
+        }
+
+        synchronized (this) {
+            if (deviceRegister == null) {
+                misses.increment();
+                DeviceRegister register = new DeviceRegister(deviceRegisterConf, accessToken);
+                register.register();
+                deviceRegister = register;
+            }
+            return deviceRegister;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Drop the cached registration and the stored device instance, the next call to {@link #get(String)} will
+     * register a new device instance.
+     * <p>
+     * The errors of the assistant do not tell if the instance or its model was rejected: the model is kept first
+     * (registering a model creates a new one in the project), and dropped too if the new instance of the same model
+     * is rejected again.
+     */
+    public synchronized void invalidate() {
+        DeviceRegister rejected = deviceRegister;
+        String modelId = rejected == null ? null : rejected.getDeviceModel().getDeviceModelId();
+        deviceRegister = null;
+        delete(deviceRegisterConf.getDeviceInstanceFilePath());
+        if (modelId != null && modelId.equals(rejectedModelId)) {
+            LOGGER.warn("Device instance of model {} rejected again, the model and the instance will be registered again", modelId);
+            delete(deviceRegisterConf.getDeviceModelFilePath());
+            rejectedModelId = null;
+        } else {
+            LOGGER.warn("Device instance rejected by the assistant, it will be registered again");
+            rejectedModelId = modelId;
+        }
+    }
+
+    private static void delete(String filePath) {
+        try {
+            Files.deleteIfExists(Paths.get(filePath));
+        } catch (IOException e) {
+            LOGGER.warn("Unable to delete {}", filePath, e);
+        }
+    }
+}
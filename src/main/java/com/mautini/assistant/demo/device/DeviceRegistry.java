@@ -0,0 +1,386 @@
+package com.mautini.assistant.demo.device;
+
+import com.mautini.assistant.demo.exception.DeviceRegisterException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local registry of device models and device instances for a whole fleet.
+ * <p>
+ * The records are appended to a single binary file, a new record for an existing id replaces the previous one. The
+ * file is memory-mapped for the reads and an in-memory index (by device id and by model id) points to the offset of
+ * the latest record, so the startup only scans the record headers and a lookup decodes a single record. The records
+ * appended after the mapping are read from the file until they are as big as the mapped part, the file is then mapped
+ * again, so a fleet stored device by device only maps the file a few times.
+ * <p>
+ * Format: a header (magic, version) followed by records made of a type (byte), the payload length (int) and the
+ * payload (length-prefixed UTF-8 strings). The file is limited to 2 GB.
+ */
+public class DeviceRegistry implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeviceRegistry.class);
+
+    private static final int MAGIC = 0x44524547; // "DREG"
+
+    private static final int VERSION = 1;
+
+    private static final int FILE_HEADER_SIZE = 8;
+
+    private static final int RECORD_HEADER_SIZE = 5;
+
+    private static final byte TYPE_MODEL = 1;
+
+    private static final byte TYPE_DEVICE = 2;
+
+    // Length written for a null string
+    private static final short NULL_LENGTH = -1;
+
+    private final FileChannel channel;
+
+    // Read-only view of the start of the file, the records after its limit are read from the channel
+    private volatile MappedByteBuffer mapped;
+
+    // Offset of the latest record of each device model / device instance
+    private final Map<String, Integer> modelOffsets = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> deviceOffsets = new ConcurrentHashMap<>();
+
+    // Ids of the device instances of each device model
+    private final Map<String, List<String>> deviceIdsByModel = new ConcurrentHashMap<>();
+
+    private DeviceRegistry(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Open (or create) a registry and load its index
+     *
+     * @param filePath the file in which the records are stored
+     * @return the registry ready for lookups
+     * @throws DeviceRegisterException if the file cannot be read or is not a registry
+     */
+    public static DeviceRegistry open(String filePath) throws DeviceRegisterException {
+        try {
+            FileChannel channel = FileChannel.open(Paths.get(filePath),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            DeviceRegistry registry = new DeviceRegistry(channel);
+            try {
+                registry.load();
+            } catch (IOException | DeviceRegisterException e) {
+                channel.close();
+                throw e;
+            }
+            return registry;
+        } catch (IOException e) {
+            throw new DeviceRegisterException("Unable to open the device registry " + filePath, e);
+        }
+    }
+
+    public Optional<DeviceModel> getDeviceModel(String deviceModelId) {
+        Integer offset = modelOffsets.get(deviceModelId);
+        return offset == null ? Optional.empty() : Optional.of(readDeviceModel(recordAt(offset)));
+    }
+
+    public Optional<Device> getDevice(String deviceId) {
+        Integer offset = deviceOffsets.get(deviceId);
+        return offset == null ? Optional.empty() : Optional.of(readDevice(recordAt(offset)));
+    }
+
+    /**
+     * @param deviceModelId the id of a device model
+     * @return the device instances registered with this model
+     */
+    public List<Device> getDevicesByModel(String deviceModelId) {
+        List<String> modelDeviceIds = deviceIdsByModel.getOrDefault(deviceModelId, Collections.emptyList());
+        List<String> deviceIds;
+        synchronized (modelDeviceIds) {
+            deviceIds = new ArrayList<>(modelDeviceIds);
+        }
+        List<Device> devices = new ArrayList<>(deviceIds.size());
+        for (String deviceId : deviceIds) {
+            getDevice(deviceId).ifPresent(devices::add);
+        }
+        return devices;
+    }
+
+    public int getDeviceCount() {
+        return deviceOffsets.size();
+    }
+
+    public int getDeviceModelCount() {
+        return modelOffsets.size();
+    }
+
+    /**
+     * Store device models and device instances with a single write
+     *
+     * @param deviceModels the device models to store
+     * @param devices      the device instances to store
+     * @throws DeviceRegisterException if the records cannot be written
+     */
+    public synchronized void putAll(Collection<DeviceModel> deviceModels, Collection<Device> devices) throws DeviceRegisterException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int base = (int) channel.size();
+
+            List<Integer> modelRecords = new ArrayList<>(deviceModels.size());
+            for (DeviceModel deviceModel : deviceModels) {
+                modelRecords.add(base + out.size());
+                writeRecord(out, TYPE_MODEL, deviceModel);
+            }
+            List<Integer> deviceRecords = new ArrayList<>(devices.size());
+            for (Device device : devices) {
+                deviceRecords.add(base + out.size());
+                writeRecord(out, TYPE_DEVICE, device);
+            }
+
+            if ((long) base + out.size() > Integer.MAX_VALUE) {
+                throw new DeviceRegisterException("The device registry is full");
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, base + buffer.position());
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                // Drop the records written partly, the next write would append after them
+                channel.truncate(base);
+                throw e;
+            }
+            if (channel.size() > 2L * mapped.limit()) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+
+            int i = 0;
+            for (DeviceModel deviceModel : deviceModels) {
+                modelOffsets.put(deviceModel.getDeviceModelId(), modelRecords.get(i++));
+            }
+            i = 0;
+            for (Device device : devices) {
+                indexDevice(device.getId(), device.getModelId(), deviceRecords.get(i++));
+            }
+        } catch (IOException e) {
+            throw new DeviceRegisterException("Unable to write in the device registry", e);
+        }
+    }
+
+    public void putDeviceModel(DeviceModel deviceModel) throws DeviceRegisterException {
+        putAll(Collections.singletonList(deviceModel), Collections.emptyList());
+    }
+
+    public void putDevice(Device device) throws DeviceRegisterException {
+        putAll(Collections.emptyList(), Collections.singletonList(device));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Check the header and index all the complete records of the file
+     */
+    private void load() throws IOException, DeviceRegisterException {
+        long start = System.nanoTime();
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            channel.write(header, 0);
+        }
+        if (channel.size() > Integer.MAX_VALUE) {
+            throw new DeviceRegisterException("The device registry is bigger than 2 GB");
+        }
+
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.remaining() < FILE_HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new DeviceRegisterException("The file is not a device registry");
+        }
+        // Needed to read the previous record of a device instance stored twice
+        mapped = buffer;
+
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int offset = buffer.position();
+            byte type = buffer.get();
+            int length = buffer.getInt();
+            if (length < 0 || buffer.remaining() < length) {
+                // Incomplete record (interrupted write), it will be overwritten
+                buffer.position(offset);
+                break;
+            }
+
+            // A string of the record cannot be read in the next one
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            try {
+                String id = readString(payload);
+                if (type == TYPE_MODEL) {
+                    modelOffsets.put(id, offset);
+                } else if (type == TYPE_DEVICE) {
+                    indexDevice(id, readString(payload), offset);
+                }
+            } catch (BufferUnderflowException | IllegalStateException e) {
+                throw new DeviceRegisterException("The record at " + offset + " of the device registry is corrupt", e);
+            }
+            buffer.position(offset + RECORD_HEADER_SIZE + length);
+        }
+
+        if (buffer.hasRemaining()) {
+            LOGGER.warn("Dropping {} bytes of incomplete record in the device registry", buffer.remaining());
+            channel.truncate(buffer.position());
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mapped = buffer;
+
+        LOGGER.info("Loaded {} device models and {} device instances from the registry in {} ms",
+                modelOffsets.size(), deviceOffsets.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void indexDevice(String deviceId, String deviceModelId, int offset) {
+        Integer previous = deviceOffsets.put(deviceId, offset);
+        if (previous != null) {
+            String previousModelId = readDevice(recordAt(previous)).getModelId();
+            if (previousModelId != null && previousModelId.equals(deviceModelId)) {
+                return;
+            }
+            List<String> previousIds = deviceIdsByModel.get(previousModelId);
+            if (previousIds != null) {
+                previousIds.remove(deviceId);
+            }
+        }
+        if (deviceModelId != null) {
+            deviceIdsByModel.computeIfAbsent(deviceModelId, key -> Collections.synchronizedList(new ArrayList<>())).add(deviceId);
+        }
+    }
+
+    /**
+     * @return a buffer positioned on the payload of the record at this offset
+     */
+    private ByteBuffer recordAt(int offset) {
+        MappedByteBuffer current = mapped;
+        if (offset < current.limit()) {
+            ByteBuffer buffer = current.duplicate();
+            buffer.position(offset + RECORD_HEADER_SIZE);
+            return buffer;
+        }
+        // Appended since the last mapping
+        try {
+            ByteBuffer header = readFully(offset, RECORD_HEADER_SIZE);
+            header.get();
+            return readFully(offset + RECORD_HEADER_SIZE, header.getInt());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read the device registry", e);
+        }
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Record truncated at " + position);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, Object record) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(64);
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        if (type == TYPE_MODEL) {
+            DeviceModel deviceModel = (DeviceModel) record;
+            writeString(payload, deviceModel.getDeviceModelId());
+            writeString(payload, deviceModel.getProjectId());
+            writeString(payload, deviceModel.getName());
+            writeString(payload, deviceModel.getDeviceType());
+            DeviceModel.Manifest manifest = deviceModel.getManifest();
+            payload.writeBoolean(manifest != null);
+            if (manifest != null) {
+                writeString(payload, manifest.getManufacturer());
+                writeString(payload, manifest.getProductName());
+                writeString(payload, manifest.getDeviceDescription());
+            }
+        } else {
+            Device device = (Device) record;
+            writeString(payload, device.getId());
+            writeString(payload, device.getModelId());
+            writeString(payload, device.getClientType());
+        }
+        out.writeByte(type);
+        out.writeInt(payloadBytes.size());
+        payloadBytes.writeTo(out);
+    }
+
+    private static DeviceModel readDeviceModel(ByteBuffer buffer) {
+        DeviceModel deviceModel = new DeviceModel();
+        deviceModel.setDeviceModelId(readString(buffer));
+        deviceModel.setProjectId(readString(buffer));
+        deviceModel.setName(readString(buffer));
+        deviceModel.setDeviceType(readString(buffer));
+        if (buffer.get() != 0) {
+            DeviceModel.Manifest manifest = new DeviceModel.Manifest();
+            manifest.setManufacturer(readString(buffer));
+            manifest.setProductName(readString(buffer));
+            manifest.setDeviceDescription(readString(buffer));
+            deviceModel.setManifest(manifest);
+        }
+        return deviceModel;
+    }
+
+    private static Device readDevice(ByteBuffer buffer) {
+        Device device = new Device();
+        device.setId(readString(buffer));
+        device.setModelId(readString(buffer));
+        device.setClientType(readString(buffer));
+        return device;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IOException("Value too long for the device registry");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IllegalStateException("Invalid string length " + length + " in the device registry");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
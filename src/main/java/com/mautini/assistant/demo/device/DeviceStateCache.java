@@ -0,0 +1,133 @@
+package com.mautini.assistant.demo.device;
+
+import com.mautini.assistant.demo.config.DeviceStateConf;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Last known and last commanded state of each device.
+ * <p>
+ * The known state is the state confirmed by the assistant, the commanded state is the last state we asked for. Each
+ * of them expires after its TTL (see deviceState in reference.conf), after which the state of the device is unknown
+ * again.
+ */
+public class DeviceStateCache {
+
+    private final long knownStateTtlMs;
+
+    private final long commandedStateTtlMs;
+
+    private final Clock clock;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    public DeviceStateCache(DeviceStateConf deviceStateConf, Clock clock) {
+        this.knownStateTtlMs = deviceStateConf.getKnownStateTtl().toMillis();
+        this.commandedStateTtlMs = deviceStateConf.getCommandedStateTtl().toMillis();
+        this.clock = clock;
+    }
+
+    public void recordKnownState(String device, String state) {
+        long now = clock.millis();
+        entries.compute(device, (key, entry) -> entry == null
+                ? new Entry(state, now, null, 0)
+                : new Entry(state, now, entry.commandedState, entry.commandedAt));
+    }
+
+    public void recordCommandedState(String device, String state) {
+        long now = clock.millis();
+        entries.compute(device, (key, entry) -> entry == null
+                ? new Entry(null, 0, state, now)
+                : new Entry(entry.knownState, entry.knownAt, state, now));
+    }
+
+    /**
+     * Forget a commanded state which was finally not applied (e.g. the command failed)
+     *
+     * @param device the device
+     * @param state  the state, the entry is unchanged if another state was commanded since
+     */
+    public void clearCommandedState(String device, String state) {
+        entries.computeIfPresent(device, (key, entry) -> state.equals(entry.commandedState)
+                ? new Entry(entry.knownState, entry.knownAt, null, 0)
+                : entry);
+    }
+
+    public Optional<String> getKnownState(String device) {
+        Entry entry = entries.get(device);
+        return entry == null ? Optional.empty() : entry.getKnownState(clock.millis());
+    }
+
+    public Optional<String> getCommandedState(String device) {
+        Entry entry = entries.get(device);
+        return entry == null ? Optional.empty() : entry.getCommandedState(clock.millis());
+    }
+
+    /**
+     * Get the most recent valid state of a device (known or commanded)
+     *
+     * @param device the device
+     * @return the state, empty if unknown or expired
+     */
+    public Optional<String> getState(String device) {
+        Entry entry = entries.get(device);
+        Optional<String> state = Optional.empty();
+        if (entry != null) {
+            long now = clock.millis();
+            Optional<String> known = entry.getKnownState(now);
+            Optional<String> commanded = entry.getCommandedState(now);
+            if (known.isPresent() && commanded.isPresent()) {
+                state = entry.knownAt >= entry.commandedAt ? known : commanded;
+            } else {
+                state = known.isPresent() ? known : commanded;
+            }
+        }
+        (state.isPresent() ? hits : misses).increment();
+        return state;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * States of a device, replaced on each update
+     */
+    private final class Entry {
+
+        private final String knownState;
+
+        private final long knownAt;
+
+        private final String commandedState;
+
+        private final long commandedAt;
+
+        private Entry(String knownState, long knownAt, String commandedState, long commandedAt) {
+            this.knownState = knownState;
+            this.knownAt = knownAt;
+            this.commandedState = commandedState;
+            this.commandedAt = commandedAt;
+        }
+
+        private Optional<String> getKnownState(long now) {
+            return knownState != null && now - knownAt < knownStateTtlMs ? Optional.of(knownState) : Optional.empty();
+        }
+
+        private Optional<String> getCommandedState(long now) {
+            return commandedState != null && now - commandedAt < commandedStateTtlMs ? Optional.of(commandedState) : Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.mautini.assistant.demo.device;
+
+import com.mautini.assistant.demo.config.DeviceRegisterConf;
+import com.mautini.assistant.demo.exception.DeviceRegisterException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import retrofit2.Call;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Register a fleet of device instances.
+ * <p>
+ * Each device model is registered once, then the device instances are registered concurrently (bounded by
+ * fleetParallelism) without sending more than fleetRequestsPerSecond requests to the api. Failed requests are
+ * retried (after the Retry-After delay of the api, if any), a model or an instance which already exists (409) is
+ * considered registered. All the registered models and instances, as returned by the api, are written in the
+ * {@link DeviceRegistry} at the end.
+ */
+public class FleetRegister {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FleetRegister.class);
+
+    // First delay before retrying a failed registration, doubled for each retry
+    private static final long RETRY_BASE_DELAY_MS = 200;
+
+    // Longest Retry-After delay honoured, a longer one is probably wrong
+    private static final long MAX_RETRY_AFTER_MS = TimeUnit.MINUTES.toMillis(1);
+
+    // Configuration from typesafe
+    private final DeviceRegisterConf deviceRegisterConf;
+
+    // The API interface (used by retrofit or a mock)
+    private final DeviceInterface deviceInterface;
+
+    // Local registry in which the registered fleet is stored
+    private final DeviceRegistry deviceRegistry;
+
+    // Minimal delay between two requests and time (System.nanoTime) of the next free request slot
+    private final long requestIntervalNanos;
+
+    private final AtomicLong nextRequestNanos = new AtomicLong(System.nanoTime());
+
+    public FleetRegister(DeviceRegisterConf deviceRegisterConf, String accessToken, DeviceRegistry deviceRegistry) {
+        this(deviceRegisterConf, DeviceRegister.createDeviceInterface(deviceRegisterConf, accessToken), deviceRegistry);
+    }
+
+    public FleetRegister(DeviceRegisterConf deviceRegisterConf, DeviceInterface deviceInterface, DeviceRegistry deviceRegistry) {
+        this.deviceRegisterConf = deviceRegisterConf;
+        this.deviceInterface = deviceInterface;
+        this.deviceRegistry = deviceRegistry;
+        this.requestIntervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, deviceRegisterConf.getFleetRequestsPerSecond());
+    }
+
+    /**
+     * Register the device models and the device instances of the fleet
+     *
+     * @param deviceModels the device models used by the fleet, registered once each
+     * @param devices      the device instances to register
+     * @return the device instances registered by the api
+     * @throws DeviceRegisterException if a device model cannot be registered or the result cannot be saved
+     */
+    public List<Device> register(List<DeviceModel> deviceModels, List<Device> devices) throws DeviceRegisterException {
+        String projectId = deviceRegisterConf.getProjectId();
+        long start = System.nanoTime();
+
+        Map<String, DeviceModel> models = new LinkedHashMap<>();
+        deviceModels.forEach(deviceModel -> models.putIfAbsent(deviceModel.getDeviceModelId(), deviceModel));
+
+        ExecutorService executor = Executors.newFixedThreadPool(deviceRegisterConf.getFleetParallelism());
+        List<DeviceModel> registeredModels = new ArrayList<>(models.size());
+        List<Device> registered = new ArrayList<>(devices.size());
+        try {
+            // Models are shared by many instances, register each of them once before the instances
+            for (DeviceModel deviceModel : models.values()) {
+                registeredModels.add(execute(() -> deviceInterface.registerModel(projectId, deviceModel),
+                        deviceModel.getDeviceModelId(), deviceModel)
+                        .orElseThrow(() -> new DeviceRegisterException("Unable to register the device model " + deviceModel.getDeviceModelId())));
+            }
+
+            List<Future<Optional<Device>>> futures = new ArrayList<>(devices.size());
+            for (Device device : devices) {
+                futures.add(executor.submit(() -> execute(() -> deviceInterface.registerDevice(projectId, device), device.getId(), device)));
+            }
+
+            for (Future<Optional<Device>> future : futures) {
+                future.get().ifPresent(registered::add);
+            }
+        } catch (ExecutionException e) {
+            throw new DeviceRegisterException("Error during registration of the fleet", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DeviceRegisterException("Registration of the fleet interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Save the whole fleet with a single write
+        deviceRegistry.putAll(registeredModels, registered);
+
+        long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        LOGGER.info("Registered {}/{} device instances and {} device models in {} ms ({} devices/s)",
+                registered.size(), devices.size(), models.size(), elapsedMs, registered.size() * 1000L / elapsedMs);
+        return registered;
+    }
+
+    /**
+     * Execute a registration request, retrying it on network errors, quota errors (429) and server errors (5xx)
+     *
+     * @param request supplier of a new call for each try
+     * @param id      the id of the registered object (for the logs)
+     * @param sent    the registered object, kept if it already exists (409)
+     * @return the object registered by the api (with the fields it set), empty if the registration failed
+     */
+    private <T> Optional<T> execute(Supplier<Call<T>> request, String id, T sent) throws InterruptedException {
+        int maxRetries = deviceRegisterConf.getFleetMaxRetries();
+        for (int attempt = 0; attempt <= maxRetries; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(RETRY_BASE_DELAY_MS << (attempt - 1));
+            }
+            acquireRequestSlot();
+            try {
+                Response<T> response = request.get().execute();
+                if (response.isSuccessful()) {
+                    return Optional.of(response.body() != null ? response.body() : sent);
+                }
+                if (response.code() == 409) {
+                    LOGGER.debug("{} is already registered", id);
+                    return Optional.of(sent);
+                }
+                if (response.code() != 429 && response.code() < 500) {
+                    LOGGER.warn("Registration of {} refused with code {}", id, response.code());
+                    return Optional.empty();
+                }
+                long retryAfterMs = parseRetryAfterMs(response.headers().get("Retry-After"));
+                if (retryAfterMs > 0) {
+                    // The quota applies to all the requests, none is sent before the delay
+                    nextRequestNanos.accumulateAndGet(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMs), Math::max);
+                }
+                LOGGER.debug("Registration of {} failed with code {} (try {}, retry after {} ms)", id, response.code(),
+                        attempt + 1, retryAfterMs);
+            } catch (IOException e) {
+                LOGGER.debug("Registration of {} failed (try {})", id, attempt + 1, e);
+            }
+        }
+        LOGGER.warn("Unable to register {} after {} tries", id, maxRetries + 1);
+        return Optional.empty();
+    }
+
+    /**
+     * @param retryAfter the Retry-After header: a number of seconds or an http date, may be null
+     * @return the delay in ms, 0 if there is none or it cannot be parsed
+     */
+    static long parseRetryAfterMs(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return 0;
+        }
+        long delayMs;
+        try {
+            delayMs = TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                delayMs = date.toInstant().toEpochMilli() - System.currentTimeMillis();
+            } catch (DateTimeParseException ignored) {
+                LOGGER.debug("Invalid Retry-After header {}", retryAfter);
+                return 0;
+            }
+        }
+        return Math.min(Math.max(0, delayMs), MAX_RETRY_AFTER_MS);
+    }
+
+    /**
+     * Wait for the next request slot to respect the rate limit of the api
+     */
+    private void acquireRequestSlot() throws InterruptedException {
+        long now = System.nanoTime();
+        // Reserve the first free slot, the next caller gets the one after
+        long slot = nextRequestNanos.accumulateAndGet(now,
+                (next, current) -> Math.max(next, current) + requestIntervalNanos) - requestIntervalNanos;
+        long waitNanos = slot - now;
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
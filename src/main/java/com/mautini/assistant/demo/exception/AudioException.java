@@ -5,4 +5,8 @@ public class AudioException extends Exception {
     public AudioException(String message, Throwable cause) {
         super(message, cause);
     }
+
+    public AudioException(String message) {
+        super(message);
+    }
 }
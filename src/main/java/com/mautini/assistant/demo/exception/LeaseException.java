@@ -0,0 +1,8 @@
+package com.mautini.assistant.demo.exception;
+
+public class LeaseException extends Exception {
+
+    public LeaseException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
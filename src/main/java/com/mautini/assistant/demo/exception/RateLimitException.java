@@ -0,0 +1,8 @@
+package com.mautini.assistant.demo.exception;
+
+public class RateLimitException extends Exception {
+
+    public RateLimitException(String message) {
+        super(message);
+    }
+}
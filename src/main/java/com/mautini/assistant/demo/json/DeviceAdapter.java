@@ -0,0 +1,56 @@
+package com.mautini.assistant.demo.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.mautini.assistant.demo.device.Device;
+
+import java.io.IOException;
+
+/**
+ * Streaming adapter for the device instance (device instance file and registration api)
+ */
+public class DeviceAdapter extends TypeAdapter<Device> {
+
+    @Override
+    public void write(JsonWriter out, Device value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        JsonUtil.write(out, "id", value.getId());
+        JsonUtil.write(out, "modelId", value.getModelId());
+        JsonUtil.write(out, "clientType", value.getClientType());
+        out.endObject();
+    }
+
+    @Override
+    public Device read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Device device = new Device();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    device.setId(JsonUtil.nextString(in));
+                    break;
+                case "modelId":
+                    device.setModelId(JsonUtil.nextString(in));
+                    break;
+                case "clientType":
+                    device.setClientType(JsonUtil.nextString(in));
+                    break;
+                default:
+                    // Fields added by the api (e.g. nickname)
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return device;
+    }
+}
@@ -0,0 +1,97 @@
+package com.mautini.assistant.demo.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.mautini.assistant.demo.device.DeviceModel;
+
+import java.io.IOException;
+
+/**
+ * Streaming adapter for the device model and its manifest (device model file and registration api)
+ */
+public class DeviceModelAdapter extends TypeAdapter<DeviceModel> {
+
+    @Override
+    public void write(JsonWriter out, DeviceModel value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        JsonUtil.write(out, "deviceModelId", value.getDeviceModelId());
+        JsonUtil.write(out, "projectId", value.getProjectId());
+        DeviceModel.Manifest manifest = value.getManifest();
+        if (manifest != null) {
+            out.name("manifest").beginObject();
+            JsonUtil.write(out, "manufacturer", manifest.getManufacturer());
+            JsonUtil.write(out, "productName", manifest.getProductName());
+            JsonUtil.write(out, "deviceDescription", manifest.getDeviceDescription());
+            out.endObject();
+        }
+        JsonUtil.write(out, "name", value.getName());
+        JsonUtil.write(out, "deviceType", value.getDeviceType());
+        out.endObject();
+    }
+
+    @Override
+    public DeviceModel read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        DeviceModel deviceModel = new DeviceModel();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "deviceModelId":
+                    deviceModel.setDeviceModelId(JsonUtil.nextString(in));
+                    break;
+                case "projectId":
+                    deviceModel.setProjectId(JsonUtil.nextString(in));
+                    break;
+                case "manifest":
+                    deviceModel.setManifest(readManifest(in));
+                    break;
+                case "name":
+                    deviceModel.setName(JsonUtil.nextString(in));
+                    break;
+                case "deviceType":
+                    deviceModel.setDeviceType(JsonUtil.nextString(in));
+                    break;
+                default:
+                    // Fields added by the api (e.g. traits, executionModes)
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return deviceModel;
+    }
+
+    private static DeviceModel.Manifest readManifest(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        DeviceModel.Manifest manifest = new DeviceModel.Manifest();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "manufacturer":
+                    manifest.setManufacturer(JsonUtil.nextString(in));
+                    break;
+                case "productName":
+                    manifest.setProductName(JsonUtil.nextString(in));
+                    break;
+                case "deviceDescription":
+                    manifest.setDeviceDescription(JsonUtil.nextString(in));
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return manifest;
+    }
+}
@@ -0,0 +1,51 @@
+package com.mautini.assistant.demo.json;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+public class JsonUtil {
+
+    /**
+     * Gson instance shared by the application, the model classes declare their streaming adapters with
+     * {@link com.google.gson.annotations.JsonAdapter} so no reflection is used to read or write them
+     */
+    public static final Gson GSON = new Gson();
+
+    private JsonUtil() {
+    }
+
+    static String nextString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    static Long nextLong(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextLong();
+    }
+
+    /**
+     * Write a field, skipped if the value is null (as the default Gson serialization)
+     */
+    static void write(JsonWriter out, String name, String value) throws IOException {
+        if (value != null) {
+            out.name(name).value(value);
+        }
+    }
+
+    static void write(JsonWriter out, String name, Number value) throws IOException {
+        if (value != null) {
+            out.name(name).value(value);
+        }
+    }
+}
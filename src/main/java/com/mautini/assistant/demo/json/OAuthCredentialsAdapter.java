@@ -0,0 +1,68 @@
+package com.mautini.assistant.demo.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.mautini.assistant.demo.authentication.OAuthCredentials;
+
+import java.io.IOException;
+
+/**
+ * Streaming adapter for the oAuth credentials (credentials file and responses of the oAuth api)
+ */
+public class OAuthCredentialsAdapter extends TypeAdapter<OAuthCredentials> {
+
+    @Override
+    public void write(JsonWriter out, OAuthCredentials value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        JsonUtil.write(out, "access_token", value.getAccessToken());
+        out.name("expires_in").value(value.getExpiresIn());
+        JsonUtil.write(out, "token_type", value.getTokenType());
+        JsonUtil.write(out, "refresh_token", value.getRefreshToken());
+        JsonUtil.write(out, "id_token", value.getIdToken());
+        JsonUtil.write(out, "expiration_time", value.getExpirationTime());
+        out.endObject();
+    }
+
+    @Override
+    public OAuthCredentials read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        OAuthCredentials credentials = new OAuthCredentials();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "access_token":
+                    credentials.setAccessToken(JsonUtil.nextString(in));
+                    break;
+                case "expires_in":
+                    credentials.setExpiresIn(in.nextInt());
+                    break;
+                case "token_type":
+                    credentials.setTokenType(JsonUtil.nextString(in));
+                    break;
+                case "refresh_token":
+                    credentials.setRefreshToken(JsonUtil.nextString(in));
+                    break;
+                case "id_token":
+                    credentials.setIdToken(JsonUtil.nextString(in));
+                    break;
+                case "expiration_time":
+                    credentials.setExpirationTime(JsonUtil.nextLong(in));
+                    break;
+                default:
+                    // e.g. scope
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return credentials;
+    }
+}
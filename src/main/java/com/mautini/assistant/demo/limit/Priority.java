@@ -0,0 +1,11 @@
+package com.mautini.assistant.demo.limit;
+
+/**
+ * Priority of a request to the assistant
+ */
+public enum Priority {
+    // A user waits for the answer (e.g. POST /assist)
+    INTERACTIVE,
+    // Periodic polls of the rules, they never queue and leave a reserve of tokens to the interactive requests
+    BACKGROUND
+}
@@ -0,0 +1,117 @@
+package com.mautini.assistant.demo.limit;
+
+import com.mautini.assistant.demo.config.RateLimitConf;
+import com.mautini.assistant.demo.exception.RateLimitException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control of the requests to the assistant (see rateLimit in reference.conf).
+ * <p>
+ * A request takes a token from the bucket of its project (the quota of the api) and from the bucket of its device.
+ * When no token is left, an interactive request waits for the next one up to maxQueueMs (if queue is enabled) and
+ * is rejected otherwise, so the latency of the admitted requests stays bounded under overload. A background request
+ * never waits and cannot take the last backgroundReserve tokens of a bucket.
+ */
+public class RateLimiter {
+
+    private final RateLimitConf rateLimitConf;
+
+    private final Map<String, TokenBucket> projectBuckets = new ConcurrentHashMap<>();
+
+    private final Map<String, TokenBucket> deviceBuckets = new ConcurrentHashMap<>();
+
+    private final LongAdder admitted = new LongAdder();
+
+    private final LongAdder queued = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    public RateLimiter(RateLimitConf rateLimitConf) {
+        this.rateLimitConf = rateLimitConf;
+    }
+
+    /**
+     * @return a limiter admitting all the requests immediately
+     */
+    public static RateLimiter unlimited() {
+        RateLimitConf unlimited = new RateLimitConf();
+        unlimited.setProjectRequestsPerSecond(0.0);
+        unlimited.setDeviceRequestsPerSecond(0.0);
+        unlimited.setProjectBurst(1);
+        unlimited.setDeviceBurst(1);
+        unlimited.setQueue(false);
+        unlimited.setMaxQueueMs(0L);
+        unlimited.setBackgroundReserve(0);
+        return new RateLimiter(unlimited);
+    }
+
+    /**
+     * Admit a request
+     *
+     * @param projectId the project of the device model
+     * @param deviceId  the id of the device instance
+     * @param priority  the priority of the request
+     * @return the delay (in ns) before sending the request, 0 to send it now
+     * @throws RateLimitException if the request must not be sent
+     */
+    public long admit(String projectId, String deviceId, Priority priority) throws RateLimitException {
+        long now = System.nanoTime();
+        boolean interactive = priority == Priority.INTERACTIVE;
+        int reserve = interactive ? 0 : rateLimitConf.getBackgroundReserve();
+        long maxWait = interactive && rateLimitConf.getQueue() ? TimeUnit.MILLISECONDS.toNanos(rateLimitConf.getMaxQueueMs()) : 0;
+
+        TokenBucket deviceBucket = bucket(deviceBuckets, deviceId,
+                rateLimitConf.getDeviceRequestsPerSecond(), rateLimitConf.getDeviceBurst(), now);
+        long deviceWait = reserve(deviceBucket, now, reserve, maxWait);
+        if (deviceWait == TokenBucket.REJECTED) {
+            rejected.increment();
+            throw new RateLimitException("Too many requests for the device " + deviceId);
+        }
+
+        TokenBucket projectBucket = bucket(projectBuckets, projectId,
+                rateLimitConf.getProjectRequestsPerSecond(), rateLimitConf.getProjectBurst(), now);
+        // The request waits for both tokens, the project token can be taken later
+        long projectWait = reserve(projectBucket, now + deviceWait, reserve, maxWait - deviceWait);
+        if (projectWait == TokenBucket.REJECTED) {
+            if (deviceBucket != null) {
+                deviceBucket.release();
+            }
+            rejected.increment();
+            throw new RateLimitException("Too many requests for the project " + projectId);
+        }
+
+        long wait = deviceWait + projectWait;
+        (wait > 0 ? queued : admitted).increment();
+        return wait;
+    }
+
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the bucket of the key, null if the rate is not limited
+     */
+    private static TokenBucket bucket(Map<String, TokenBucket> buckets, String key, double requestsPerSecond, int burst, long now) {
+        if (requestsPerSecond <= 0) {
+            return null;
+        }
+        return buckets.computeIfAbsent(key == null ? "" : key, k -> new TokenBucket(requestsPerSecond, burst, now));
+    }
+
+    private static long reserve(TokenBucket bucket, long now, int reserve, long maxWait) {
+        return bucket == null ? 0 : bucket.reserve(now, reserve, maxWait);
+    }
+}
@@ -0,0 +1,63 @@
+package com.mautini.assistant.demo.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, implemented as a generic cell rate algorithm.
+ * <p>
+ * The whole state is the theoretical arrival time of the next request (System.nanoTime): each admitted request
+ * pushes it by one interval, and a request is admitted while it is less than a burst of intervals ahead of now.
+ */
+class TokenBucket {
+
+    // Returned by reserve when the request is rejected
+    static final long REJECTED = -1;
+
+    private final long intervalNanos;
+
+    private final int burst;
+
+    private final AtomicLong theoreticalArrivalNanos;
+
+    TokenBucket(double requestsPerSecond, int burst, long nowNanos) {
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        this.burst = Math.max(1, burst);
+        this.theoreticalArrivalNanos = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Take a token, now or after a wait
+     *
+     * @param nowNanos     the current time (System.nanoTime)
+     * @param reserve      number of tokens which must stay in the bucket after this request
+     * @param maxWaitNanos the longest acceptable wait for a token
+     * @return the wait before sending the request (0 to send it now), {@link #REJECTED} if the wait is too long
+     */
+    long reserve(long nowNanos, int reserve, long maxWaitNanos) {
+        // Number of tokens which may be taken in advance
+        int slots = burst - 1 - reserve;
+        if (slots < 0) {
+            return REJECTED;
+        }
+        long tolerance = slots * intervalNanos;
+        while (true) {
+            long current = theoreticalArrivalNanos.get();
+            long arrival = Math.max(current, nowNanos);
+            long wait = Math.max(0, arrival - tolerance - nowNanos);
+            if (wait > maxWaitNanos) {
+                return REJECTED;
+            }
+            if (theoreticalArrivalNanos.compareAndSet(current, arrival + intervalNanos)) {
+                return wait;
+            }
+        }
+    }
+
+    /**
+     * Give back the token of a request which was finally not sent
+     */
+    void release() {
+        theoreticalArrivalNanos.addAndGet(-intervalNanos);
+    }
+}
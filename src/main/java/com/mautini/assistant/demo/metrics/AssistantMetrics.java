@@ -0,0 +1,67 @@
+package com.mautini.assistant.demo.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the requests to the assistant, shared by the successive assistant clients
+ */
+public class AssistantMetrics {
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder inFlight = new LongAdder();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LongAdder receivedBytes = new LongAdder();
+
+    private final LatencyHistogram responseBytes = new LatencyHistogram();
+
+    private final LatencyHistogram firstTranscriptLatency = new LatencyHistogram();
+
+    /**
+     * @return the start time of the request, to give to {@link #requestFinished(long, boolean)}
+     */
+    public long requestStarted() {
+        requests.increment();
+        inFlight.increment();
+        return System.nanoTime();
+    }
+
+    public void requestFinished(long startNanos, boolean success) {
+        inFlight.decrement();
+        if (!success) {
+            failures.increment();
+        }
+        latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * @param bytes the size of the responses of a request
+     */
+    public void responseReceived(long bytes) {
+        receivedBytes.add(bytes);
+        responseBytes.record(bytes);
+    }
+
+    /**
+     * @param latencyNanos the delay between the first audio sent and the first transcript of a spoken request
+     */
+    public void firstTranscriptReceived(long latencyNanos) {
+        firstTranscriptLatency.record(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+    }
+
+    public void register(MetricRegistry registry) {
+        registry.counter("assistant_requests_total", "Requests sent to the assistant", requests::sum);
+        registry.counter("assistant_request_failures_total", "Requests which ended with an error", failures::sum);
+        registry.gauge("assistant_requests_in_flight", "Streams currently open", inFlight::sum);
+        registry.histogram("assistant_request_latency_ms", "Duration of the requests", latency);
+        registry.counter("assistant_received_bytes_total", "Size of the responses of the assistant", receivedBytes::sum);
+        registry.histogram("assistant_response_bytes", "Size of the responses of a request", responseBytes);
+        registry.histogram("assistant_first_transcript_latency_ms", "Delay between the first audio sent and the first transcript",
+                firstTranscriptLatency);
+    }
+}
@@ -0,0 +1,127 @@
+package com.mautini.assistant.demo.metrics;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Named metrics of the client, read only when they are exported.
+ * <p>
+ * The components keep their own counters (LongAdder, atomics) and register a supplier reading them, so the hot path
+ * never goes through the registry.
+ */
+public class MetricRegistry {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private enum Type {
+        COUNTER, GAUGE, SUMMARY
+    }
+
+    private static final class Metric {
+
+        private final String name;
+
+        private final String help;
+
+        private final Type type;
+
+        // Labels of each sample, in the Prometheus syntax (e.g. state="READY"), empty for a single sample
+        private final Map<String, DoubleSupplier> samples;
+
+        private Metric(String name, String help, Type type, Map<String, DoubleSupplier> samples) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.samples = samples;
+        }
+    }
+
+    private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param name  the name of a value which only increases (e.g. assistant_requests_total)
+     * @param help  the description of the metric
+     * @param value reads the current value
+     */
+    public void counter(String name, String help, DoubleSupplier value) {
+        metrics.add(new Metric(name, help, Type.COUNTER, singleSample(value)));
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value) {
+        metrics.add(new Metric(name, help, Type.GAUGE, singleSample(value)));
+    }
+
+    /**
+     * Register a gauge with a sample for each label
+     *
+     * @param name    the name of the metric
+     * @param help    the description of the metric
+     * @param samples the value of each label (e.g. state="READY")
+     */
+    public void gauge(String name, String help, Map<String, DoubleSupplier> samples) {
+        metrics.add(new Metric(name, help, Type.GAUGE, new LinkedHashMap<>(samples)));
+    }
+
+    /**
+     * Register the quantiles, the count and the sum of a histogram
+     */
+    public void histogram(String name, String help, LatencyHistogram histogram) {
+        Map<String, DoubleSupplier> samples = new LinkedHashMap<>();
+        for (double quantile : QUANTILES) {
+            samples.put("quantile=\"" + quantile + "\"", () -> histogram.getQuantile(quantile));
+        }
+        metrics.add(new Metric(name, help, Type.SUMMARY, samples));
+        metrics.add(new Metric(name + "_count", null, null, singleSample(histogram::getCount)));
+        metrics.add(new Metric(name + "_sum", null, null, singleSample(histogram::getSum)));
+    }
+
+    /**
+     * Write all the metrics in the Prometheus text format
+     *
+     * @param out the destination
+     * @throws IOException if the destination cannot be written
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        for (Metric metric : metrics) {
+            if (metric.type != null) {
+                out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+                out.append("# TYPE ").append(metric.name).append(' ').append(metric.type.name().toLowerCase()).append('\n');
+            }
+            for (Map.Entry<String, DoubleSupplier> sample : metric.samples.entrySet()) {
+                out.append(metric.name);
+                if (!sample.getKey().isEmpty()) {
+                    out.append('{').append(sample.getKey()).append('}');
+                }
+                out.append(' ').append(format(sample.getValue().getAsDouble())).append('\n');
+            }
+        }
+    }
+
+    /**
+     * @return the value of each sample, by name (with its labels)
+     */
+    public Map<String, Double> snapshot() {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Metric metric : metrics) {
+            for (Map.Entry<String, DoubleSupplier> sample : metric.samples.entrySet()) {
+                String key = sample.getKey().isEmpty() ? metric.name : metric.name + "{" + sample.getKey() + "}";
+                values.put(key, sample.getValue().getAsDouble());
+            }
+        }
+        return values;
+    }
+
+    private static Map<String, DoubleSupplier> singleSample(DoubleSupplier value) {
+        Map<String, DoubleSupplier> samples = new LinkedHashMap<>();
+        samples.put("", value);
+        return samples;
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && !Double.isInfinite(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+}
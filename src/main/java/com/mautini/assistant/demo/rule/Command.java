@@ -0,0 +1,31 @@
+package com.mautini.assistant.demo.rule;
+
+/**
+ * Action of a rule: a text command sent to the assistant to set the state of a device
+ */
+public class Command {
+
+    private final String device;
+
+    private final String state;
+
+    private final String text;
+
+    public Command(String device, String state, String text) {
+        this.device = device;
+        this.state = state;
+        this.text = text;
+    }
+
+    public String getDevice() {
+        return device;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,68 @@
+package com.mautini.assistant.demo.rule;
+
+import com.mautini.assistant.demo.device.DeviceStateCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Send the commands of the rules, unless the device is already in the commanded state
+ */
+public class CommandDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CommandDispatcher.class);
+
+    private final DeviceStateCache deviceStateCache;
+
+    private final LongAdder sentCommands = new LongAdder();
+
+    private final LongAdder suppressedCommands = new LongAdder();
+
+    public CommandDispatcher(DeviceStateCache deviceStateCache) {
+        this.deviceStateCache = deviceStateCache;
+    }
+
+    public DeviceStateCache getDeviceStateCache() {
+        return deviceStateCache;
+    }
+
+    /**
+     * Send a command if it changes the state of its device
+     *
+     * @param command   the command
+     * @param assistant sends a text query to the assistant and returns its answer
+     * @return the answer of the assistant, empty if the command was suppressed
+     */
+    public Optional<CompletableFuture<String>> dispatch(Command command, Function<String, CompletableFuture<String>> assistant) {
+        Optional<String> state = deviceStateCache.getState(command.getDevice());
+        if (state.isPresent() && state.get().equalsIgnoreCase(command.getState())) {
+            LOGGER.info("{} is already {}, not sending {}", command.getDevice(), command.getState(), command.getText());
+            suppressedCommands.increment();
+            return Optional.empty();
+        }
+
+        sentCommands.increment();
+        deviceStateCache.recordCommandedState(command.getDevice(), command.getState());
+        return Optional.of(assistant.apply(command.getText()).whenComplete((answer, error) -> {
+            if (error != null) {
+                // Not sent (e.g. rate limited), the next run may send it again
+                deviceStateCache.clearCommandedState(command.getDevice(), command.getState());
+            } else if (answer != null) {
+                // The assistant acknowledged the command
+                deviceStateCache.recordKnownState(command.getDevice(), command.getState());
+            }
+        }));
+    }
+
+    public long getSentCount() {
+        return sentCommands.sum();
+    }
+
+    public long getSuppressedCount() {
+        return suppressedCommands.sum();
+    }
+}
@@ -0,0 +1,21 @@
+package com.mautini.assistant.demo.rule;
+
+/**
+ * A condition of a rule, see reference.conf for the available types
+ */
+public interface Condition {
+
+    /**
+     * @return the query to send to the assistant to evaluate this condition, null if the condition is evaluated
+     * locally (time, sun, device state)
+     */
+    default String getQuery() {
+        return null;
+    }
+
+    /**
+     * @param context the inputs of the current evaluation
+     * @return true if the condition holds
+     */
+    boolean test(RuleContext context);
+}
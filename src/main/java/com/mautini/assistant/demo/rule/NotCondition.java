@@ -0,0 +1,23 @@
+package com.mautini.assistant.demo.rule;
+
+/**
+ * Negation of a condition (negate: true in the configuration)
+ */
+public class NotCondition implements Condition {
+
+    private final Condition condition;
+
+    public NotCondition(Condition condition) {
+        this.condition = condition;
+    }
+
+    @Override
+    public String getQuery() {
+        return condition.getQuery();
+    }
+
+    @Override
+    public boolean test(RuleContext context) {
+        return !condition.test(context);
+    }
+}
@@ -0,0 +1,27 @@
+package com.mautini.assistant.demo.rule;
+
+/**
+ * Holds if the answer of the assistant to a query contains a text (case insensitive)
+ */
+public class QueryCondition implements Condition {
+
+    private final String query;
+
+    private final String contains;
+
+    public QueryCondition(String query, String contains) {
+        this.query = query;
+        this.contains = contains.toLowerCase();
+    }
+
+    @Override
+    public String getQuery() {
+        return query;
+    }
+
+    @Override
+    public boolean test(RuleContext context) {
+        String answer = context.getAnswer(query);
+        return answer != null && answer.toLowerCase().contains(contains);
+    }
+}
@@ -0,0 +1,109 @@
+package com.mautini.assistant.demo.rule;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A compiled rule: when all the conditions hold, the command is sent.
+ * <p>
+ * The result of each condition is an input of the rule, stored as a bit. The rule keeps the inputs of its last
+ * evaluation so the engine only acts when they changed.
+ */
+public class Rule {
+
+    // A rule input is a bit of a long
+    public static final int MAX_CONDITIONS = 63;
+
+    private final String name;
+
+    private final List<Condition> conditions;
+
+    private final Command command;
+
+    // Queries needed by the conditions
+    private final Set<String> queries = new LinkedHashSet<>();
+
+    // Bits of the conditions evaluated locally, and of all the conditions
+    private final long localMask;
+
+    private final long allMask;
+
+    private boolean evaluated = false;
+
+    private long lastInputs;
+
+    public Rule(String name, List<Condition> conditions, Command command) {
+        this.name = name;
+        this.conditions = conditions;
+        this.command = command;
+
+        long local = 0;
+        for (int i = 0; i < conditions.size(); i++) {
+            String query = conditions.get(i).getQuery();
+            if (query == null) {
+                local |= 1L << i;
+            } else {
+                queries.add(query);
+            }
+        }
+        localMask = local;
+        allMask = (1L << conditions.size()) - 1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Command getCommand() {
+        return command;
+    }
+
+    public Set<String> getQueries() {
+        return queries;
+    }
+
+    /**
+     * Evaluate the conditions
+     *
+     * @param context the inputs of the evaluation
+     * @param local   true to only evaluate the local conditions (the bits of the queries stay unset)
+     * @return the inputs of the rule
+     */
+    long evaluate(RuleContext context, boolean local) {
+        long inputs = 0;
+        for (int i = 0; i < conditions.size(); i++) {
+            if ((!local || (localMask & (1L << i)) != 0) && conditions.get(i).test(context)) {
+                inputs |= 1L << i;
+            }
+        }
+        return inputs;
+    }
+
+    boolean localConditionsHold(long inputs) {
+        return (inputs & localMask) == localMask;
+    }
+
+    boolean holds(long inputs) {
+        return inputs == allMask;
+    }
+
+    /**
+     * Store the inputs of the evaluation
+     *
+     * @return true if they changed since the last evaluation
+     */
+    boolean update(long inputs) {
+        boolean changed = !evaluated || inputs != lastInputs;
+        evaluated = true;
+        lastInputs = inputs;
+        return changed;
+    }
+
+    /**
+     * Forget the inputs of the last evaluation, the next evaluation is a change (e.g. its command was not sent)
+     */
+    void reset() {
+        evaluated = false;
+    }
+}
@@ -0,0 +1,38 @@
+package com.mautini.assistant.demo.rule;
+
+import com.mautini.assistant.demo.device.DeviceStateCache;
+
+import java.time.ZonedDateTime;
+import java.util.Map;
+
+/**
+ * Inputs of an evaluation of the rules
+ */
+public class RuleContext {
+
+    private final ZonedDateTime now;
+
+    // Answers of the assistant, by query
+    private final Map<String, String> answers;
+
+    // Last known or commanded state of the devices
+    private final DeviceStateCache deviceStateCache;
+
+    public RuleContext(ZonedDateTime now, Map<String, String> answers, DeviceStateCache deviceStateCache) {
+        this.now = now;
+        this.answers = answers;
+        this.deviceStateCache = deviceStateCache;
+    }
+
+    public ZonedDateTime getNow() {
+        return now;
+    }
+
+    public String getAnswer(String query) {
+        return answers.get(query);
+    }
+
+    public String getDeviceState(String device) {
+        return deviceStateCache.getState(device).orElse(null);
+    }
+}
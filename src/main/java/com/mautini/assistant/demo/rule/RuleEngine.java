@@ -0,0 +1,262 @@
+package com.mautini.assistant.demo.rule;
+
+import com.mautini.assistant.demo.exception.RateLimitException;
+import com.mautini.assistant.demo.sun.SunEvent;
+import com.mautini.assistant.demo.sun.SunEventService;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Evaluate the rules of the configuration (see the rules section in reference.conf) on each scheduled run.
+ * <p>
+ * The rules are compiled once. On each tick the local conditions (time window, sun, device state) are evaluated
+ * first, the queries of the rules whose local conditions hold are sent concurrently (once per distinct query), then
+ * the command of a rule is sent only if its inputs changed since the previous tick and all its conditions hold, and
+ * the {@link CommandDispatcher} drops it if the device is already in the commanded state. If the command fails, the
+ * rule forgets its inputs so the next tick sends it again.
+ */
+public class RuleEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RuleEngine.class);
+
+    private final List<Rule> rules;
+
+    // Id of the location (the home) of the rules
+    private final String locationId;
+
+    // Time zone of the location, used for the time windows and the sun events
+    private final ZoneId zoneId;
+
+    // Sends the commands and keeps the state of the devices
+    private final CommandDispatcher commandDispatcher;
+
+    public RuleEngine(List<Rule> rules, String locationId, ZoneId zoneId, CommandDispatcher commandDispatcher) {
+        this.rules = rules;
+        this.locationId = locationId;
+        this.zoneId = zoneId;
+        this.commandDispatcher = commandDispatcher;
+    }
+
+    /**
+     * Compile the rules of the configuration
+     *
+     * @param config            the rules section of the configuration
+     * @param sunEventService   the service providing the sun events, the location of the rules is added to it
+     * @param commandDispatcher sends the commands of the rules
+     * @return the engine
+     * @throws ConfigException if a rule is invalid
+     */
+    public static RuleEngine fromConfig(Config config, SunEventService sunEventService, CommandDispatcher commandDispatcher) {
+        Config location = config.getConfig("location");
+        String locationId = location.getString("id");
+        ZoneId zoneId = ZoneId.of(location.getString("timeZone"));
+        sunEventService.addLocation(locationId, location.getString("latitude"), location.getString("longitude"), zoneId);
+
+        List<Rule> rules = new ArrayList<>();
+        for (Config ruleConfig : config.getConfigList("list")) {
+            String name = ruleConfig.getString("name");
+            List<Condition> conditions = new ArrayList<>();
+            for (Config conditionConfig : ruleConfig.getConfigList("when")) {
+                conditions.add(compileCondition(conditionConfig, sunEventService, locationId));
+            }
+            if (conditions.size() > Rule.MAX_CONDITIONS) {
+                throw new ConfigException.BadValue(ruleConfig.origin(), "when", "At most " + Rule.MAX_CONDITIONS + " conditions");
+            }
+            Config then = ruleConfig.getConfig("then");
+            rules.add(new Rule(name, conditions,
+                    new Command(then.getString("device"), then.getString("state"), then.getString("command"))));
+        }
+        LOGGER.info("Compiled {} rules", rules.size());
+        return new RuleEngine(rules, locationId, zoneId, commandDispatcher);
+    }
+
+    private static Condition compileCondition(Config config, SunEventService sunEventService, String locationId) {
+        Condition condition;
+        String type = config.getString("type");
+        switch (type) {
+            case "window":
+                condition = new TimeWindowCondition(LocalTime.parse(config.getString("from")), LocalTime.parse(config.getString("to")));
+                break;
+            case "sun":
+                Duration offset = config.hasPath("offset") ? config.getDuration("offset") : Duration.ZERO;
+                boolean after = config.hasPath("after");
+                SunEvent event = config.getEnum(SunEvent.class, after ? "after" : "before");
+                condition = new SunCondition(event, offset, after, sunEventService, locationId);
+                break;
+            case "query":
+                condition = new QueryCondition(config.getString("query"), config.getString("contains"));
+                break;
+            case "state":
+                condition = new StateCondition(config.getString("device"), config.getString("state"));
+                break;
+            default:
+                throw new ConfigException.BadValue(config.origin(), "type", "Unknown condition type " + type);
+        }
+        if (config.hasPath("negate") && config.getBoolean("negate")) {
+            condition = new NotCondition(condition);
+        }
+        return condition;
+    }
+
+    public String getLocationId() {
+        return locationId;
+    }
+
+    public ZoneId getZoneId() {
+        return zoneId;
+    }
+
+    public CommandDispatcher getCommandDispatcher() {
+        return commandDispatcher;
+    }
+
+    /**
+     * Evaluate the rules and send the commands
+     *
+     * @param now       the time of the evaluation
+     * @param assistant sends a text query to the assistant and returns its answer
+     * @return the number of rules skipped because an answer is missing
+     */
+    public int tick(Instant now, Function<String, CompletableFuture<String>> assistant) throws InterruptedException {
+        return decide(evaluateLocal(now), assistant);
+    }
+
+    /**
+     * First stage of a tick: evaluate the local conditions (time window, sun, device state), without the assistant
+     *
+     * @param now the time of the evaluation
+     * @return the rules whose local conditions hold and the queries they need
+     */
+    public Evaluation evaluateLocal(Instant now) {
+        RuleContext localContext = new RuleContext(now.atZone(zoneId), new HashMap<>(), commandDispatcher.getDeviceStateCache());
+
+        // The local conditions are cheap, the queries are only sent for the rules they do not already reject
+        List<Rule> candidates = new ArrayList<>();
+        Set<String> queries = new LinkedHashSet<>();
+        for (Rule rule : rules) {
+            long localInputs = rule.evaluate(localContext, true);
+            if (rule.localConditionsHold(localInputs)) {
+                candidates.add(rule);
+                queries.addAll(rule.getQueries());
+            } else if (rule.update(localInputs)) {
+                LOGGER.info("Rule {} does not hold", rule.getName());
+            }
+        }
+        return new Evaluation(localContext.getNow(), candidates, queries);
+    }
+
+    /**
+     * Second stage of a tick: send the queries (once per distinct query), evaluate the remaining rules and send the
+     * commands. Nothing is sent to the assistant if {@link Evaluation#needsAssistant()} is false.
+     *
+     * @param evaluation the result of {@link #evaluateLocal(Instant)}
+     * @param assistant  sends a text query to the assistant and returns its answer
+     * @return the number of rules skipped because an answer is missing (failed, rejected by the rate limiter or
+     * without text), they are evaluated again on the next tick
+     */
+    public int decide(Evaluation evaluation, Function<String, CompletableFuture<String>> assistant) throws InterruptedException {
+        Map<String, CompletableFuture<String>> pendingAnswers = new LinkedHashMap<>();
+        evaluation.queries.forEach(query -> pendingAnswers.put(query, assistant.apply(query)));
+
+        Map<String, String> answers = new HashMap<>();
+        for (Map.Entry<String, CompletableFuture<String>> pendingAnswer : pendingAnswers.entrySet()) {
+            try {
+                String answer = pendingAnswer.getValue().get();
+                LOGGER.info("{} : {}", pendingAnswer.getKey(), answer);
+                if (answer != null) {
+                    answers.put(pendingAnswer.getKey(), answer);
+                } else {
+                    // Unknown, not a negative answer (a negated condition would hold)
+                    LOGGER.warn("The answer of {} has no text", pendingAnswer.getKey());
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RateLimitException) {
+                    LOGGER.warn("Not polling {}: {}", pendingAnswer.getKey(), e.getCause().getMessage());
+                } else {
+                    LOGGER.warn("Unable to get the answer of {}", pendingAnswer.getKey(), e.getCause());
+                }
+            }
+        }
+
+        RuleContext context = new RuleContext(evaluation.now, answers, commandDispatcher.getDeviceStateCache());
+        Map<Rule, CompletableFuture<String>> sentCommands = new LinkedHashMap<>();
+        int skippedRules = 0;
+        for (Rule rule : evaluation.candidates) {
+            if (!answers.keySet().containsAll(rule.getQueries())) {
+                LOGGER.warn("Skipping rule {}, some answers are missing", rule.getName());
+                skippedRules++;
+                continue;
+            }
+            long inputs = rule.evaluate(context, false);
+            if (!rule.update(inputs)) {
+                LOGGER.debug("Inputs of rule {} did not change", rule.getName());
+                continue;
+            }
+            if (rule.holds(inputs)) {
+                LOGGER.info("Rule {} holds", rule.getName());
+                commandDispatcher.dispatch(rule.getCommand(), assistant)
+                        .ifPresent(answer -> sentCommands.put(rule, answer));
+            } else {
+                LOGGER.info("Rule {} does not hold", rule.getName());
+            }
+        }
+
+        for (Map.Entry<Rule, CompletableFuture<String>> sentCommand : sentCommands.entrySet()) {
+            Command command = sentCommand.getKey().getCommand();
+            try {
+                LOGGER.info("{} : {}", command.getText(), sentCommand.getValue().get());
+            } catch (ExecutionException e) {
+                LOGGER.warn("Unable to send {}, retrying on the next run", command.getText(), e.getCause());
+                sentCommand.getKey().reset();
+            }
+        }
+        return skippedRules;
+    }
+
+    /**
+     * Result of the local stage of a tick
+     */
+    public static final class Evaluation {
+
+        private final ZonedDateTime now;
+
+        private final List<Rule> candidates;
+
+        private final Set<String> queries;
+
+        private Evaluation(ZonedDateTime now, List<Rule> candidates, Set<String> queries) {
+            this.now = now;
+            this.candidates = candidates;
+            this.queries = queries;
+        }
+
+        public Set<String> getQueries() {
+            return queries;
+        }
+
+        /**
+         * @return false if the local conditions already reject all the rules, no query or command will be sent
+         */
+        public boolean needsAssistant() {
+            return !candidates.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.mautini.assistant.demo.rule;
+
+/**
+ * Holds if the last known or commanded state of a device (see DeviceStateCache) is the expected one
+ */
+public class StateCondition implements Condition {
+
+    private final String device;
+
+    private final String state;
+
+    public StateCondition(String device, String state) {
+        this.device = device;
+        this.state = state;
+    }
+
+    @Override
+    public boolean test(RuleContext context) {
+        return state.equalsIgnoreCase(context.getDeviceState(device));
+    }
+}
@@ -0,0 +1,43 @@
+package com.mautini.assistant.demo.rule;
+
+import com.mautini.assistant.demo.sun.SunEvent;
+import com.mautini.assistant.demo.sun.SunEventService;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+
+/**
+ * Holds after (or before) a sun event of the current day, shifted by an offset
+ */
+public class SunCondition implements Condition {
+
+    private final SunEvent event;
+
+    private final long offsetSeconds;
+
+    // True to hold after the event, false to hold before
+    private final boolean after;
+
+    private final SunEventService sunEventService;
+
+    private final String locationId;
+
+    public SunCondition(SunEvent event, Duration offset, boolean after, SunEventService sunEventService, String locationId) {
+        this.event = event;
+        this.offsetSeconds = offset.getSeconds();
+        this.after = after;
+        this.sunEventService = sunEventService;
+        this.locationId = locationId;
+    }
+
+    @Override
+    public boolean test(RuleContext context) {
+        ZonedDateTime now = context.getNow();
+        long eventTime = sunEventService.getEventEpochSecond(locationId, event, now.toLocalDate());
+        if (eventTime == SunEventService.NO_EVENT) {
+            return false;
+        }
+        long limit = eventTime + offsetSeconds;
+        return after ? now.toEpochSecond() > limit : now.toEpochSecond() < limit;
+    }
+}
@@ -0,0 +1,27 @@
+package com.mautini.assistant.demo.rule;
+
+import java.time.LocalTime;
+
+/**
+ * Holds between two local times, the window can end the next day (e.g. 22:00 - 02:00)
+ */
+public class TimeWindowCondition implements Condition {
+
+    private final LocalTime from;
+
+    private final LocalTime to;
+
+    public TimeWindowCondition(LocalTime from, LocalTime to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public boolean test(RuleContext context) {
+        LocalTime time = context.getNow().toLocalTime();
+        if (from.isAfter(to)) {
+            return !time.isBefore(from) || time.isBefore(to);
+        }
+        return !time.isBefore(from) && time.isBefore(to);
+    }
+}
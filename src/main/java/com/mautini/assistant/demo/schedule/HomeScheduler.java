@@ -0,0 +1,233 @@
+package com.mautini.assistant.demo.schedule;
+
+import com.mautini.assistant.demo.config.SchedulerConf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Run a periodic job for each home.
+ * <p>
+ * The jobs are stored in a {@link TimingWheel}. The first run of a home is shifted by an offset derived from its id,
+ * so the jobs of thousands of homes with the same period are spread over the whole period instead of all hitting the
+ * assistant api at the same time. The jobs run on a bounded worker pool, a run is skipped if the previous run of
+ * the same home is still in progress or if the pool is saturated.
+ * <p>
+ * The scheduler is driven by {@link #advance()}, called by the thread started with {@link #start()} or manually
+ * with a {@link VirtualClock}.
+ */
+public class HomeScheduler implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HomeScheduler.class);
+
+    private final SchedulerClock clock;
+
+    private final long tickMs;
+
+    private final Executor workers;
+
+    private final TimingWheel wheel;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    private volatile Thread driver;
+
+    // Schedule lag: delay between the deadline of a run and its start
+    private final LongAdder runs = new LongAdder();
+
+    private final LongAdder skippedRuns = new LongAdder();
+
+    private final LongAdder totalLagMs = new LongAdder();
+
+    private final AtomicLong maxLagMs = new AtomicLong();
+
+    public HomeScheduler(SchedulerConf schedulerConf, SchedulerClock clock) {
+        this(schedulerConf.getTickMs(), clock, new ThreadPoolExecutor(
+                schedulerConf.getWorkerThreads(), schedulerConf.getWorkerThreads(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(schedulerConf.getQueueCapacity())));
+    }
+
+    /**
+     * @param tickMs  precision of the scheduler
+     * @param clock   the source of time
+     * @param workers the executor running the jobs (e.g. Runnable::run to run them in the caller of advance)
+     */
+    public HomeScheduler(long tickMs, SchedulerClock clock, Executor workers) {
+        this.clock = clock;
+        this.tickMs = tickMs;
+        this.workers = workers;
+        this.wheel = new TimingWheel(tickMs, clock.currentTimeMillis());
+    }
+
+    /**
+     * Schedule the periodic job of a home, replacing its previous job
+     *
+     * @param homeId   the id of the home
+     * @param periodMs the period of the job
+     * @param job      the job to run
+     */
+    public void schedule(String homeId, long periodMs, Runnable job) {
+        long now = clock.currentTimeMillis();
+        // The same home always runs at the same offset in the period
+        long offset = Math.floorMod(homeId.hashCode() * 0x9E3779B97F4A7C15L, periodMs);
+        long deadline = Math.floorDiv(now, periodMs) * periodMs + offset;
+        if (deadline <= now) {
+            deadline += periodMs;
+        }
+
+        Job newJob = new Job(homeId, periodMs, job);
+        newJob.deadlineMs = deadline;
+        synchronized (wheel) {
+            Job previous = jobs.put(homeId, newJob);
+            if (previous != null) {
+                wheel.remove(previous);
+            }
+            wheel.add(newJob, this::dispatch);
+        }
+    }
+
+    /**
+     * Stop running the job of a home
+     *
+     * @param homeId the id of the home
+     */
+    public void cancel(String homeId) {
+        synchronized (wheel) {
+            Job job = jobs.remove(homeId);
+            if (job != null) {
+                wheel.remove(job);
+            }
+        }
+    }
+
+    public int getJobCount() {
+        return jobs.size();
+    }
+
+    /**
+     * Dispatch the jobs whose deadline is reached to the workers
+     */
+    public void advance() {
+        synchronized (wheel) {
+            wheel.advance(clock.currentTimeMillis(), this::dispatch);
+        }
+    }
+
+    /**
+     * Start a thread advancing the scheduler at each tick
+     */
+    public synchronized void start() {
+        if (driver != null) {
+            return;
+        }
+        driver = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    advance();
+                    long now = clock.currentTimeMillis();
+                    Thread.sleep(tickMs - Math.floorMod(now, tickMs));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error in the scheduler", e);
+                }
+            }
+        }, "home-scheduler");
+        driver.setDaemon(true);
+        driver.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (driver != null) {
+            driver.interrupt();
+            driver = null;
+        }
+        if (workers instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) workers).shutdown();
+        }
+    }
+
+    public long getRunCount() {
+        return runs.sum();
+    }
+
+    public long getSkippedRunCount() {
+        return skippedRuns.sum();
+    }
+
+    public long getMaxLagMs() {
+        return maxLagMs.get();
+    }
+
+    public long getAverageLagMs() {
+        long count = runs.sum();
+        return count == 0 ? 0 : totalLagMs.sum() / count;
+    }
+
+    /**
+     * Called (under the wheel lock) when the deadline of a job is reached
+     */
+    private void dispatch(TimingWheel.Timer timer) {
+        Job job = (Job) timer;
+        long deadline = job.deadlineMs;
+
+        // Schedule the next run first, at a fixed rate
+        job.deadlineMs = deadline + job.periodMs;
+        wheel.add(job, this::dispatch);
+
+        if (!job.running.compareAndSet(false, true)) {
+            LOGGER.warn("Previous run of {} still in progress, skipping this run", job.homeId);
+            skippedRuns.increment();
+            return;
+        }
+        try {
+            workers.execute(() -> run(job, deadline));
+        } catch (RejectedExecutionException e) {
+            job.running.set(false);
+            LOGGER.warn("Workers saturated, skipping the run of {}", job.homeId);
+            skippedRuns.increment();
+        }
+    }
+
+    private void run(Job job, long deadline) {
+        long lag = Math.max(0, clock.currentTimeMillis() - deadline);
+        runs.increment();
+        totalLagMs.add(lag);
+        maxLagMs.accumulateAndGet(lag, Math::max);
+        try {
+            job.job.run();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Error in the job of {}", job.homeId, e);
+        } finally {
+            job.running.set(false);
+        }
+    }
+
+    private static final class Job extends TimingWheel.Timer {
+
+        private final String homeId;
+
+        private final long periodMs;
+
+        private final Runnable job;
+
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        private Job(String homeId, long periodMs, Runnable job) {
+            this.homeId = homeId;
+            this.periodMs = periodMs;
+            this.job = job;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.mautini.assistant.demo.schedule;
+
+/**
+ * Source of time of the scheduler, replaced by a {@link VirtualClock} to drive the scheduler manually
+ */
+public interface SchedulerClock {
+
+    SchedulerClock SYSTEM = System::currentTimeMillis;
+
+    long currentTimeMillis();
+}
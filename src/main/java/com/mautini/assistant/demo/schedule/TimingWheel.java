@@ -0,0 +1,136 @@
+package com.mautini.assistant.demo.schedule;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel (Varghese and Lauck).
+ * <p>
+ * Each level has 64 slots, a slot of the first level lasts one tick and a slot of the next level lasts as long as a
+ * whole turn of the previous one. A timer is stored in the level matching its remaining delay and moved down a level
+ * each time its slot comes, so adding, cancelling and expiring a timer are O(1) whatever the number of timers.
+ * <p>
+ * Not thread safe, the owner must synchronize the calls.
+ */
+class TimingWheel {
+
+    private static final int SLOT_BITS = 6;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    // 4 levels cover 64^4 ticks (194 days with ticks of a second), longer delays stay in the last level
+    private static final int LEVELS = 4;
+
+    private final long tickMs;
+
+    // Sentinel of the circular linked list of each slot
+    private final Timer[][] slots = new Timer[LEVELS][SLOTS];
+
+    // Last tick processed
+    private long currentTick;
+
+    private int size;
+
+    TimingWheel(long tickMs, long startTimeMs) {
+        this.tickMs = tickMs;
+        this.currentTick = startTimeMs / tickMs;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                Timer sentinel = new Timer();
+                sentinel.next = sentinel;
+                sentinel.previous = sentinel;
+                slots[level][slot] = sentinel;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Add a timer
+     *
+     * @param timer   the timer, its deadline must be set
+     * @param expired called immediately if the deadline is already reached
+     */
+    void add(Timer timer, Consumer<Timer> expired) {
+        long deadlineTick = timer.deadlineMs / tickMs;
+        long delay = deadlineTick - currentTick;
+        if (delay <= 0) {
+            expired.accept(timer);
+            return;
+        }
+
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        Timer sentinel = slots[level][(int) (deadlineTick >>> (SLOT_BITS * level)) & SLOT_MASK];
+        timer.previous = sentinel.previous;
+        timer.next = sentinel;
+        sentinel.previous.next = timer;
+        sentinel.previous = timer;
+        size++;
+    }
+
+    /**
+     * Remove a timer added to the wheel, does nothing if it already expired
+     */
+    void remove(Timer timer) {
+        if (timer.next != null) {
+            timer.previous.next = timer.next;
+            timer.next.previous = timer.previous;
+            timer.next = null;
+            timer.previous = null;
+            size--;
+        }
+    }
+
+    /**
+     * Process all the ticks up to a time
+     *
+     * @param timeMs  the current time
+     * @param expired called for each timer whose deadline is reached
+     */
+    void advance(long timeMs, Consumer<Timer> expired) {
+        long targetTick = timeMs / tickMs;
+        while (currentTick < targetTick) {
+            currentTick++;
+            // When a level completes a turn, the timers of the current slot of the next level move down
+            for (int level = 1; level < LEVELS && (currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0; level++) {
+                Timer sentinel = slots[level][(int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK];
+                drain(sentinel, timer -> add(timer, expired));
+            }
+            drain(slots[0][(int) currentTick & SLOT_MASK], expired);
+        }
+    }
+
+    private void drain(Timer sentinel, Consumer<Timer> consumer) {
+        Timer timer = sentinel.next;
+        // Detach the list first, the consumer can add timers in this slot again
+        sentinel.next = sentinel;
+        sentinel.previous = sentinel;
+        while (timer != sentinel) {
+            Timer next = timer.next;
+            timer.next = null;
+            timer.previous = null;
+            size--;
+            consumer.accept(timer);
+            timer = next;
+        }
+    }
+
+    /**
+     * A timer, linked in the list of its slot
+     */
+    static class Timer {
+
+        long deadlineMs;
+
+        private Timer next;
+
+        private Timer previous;
+    }
+}
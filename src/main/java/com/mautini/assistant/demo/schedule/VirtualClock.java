@@ -0,0 +1,24 @@
+package com.mautini.assistant.demo.schedule;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A clock that only moves when asked to, to simulate hours of scheduling instantly
+ */
+public class VirtualClock implements SchedulerClock {
+
+    private final AtomicLong currentTimeMillis;
+
+    public VirtualClock(long startTimeMillis) {
+        this.currentTimeMillis = new AtomicLong(startTimeMillis);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return currentTimeMillis.get();
+    }
+
+    public void advance(long millis) {
+        currentTimeMillis.addAndGet(millis);
+    }
+}
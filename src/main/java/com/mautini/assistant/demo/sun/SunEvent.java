@@ -0,0 +1,39 @@
+package com.mautini.assistant.demo.sun;
+
+import com.luckycatlabs.sunrisesunset.SunriseSunsetCalculator;
+
+import java.util.Calendar;
+
+/**
+ * Sun events usable in the rules
+ */
+public enum SunEvent {
+
+    SUNRISE,
+
+    SUNSET,
+
+    CIVIL_SUNRISE,
+
+    CIVIL_SUNSET;
+
+    /**
+     * Compute the time of this event
+     *
+     * @param calculator the calculator for the location
+     * @param date       the date of the event
+     * @return the time of the event, null if it does not happen this day (polar day or night)
+     */
+    public Calendar compute(SunriseSunsetCalculator calculator, Calendar date) {
+        switch (this) {
+            case SUNRISE:
+                return calculator.getOfficialSunriseCalendarForDate(date);
+            case SUNSET:
+                return calculator.getOfficialSunsetCalendarForDate(date);
+            case CIVIL_SUNRISE:
+                return calculator.getCivilSunriseCalendarForDate(date);
+            default:
+                return calculator.getCivilSunsetCalendarForDate(date);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.mautini.assistant.demo.sun;
+
+import com.luckycatlabs.sunrisesunset.SunriseSunsetCalculator;
+import com.luckycatlabs.sunrisesunset.dto.Location;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sun events of many locations, precomputed for a rolling window of days.
+ * <p>
+ * Each location holds a table of primitive ints (the time of the 4 events of each day of the window), so a lookup
+ * does not allocate and does not run the (slow) sun computation. When a lookup falls outside the window, the window
+ * is moved to start the day before the looked up date: the days already computed are copied and only the new days
+ * are computed.
+ */
+public class SunEventService {
+
+    // Returned when the event does not happen this day (polar day or night)
+    public static final long NO_EVENT = Long.MIN_VALUE;
+
+    private static final int EVENT_COUNT = SunEvent.values().length;
+
+    private static final int NO_EVENT_OFFSET = Integer.MIN_VALUE;
+
+    // Number of days of the window of each location: the day before the looked up date, then windowDays days
+    private final int windowDays;
+
+    private final Map<String, LocationTable> tables = new ConcurrentHashMap<>();
+
+    /**
+     * @param windowDays the number of days computed from a looked up date, at least 1
+     * @throws IllegalArgumentException if windowDays is less than 1
+     */
+    public SunEventService(int windowDays) {
+        if (windowDays < 1) {
+            throw new IllegalArgumentException("sun.windowDays must be at least 1, not " + windowDays);
+        }
+        this.windowDays = windowDays + 1;
+    }
+
+    /**
+     * Add (or replace) a location, its table is computed on the first lookup
+     *
+     * @param locationId the id used for the lookups
+     * @param latitude   the latitude of the location
+     * @param longitude  the longitude of the location
+     * @param zoneId     the time zone of the location
+     */
+    public void addLocation(String locationId, String latitude, String longitude, ZoneId zoneId) {
+        tables.put(locationId, new LocationTable(
+                new SunriseSunsetCalculator(new Location(latitude, longitude), zoneId.getId()), zoneId));
+    }
+
+    public int getLocationCount() {
+        return tables.size();
+    }
+
+    /**
+     * Get the time of a sun event
+     *
+     * @param locationId the id of the location
+     * @param event      the sun event
+     * @param date       the local date of the event
+     * @return the epoch second of the event, {@link #NO_EVENT} if it does not happen this day
+     * @throws IllegalArgumentException if the location is unknown
+     */
+    public long getEventEpochSecond(String locationId, SunEvent event, LocalDate date) {
+        LocationTable table = tables.get(locationId);
+        if (table == null) {
+            throw new IllegalArgumentException("Unknown location " + locationId);
+        }
+
+        long epochDay = date.toEpochDay();
+        Window window = table.window;
+        if (window == null || epochDay < window.firstEpochDay || epochDay >= window.firstEpochDay + windowDays) {
+            window = table.moveWindow(epochDay, windowDays);
+        }
+
+        int offset = window.events[(int) (epochDay - window.firstEpochDay) * EVENT_COUNT + event.ordinal()];
+        return offset == NO_EVENT_OFFSET ? NO_EVENT : window.baseEpochSecond + offset;
+    }
+
+    /**
+     * The events of a location for a window of days, never modified once published
+     */
+    private static final class Window {
+
+        private final long firstEpochDay;
+
+        // The events are stored as seconds from this epoch second (the first day at 00:00 UTC)
+        private final long baseEpochSecond;
+
+        private final int[] events;
+
+        private Window(long firstEpochDay, int[] events) {
+            this.firstEpochDay = firstEpochDay;
+            this.baseEpochSecond = firstEpochDay * 86400;
+            this.events = events;
+        }
+    }
+
+    private static final class LocationTable {
+
+        private final SunriseSunsetCalculator calculator;
+
+        private final ZoneId zoneId;
+
+        private volatile Window window;
+
+        private LocationTable(SunriseSunsetCalculator calculator, ZoneId zoneId) {
+            this.calculator = calculator;
+            this.zoneId = zoneId;
+        }
+
+        private synchronized Window moveWindow(long epochDay, int windowDays) {
+            Window previous = window;
+            if (previous != null && epochDay >= previous.firstEpochDay && epochDay < previous.firstEpochDay + windowDays) {
+                // Already moved by another thread
+                return previous;
+            }
+
+            // Keep the previous day for the lookups just after midnight
+            Window next = new Window(epochDay - 1, new int[windowDays * EVENT_COUNT]);
+            for (int day = 0; day < windowDays; day++) {
+                long nextDay = next.firstEpochDay + day;
+                if (previous != null && nextDay >= previous.firstEpochDay && nextDay < previous.firstEpochDay + windowDays) {
+                    int previousDay = (int) (nextDay - previous.firstEpochDay);
+                    for (int event = 0; event < EVENT_COUNT; event++) {
+                        int offset = previous.events[previousDay * EVENT_COUNT + event];
+                        next.events[day * EVENT_COUNT + event] = offset == NO_EVENT_OFFSET
+                                ? NO_EVENT_OFFSET : (int) (previous.baseEpochSecond + offset - next.baseEpochSecond);
+                    }
+                } else {
+                    computeDay(next, day);
+                }
+            }
+            window = next;
+            return next;
+        }
+
+        private void computeDay(Window window, int day) {
+            Calendar date = GregorianCalendar.from(LocalDate.ofEpochDay(window.firstEpochDay + day).atStartOfDay(zoneId));
+            for (SunEvent event : SunEvent.values()) {
+                Calendar time = event.compute(calculator, date);
+                window.events[day * EVENT_COUNT + event.ordinal()] = time == null
+                        ? NO_EVENT_OFFSET : (int) (time.getTimeInMillis() / 1000 - window.baseEpochSecond);
+            }
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package com.mautini.assistant.demo.api;
+
+import com.google.assistant.embedded.v1alpha2.AssistRequest;
+import com.google.assistant.embedded.v1alpha2.AssistResponse;
+import com.google.assistant.embedded.v1alpha2.AudioOut;
+import com.google.assistant.embedded.v1alpha2.DialogStateOut;
+import com.google.assistant.embedded.v1alpha2.EmbeddedAssistantGrpc;
+import com.google.assistant.embedded.v1alpha2.SpeechRecognitionResult;
+import com.google.protobuf.ByteString;
+import com.mautini.assistant.demo.authentication.OAuthCredentials;
+import com.mautini.assistant.demo.client.audio.AudioOutput;
+import com.mautini.assistant.demo.client.audio.AudioSink;
+import com.mautini.assistant.demo.config.AssistantConf;
+import com.mautini.assistant.demo.config.IoConf;
+import com.mautini.assistant.demo.device.Device;
+import com.mautini.assistant.demo.device.DeviceModel;
+import com.mautini.assistant.demo.limit.Priority;
+import com.mautini.assistant.demo.limit.RateLimiter;
+import com.mautini.assistant.demo.metrics.AssistantMetrics;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigBeanFactory;
+import com.typesafe.config.ConfigFactory;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The client against a fake api served in process
+ */
+class AssistantClientTests {
+
+    private static final String SERVER_NAME = "fake-assistant";
+
+    private final Config config = ConfigFactory.load();
+
+    private final AssistantConf assistantConf = ConfigBeanFactory.create(config.getConfig("assistant"), AssistantConf.class);
+
+    private final IoConf ioConf = ConfigBeanFactory.create(config.getConfig("io"), IoConf.class);
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private Server server;
+
+    private AssistantClient client;
+
+    @AfterEach
+    void tearDown() {
+        if (client != null) {
+            client.shutdown();
+        }
+        server.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void responsesArePulledAsTheAudioIsPlayed() throws Exception {
+        int chunks = 500;
+        AtomicInteger sent = new AtomicInteger();
+        AtomicInteger maxBacklog = new AtomicInteger();
+        // 1 ms to play a chunk, much slower than the api
+        AudioOutput output = new AudioOutput(format -> new SlowSink(), chunks);
+
+        startServer(new EmbeddedAssistantGrpc.EmbeddedAssistantImplBase() {
+            @Override
+            public StreamObserver<AssistRequest> assist(StreamObserver<AssistResponse> responseObserver) {
+                ServerCallStreamObserver<AssistResponse> responses = (ServerCallStreamObserver<AssistResponse>) responseObserver;
+                AssistResponse audio = AssistResponse.newBuilder()
+                        .setAudioOut(AudioOut.newBuilder().setAudioData(ByteString.copyFrom(new byte[3200])))
+                        .build();
+                AtomicBoolean completed = new AtomicBoolean();
+                // The api sends as fast as the transport accepts
+                responses.setOnReadyHandler(() -> {
+                    while (responses.isReady() && sent.get() < chunks) {
+                        responses.onNext(audio);
+                        maxBacklog.accumulateAndGet(sent.incrementAndGet() - (int) output.getPlayedCount(), Math::max);
+                    }
+                    if (sent.get() == chunks && completed.compareAndSet(false, true)) {
+                        responses.onCompleted();
+                    }
+                });
+                return new IgnoredRequests();
+            }
+        });
+        ioConf.setOutputAudio(true);
+        client = client(InProcessChannelBuilder.forName(SERVER_NAME).build());
+        client.enableAudioOutput(output, null);
+
+        client.textQuery("Play a long song").get(30, TimeUnit.SECONDS);
+
+        assertEquals(chunks, sent.get());
+        // The responses not played yet stay in the api instead of the heap of the client
+        int bound = 2 * assistantConf.getResponseBufferSize();
+        assertTrue(maxBacklog.get() <= bound, "backlog of " + maxBacklog.get() + " responses, expected at most " + bound);
+    }
+
+    @Test
+    void audioIsSentAsTheApiReadsIt() throws Exception {
+        int chunks = 100;
+        AtomicInteger requested = new AtomicInteger();
+        AtomicInteger received = new AtomicInteger();
+
+        startServer(new EmbeddedAssistantGrpc.EmbeddedAssistantImplBase() {
+            @Override
+            public StreamObserver<AssistRequest> assist(StreamObserver<AssistResponse> responseObserver) {
+                ServerCallStreamObserver<AssistResponse> responses = (ServerCallStreamObserver<AssistResponse>) responseObserver;
+                // A slow api: reads a request every millisecond
+                responses.disableAutoRequest();
+                responses.request(1);
+                requested.incrementAndGet();
+                return new StreamObserver<AssistRequest>() {
+                    @Override
+                    public void onNext(AssistRequest request) {
+                        if (request.hasAudioIn()) {
+                            received.incrementAndGet();
+                        }
+                        scheduler.schedule(() -> {
+                            requested.incrementAndGet();
+                            responses.request(1);
+                        }, 1, TimeUnit.MILLISECONDS);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        responses.onNext(AssistResponse.newBuilder()
+                                .setDialogStateOut(DialogStateOut.newBuilder().setSupplementalDisplayText("Done"))
+                                .build());
+                        responses.onCompleted();
+                    }
+                };
+            }
+        });
+        // Counts the requests handed to the transport
+        AtomicInteger sent = new AtomicInteger();
+        AtomicInteger maxAhead = new AtomicInteger();
+        ClientInterceptor counter = new ClientInterceptor() {
+            @Override
+            public <Q, R> ClientCall<Q, R> interceptCall(MethodDescriptor<Q, R> method, CallOptions callOptions, Channel next) {
+                return new ForwardingClientCall.SimpleForwardingClientCall<Q, R>(next.newCall(method, callOptions)) {
+                    @Override
+                    public void sendMessage(Q message) {
+                        maxAhead.accumulateAndGet(sent.incrementAndGet() - requested.get(), Math::max);
+                        super.sendMessage(message);
+                    }
+                };
+            }
+        };
+        client = client(InProcessChannelBuilder.forName(SERVER_NAME).intercept(counter).build());
+
+        ByteBuffer audio = ByteBuffer.allocate(chunks * assistantConf.getChunkSize());
+        client.audioQuery("long utterance", audio, Priority.INTERACTIVE).get(30, TimeUnit.SECONDS);
+
+        assertEquals(chunks, received.get());
+        // The chunks wait in the audio of the client until the transport is ready, not in the transport
+        assertTrue(maxAhead.get() <= 2, maxAhead.get() + " requests sent before the api asked for them");
+    }
+
+    @Test
+    void flacFramesAreSentOneByOne() throws Exception {
+        List<ByteString> received = new CopyOnWriteArrayList<>();
+
+        startServer(new EmbeddedAssistantGrpc.EmbeddedAssistantImplBase() {
+            @Override
+            public StreamObserver<AssistRequest> assist(StreamObserver<AssistResponse> responseObserver) {
+                return new IgnoredRequests() {
+                    @Override
+                    public void onNext(AssistRequest request) {
+                        if (request.hasAudioIn()) {
+                            received.add(request.getAudioIn());
+                        }
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        responseObserver.onNext(AssistResponse.newBuilder()
+                                .setDialogStateOut(DialogStateOut.newBuilder().setSupplementalDisplayText("Done"))
+                                .build());
+                        responseObserver.onCompleted();
+                    }
+                };
+            }
+        });
+        assistantConf.setAudioEncoding("FLAC");
+        client = client(InProcessChannelBuilder.forName(SERVER_NAME).build());
+
+        // 3 blocks of 4096 samples and a shorter one
+        ByteBuffer audio = ByteBuffer.allocate(2 * (3 * 4096 + 100));
+        client.audioQuery("flac utterance", audio, Priority.INTERACTIVE).get(30, TimeUnit.SECONDS);
+
+        // The stream header, then a frame per block
+        assertEquals(5, received.size());
+        assertEquals("fLaC", received.get(0).substring(0, 4).toStringUtf8());
+        for (ByteString frame : received.subList(1, received.size())) {
+            assertEquals(0xFF, frame.byteAt(0) & 0xFF);
+            assertEquals(0xF8, frame.byteAt(1) & 0xFF);
+        }
+    }
+
+    @Test
+    void partialTranscriptsArriveWhileTheAudioIsSent() throws Exception {
+        int chunks = 60;
+        String utterance = "what is the weather like in paris";
+        AtomicInteger received = new AtomicInteger();
+        AtomicReference<ServerCallStreamObserver<AssistResponse>> call = new AtomicReference<>();
+
+        startServer(new EmbeddedAssistantGrpc.EmbeddedAssistantImplBase() {
+            @Override
+            public StreamObserver<AssistRequest> assist(StreamObserver<AssistResponse> responseObserver) {
+                ServerCallStreamObserver<AssistResponse> responses = (ServerCallStreamObserver<AssistResponse>) responseObserver;
+                call.set(responses);
+                responses.disableAutoRequest();
+                responses.request(1);
+                return new StreamObserver<AssistRequest>() {
+                    @Override
+                    public void onNext(AssistRequest request) {
+                        // A partial transcript every 5 chunks of audio, a stable beginning and an unstable end
+                        if (request.hasAudioIn() && received.incrementAndGet() % 5 == 0) {
+                            responseObserver.onNext(AssistResponse.newBuilder()
+                                    .addSpeechResults(speechResult("what is", 0.9f))
+                                    .addSpeechResults(speechResult("the", 0.1f))
+                                    .build());
+                            // The next audio is read once the client published the transcript
+                            return;
+                        }
+                        responses.request(1);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        responseObserver.onNext(AssistResponse.newBuilder()
+                                .setEventType(AssistResponse.EventType.END_OF_UTTERANCE)
+                                .build());
+                        responseObserver.onNext(AssistResponse.newBuilder()
+                                .addSpeechResults(speechResult(utterance, 1))
+                                .build());
+                        responseObserver.onNext(AssistResponse.newBuilder()
+                                .setDialogStateOut(DialogStateOut.newBuilder().setSupplementalDisplayText("It is sunny"))
+                                .build());
+                        responseObserver.onCompleted();
+                    }
+                };
+            }
+        });
+        client = client(InProcessChannelBuilder.forName(SERVER_NAME).build());
+        List<Transcript> transcripts = new CopyOnWriteArrayList<>();
+        // Audio received by the api when each transcript was published
+        List<Integer> receivedChunks = new CopyOnWriteArrayList<>();
+        client.addTranscriptListener(transcript -> {
+            transcripts.add(transcript);
+            receivedChunks.add(received.get());
+            call.get().request(1);
+        });
+
+        ByteBuffer audio = ByteBuffer.allocate(chunks * assistantConf.getChunkSize());
+        AudioQueryResult result = client.audioQuery("weather", audio, Priority.INTERACTIVE).get(30, TimeUnit.SECONDS);
+
+        assertEquals(chunks / 5 + 1, transcripts.size());
+        Transcript first = transcripts.get(0);
+        assertEquals("what is the", first.getText());
+        assertEquals(0.1f, first.getStability());
+        assertFalse(first.isFinal());
+        // Published as soon as received, not at the end of the request (the api would wait forever)
+        for (int i = 0; i < chunks / 5; i++) {
+            assertEquals(5 * (i + 1), receivedChunks.get(i));
+        }
+        Transcript last = transcripts.get(transcripts.size() - 1);
+        assertTrue(last.isFinal());
+        assertEquals(utterance, last.getText());
+        assertEquals(utterance, result.getTranscript());
+    }
+
+    @Test
+    void concurrentCallsDoNotShareTheConversationState() throws Exception {
+        // Conversation state received with each query
+        Map<String, String> statesIn = new ConcurrentHashMap<>();
+        // Calls answered once the test releases them
+        Map<String, StreamObserver<AssistResponse>> pending = new ConcurrentHashMap<>();
+
+        startServer(new EmbeddedAssistantGrpc.EmbeddedAssistantImplBase() {
+            @Override
+            public StreamObserver<AssistRequest> assist(StreamObserver<AssistResponse> responseObserver) {
+                return new IgnoredRequests() {
+                    @Override
+                    public void onNext(AssistRequest request) {
+                        if (request.hasConfig()) {
+                            String query = request.getConfig().getTextQuery();
+                            statesIn.put(query, request.getConfig().getDialogStateIn().getConversationState().toStringUtf8());
+                            pending.put(query, responseObserver);
+                        }
+                    }
+                };
+            }
+        });
+        client = client(InProcessChannelBuilder.forName(SERVER_NAME).build());
+
+        CompletableFuture<String> first = client.textQuery("first");
+        answer(pending, "first");
+        first.get(30, TimeUnit.SECONDS);
+
+        CompletableFuture<String> second = client.textQuery("second");
+        CompletableFuture<String> third = client.textQuery("third");
+        answer(pending, "second");
+        answer(pending, "third");
+        CompletableFuture.allOf(second, third).get(30, TimeUnit.SECONDS);
+
+        CompletableFuture<String> fourth = client.textQuery("fourth");
+        answer(pending, "fourth");
+        fourth.get(30, TimeUnit.SECONDS);
+
+        assertEquals("", statesIn.get("first"));
+        assertEquals("after first", statesIn.get("second"));
+        // Started while the second one was in flight: not the next turn of the conversation
+        assertEquals("", statesIn.get("third"));
+        assertEquals("after second", statesIn.get("fourth"));
+    }
+
+    /**
+     * Answer a query once the api received it, with a conversation state naming the query
+     */
+    private static void answer(Map<String, StreamObserver<AssistResponse>> pending, String query) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!pending.containsKey(query) && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        StreamObserver<AssistResponse> responses = pending.get(query);
+        responses.onNext(AssistResponse.newBuilder()
+                .setDialogStateOut(DialogStateOut.newBuilder()
+                        .setSupplementalDisplayText("Answer to " + query)
+                        .setConversationState(ByteString.copyFromUtf8("after " + query)))
+                .build());
+        responses.onCompleted();
+    }
+
+    private static SpeechRecognitionResult speechResult(String transcript, float stability) {
+        return SpeechRecognitionResult.newBuilder().setTranscript(transcript).setStability(stability).build();
+    }
+
+    private void startServer(EmbeddedAssistantGrpc.EmbeddedAssistantImplBase service) throws IOException {
+        server = InProcessServerBuilder.forName(SERVER_NAME).directExecutor().addService(service).build().start();
+    }
+
+    private AssistantClient client(ManagedChannel channel) {
+        OAuthCredentials credentials = new OAuthCredentials();
+        credentials.setAccessToken("token");
+        credentials.setExpirationTime(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        DeviceModel deviceModel = new DeviceModel();
+        deviceModel.setProjectId("project");
+        deviceModel.setDeviceModelId("model");
+        Device device = new Device();
+        device.setId("device");
+        return new AssistantClient(channel, credentials, assistantConf, deviceModel, device, ioConf,
+                new AssistantMetrics(), RateLimiter.unlimited());
+    }
+
+    private static class SlowSink implements AudioSink {
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void drain() {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class IgnoredRequests implements StreamObserver<AssistRequest> {
+
+        @Override
+        public void onNext(AssistRequest request) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+}
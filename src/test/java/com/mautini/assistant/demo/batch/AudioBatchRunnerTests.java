@@ -0,0 +1,53 @@
+package com.mautini.assistant.demo.batch;
+
+import com.mautini.assistant.demo.api.AudioQueryResult;
+import com.mautini.assistant.demo.exception.RateLimitException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AudioBatchRunnerTests {
+
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void fileRejectedByTheRateLimiterIsSentAgain() throws Exception {
+        Files.write(directory.resolve("a.raw"), new byte[3200]);
+        Files.write(directory.resolve("b.raw"), new byte[3200]);
+        Path results = directory.resolve("results.jsonl");
+        // Tries of each file
+        Map<String, Integer> tries = new ConcurrentHashMap<>();
+
+        AudioBatchRunner runner = new AudioBatchRunner((label, audio) -> {
+            CompletableFuture<AudioQueryResult> result = new CompletableFuture<>();
+            if (tries.merge(label, 1, Integer::sum) == 1 && label.equals("a.raw")) {
+                result.completeExceptionally(new RateLimitException("Too many requests"));
+            } else {
+                result.complete(new AudioQueryResult("hello", "Hi"));
+            }
+            return result;
+        }, FORMAT, 2);
+
+        assertEquals(2, runner.run(directory, results));
+
+        assertEquals(2, tries.get("a.raw"));
+        assertEquals(1, tries.get("b.raw"));
+        List<String> lines = Files.readAllLines(results, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        lines.forEach(line -> assertTrue(line.contains("\"answer\":\"Hi\""), line));
+    }
+}
@@ -0,0 +1,182 @@
+package com.mautini.assistant.demo.client.audio;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The frames are decoded with a minimal reader of the FLAC format (headers, constant and verbatim subframes)
+ */
+class FlacEncoderTests {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    @Test
+    void crcsMatchTheCheckValues() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+        // CRC-8 (polynomial 0x07) and CRC-16 (polynomial 0x8005) of FLAC, no reflection, initial value 0
+        assertEquals(0xF4, FlacEncoder.crc8(check, check.length));
+        assertEquals(0xFEE8, FlacEncoder.crc16(check, check.length));
+        assertEquals(0, FlacEncoder.crc8(check, 0));
+    }
+
+    @Test
+    void headersAreReadBack() {
+        int blockSize = 192;
+        // 130 blocks (frame numbers on 1 and 2 bytes) and a shorter last block
+        short[] pcm = new short[130 * blockSize + 10];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) (1000 * Math.sin(i / 10.0));
+        }
+
+        List<byte[]> writes = encode(blockSize, pcm);
+
+        BitReader streamInfo = new BitReader(writes.get(0));
+        assertEquals(0x664C6143, streamInfo.read(32));
+        // Last metadata block, STREAMINFO of 34 bytes
+        assertEquals(0x80, streamInfo.read(8));
+        assertEquals(34, streamInfo.read(24));
+        assertEquals(blockSize, streamInfo.read(16));
+        assertEquals(blockSize, streamInfo.read(16));
+        streamInfo.read(48);
+        assertEquals(SAMPLE_RATE, streamInfo.read(20));
+        assertEquals(0, streamInfo.read(3));
+        assertEquals(15, streamInfo.read(5));
+        assertEquals(4 + 4 + 34, writes.get(0).length);
+
+        assertEquals(132, writes.size());
+        for (int frame = 0; frame < 131; frame++) {
+            byte[] data = writes.get(frame + 1);
+            BitReader header = new BitReader(data);
+            assertEquals(0xFFF8, header.read(16));
+            int blockSizeCode = header.read(4);
+            // Sample rate of the STREAMINFO, mono, 16 bits
+            assertEquals(0, header.read(4));
+            assertEquals(0, header.read(4));
+            assertEquals(0b100, header.read(3));
+            assertEquals(0, header.read(1));
+            assertEquals(frame, header.readUtf8());
+            if (frame < 130) {
+                assertEquals(1, blockSizeCode);
+            } else {
+                assertEquals(6, blockSizeCode);
+                assertEquals(10, header.read(8) + 1);
+            }
+            int headerLength = header.bytePosition();
+            assertEquals(FlacEncoder.crc8(data, headerLength), header.read(8), "CRC-8 of frame " + frame);
+            int crc16 = (data[data.length - 2] & 0xFF) << 8 | data[data.length - 1] & 0xFF;
+            assertEquals(FlacEncoder.crc16(data, data.length - 2), crc16, "CRC-16 of frame " + frame);
+        }
+    }
+
+    @Test
+    void silenceIsEncodedAsConstantSubframes() {
+        short[] pcm = new short[2 * 4096];
+        Arrays.fill(pcm, (short) -1234);
+
+        List<byte[]> writes = encode(4096, pcm);
+
+        assertEquals(3, writes.size());
+        for (byte[] frame : writes.subList(1, writes.size())) {
+            BitReader reader = afterFrameHeader(frame);
+            assertEquals(0b00000000, reader.read(8));
+            assertEquals(-1234, reader.readSigned(16));
+            // Header, subframe, CRC-16
+            assertEquals(reader.bytePosition() + 2, frame.length);
+        }
+    }
+
+    @Test
+    void noiseIsEncodedAsVerbatimSubframes() {
+        short[] pcm = new short[4096];
+        Random random = new Random(42);
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) random.nextInt();
+        }
+
+        List<byte[]> writes = encode(4096, pcm);
+
+        BitReader reader = afterFrameHeader(writes.get(1));
+        assertEquals(0b00000010, reader.read(8));
+        short[] decoded = new short[pcm.length];
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = (short) reader.readSigned(16);
+        }
+        assertArrayEquals(pcm, decoded);
+    }
+
+    private static List<byte[]> encode(int blockSize, short[] pcm) {
+        List<byte[]> writes = new ArrayList<>();
+        FlacEncoder.FrameSink sink = (data, offset, length) -> writes.add(Arrays.copyOfRange(data, offset, offset + length));
+        ByteBuffer buffer = ByteBuffer.allocate(2 * pcm.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asShortBuffer().put(pcm);
+        FlacEncoder encoder = new FlacEncoder(SAMPLE_RATE, blockSize);
+        encoder.start(sink);
+        encoder.encode(buffer, sink);
+        encoder.finish(sink);
+        return writes;
+    }
+
+    /**
+     * @return a reader positioned on the subframe of a frame of 4096 samples
+     */
+    private static BitReader afterFrameHeader(byte[] frame) {
+        BitReader reader = new BitReader(frame);
+        reader.read(32);
+        reader.readUtf8();
+        reader.read(8);
+        return reader;
+    }
+
+    private static final class BitReader {
+
+        private final byte[] data;
+
+        private long bitPosition;
+
+        private BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        private int read(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; i++, bitPosition++) {
+                int bit = data[(int) (bitPosition >> 3)] >> (7 - (bitPosition & 7)) & 1;
+                value = value << 1 | bit;
+            }
+            return (int) value;
+        }
+
+        private int readSigned(int bits) {
+            int value = read(bits);
+            return value << (32 - bits) >> (32 - bits);
+        }
+
+        private long readUtf8() {
+            int first = read(8);
+            int extraBytes = Integer.numberOfLeadingZeros(~(first << 24));
+            if (extraBytes == 0) {
+                return first;
+            }
+            long value = first & (0x7F >> extraBytes);
+            for (int i = 1; i < extraBytes; i++) {
+                value = value << 6 | read(8) & 0x3F;
+            }
+            return value;
+        }
+
+        private int bytePosition() {
+            return (int) (bitPosition >> 3);
+        }
+    }
+}
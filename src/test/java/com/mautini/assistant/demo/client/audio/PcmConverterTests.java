@@ -0,0 +1,102 @@
+package com.mautini.assistant.demo.client.audio;
+
+import com.mautini.assistant.demo.exception.AudioException;
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PcmConverterTests {
+
+    private static final AudioFormat ASSISTANT = new AudioFormat(16000, 16, 1, true, false);
+
+    @Test
+    void signedBigEndianIsConvertedToLittleEndian() throws AudioException {
+        PcmConverter converter = new PcmConverter(new AudioFormat(16000, 16, 1, true, true), ASSISTANT);
+        byte[] input = {(byte) 0xFF, (byte) 0xFE, 0x12, 0x34, (byte) 0x80, 0x00};
+
+        assertArrayEquals(new short[]{-2, 0x1234, Short.MIN_VALUE}, samples(convert(converter, input, input.length)));
+    }
+
+    @Test
+    void unsigned8BitsAreCenteredAndScaled() throws AudioException {
+        PcmConverter converter = new PcmConverter(new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 16000, 8, 1, 1, 16000, false),
+                ASSISTANT);
+        byte[] input = {(byte) 0x80, (byte) 0xFF, 0x00, 0x40};
+
+        assertArrayEquals(new short[]{0, 127 << 8, Short.MIN_VALUE, -64 << 8}, samples(convert(converter, input, input.length)));
+    }
+
+    @Test
+    void stereo48kHzIsDownsampledTo16kHzMono() throws AudioException {
+        PcmConverter converter = new PcmConverter(new AudioFormat(48000, 16, 2, true, false), ASSISTANT);
+        // 1 s of a constant level on both channels
+        ShortBuffer input = ShortBuffer.allocate(2 * 48000);
+        while (input.hasRemaining()) {
+            input.put((short) 10000);
+        }
+
+        short[] output = samples(convert(converter, bytes(input.array()), 4096));
+
+        assertEquals(16000, output.length);
+        // Unit gain away from the edges of the stream
+        for (int i = 100; i < output.length - 100; i++) {
+            assertEquals(10000, output[i], 50, "sample " + i);
+        }
+    }
+
+    @Test
+    void inputSplitInTheMiddleOfAFrameGivesTheSameAudio() throws AudioException {
+        AudioFormat source = new AudioFormat(48000, 16, 2, true, false);
+        // 100 ms of a 440 Hz tone on the left channel, 1 kHz on the right one
+        short[] tone = new short[2 * 4800];
+        for (int i = 0; i < 4800; i++) {
+            tone[2 * i] = (short) (8000 * Math.sin(2 * Math.PI * 440 * i / 48000));
+            tone[2 * i + 1] = (short) (8000 * Math.sin(2 * Math.PI * 1000 * i / 48000));
+        }
+        byte[] input = bytes(tone);
+
+        byte[] whole = convert(new PcmConverter(source, ASSISTANT), input, input.length);
+        // Chunks of an odd size, most of them end in the middle of a sample or of a frame
+        byte[] split = convert(new PcmConverter(source, ASSISTANT), input, 333);
+        byte[] bytePerByte = convert(new PcmConverter(source, ASSISTANT), input, 1);
+
+        assertTrue(whole.length > 0);
+        assertArrayEquals(whole, split);
+        assertArrayEquals(whole, bytePerByte);
+    }
+
+    /**
+     * Convert the input in chunks of a size then flush the converter
+     */
+    private static byte[] convert(PcmConverter converter, byte[] input, int chunkSize) {
+        ByteArrayOutputStream converted = new ByteArrayOutputStream();
+        byte[] output = new byte[converter.prepare(chunkSize)];
+        for (int offset = 0; offset < input.length; offset += chunkSize) {
+            int length = converter.convert(input, offset, Math.min(chunkSize, input.length - offset), output, 0);
+            converted.write(output, 0, length);
+        }
+        byte[] end = new byte[converter.prepare(chunkSize) + 1024];
+        converted.write(end, 0, converter.flush(end, 0));
+        return converted.toByteArray();
+    }
+
+    private static byte[] bytes(short[] samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * samples.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asShortBuffer().put(samples);
+        return buffer.array();
+    }
+
+    private static short[] samples(byte[] bytes) {
+        short[] samples = new short[bytes.length / 2];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+        return samples;
+    }
+}
@@ -0,0 +1,69 @@
+package com.mautini.assistant.demo.client.audio;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseAudioCacheTests {
+
+    private static final String KEY = ResponseAudioCache.key("The light is on.", 16000, 50);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void clipIsReloadedAtStartup() throws Exception {
+        new ResponseAudioCache(directory, 1 << 20, 1 << 16).put(KEY, new byte[]{1, 2, 3, 4}, 3);
+
+        ResponseAudioCache cache = new ResponseAudioCache(directory, 1 << 20, 1 << 16);
+
+        ByteBuffer clip = cache.get(ResponseAudioCache.key("the light is ON", 16000, 50)).orElseThrow(AssertionError::new);
+        assertEquals(3, clip.remaining());
+        assertEquals(3, clip.get(2));
+        assertEquals(1, cache.getClipCount());
+    }
+
+    @Test
+    void interruptedWriteIsDeletedAtStartup() throws Exception {
+        Path temporary = Files.write(directory.resolve("clip123.tmp"), new byte[16]);
+
+        ResponseAudioCache cache = new ResponseAudioCache(directory, 1 << 20, 1 << 16);
+
+        assertFalse(Files.exists(temporary));
+        assertEquals(0, cache.getClipCount());
+    }
+
+    @Test
+    void failedWriteLeavesNoTemporaryFile() throws Exception {
+        ResponseAudioCache cache = new ResponseAudioCache(directory, 1 << 20, 1 << 16);
+        cache.put(KEY, new byte[4], 4);
+        Path clip = files().get(0);
+        // The clip can not be replaced by the next write
+        Files.delete(clip);
+        Files.createDirectory(clip);
+        Files.write(clip.resolve("file"), new byte[1]);
+
+        cache.put(KEY, new byte[8], 8);
+
+        List<Path> files = files();
+        assertEquals(1, files.size());
+        assertTrue(Files.isDirectory(files.get(0)));
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+}
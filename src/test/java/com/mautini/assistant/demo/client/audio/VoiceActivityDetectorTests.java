@@ -0,0 +1,90 @@
+package com.mautini.assistant.demo.client.audio;
+
+import com.mautini.assistant.demo.config.AudioConf;
+import com.typesafe.config.ConfigBeanFactory;
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The fixtures are 16 kHz 16 bits little endian mono PCM, with a noise floor of RMS 40:
+ * <ul>
+ * <li>speech.raw: 1 s of noise floor, 0.8 s of voiced speech, 0.26 s of an "s" (white noise of RMS 350, below the
+ * energy threshold but above half of it) and 1.44 s of noise floor</li>
+ * <li>hum.raw: 6 s of a 50 Hz hum of RMS 350 (same energy as the "s", few zero crossings)</li>
+ * </ul>
+ * With the default settings (reference.conf): frames of 20 ms, end after 800 ms of silence or 5 s without speech,
+ * padding of 200 ms.
+ */
+class VoiceActivityDetectorTests {
+
+    private static final int BYTES_PER_MS = 32;
+
+    private final AudioConf audioConf = ConfigBeanFactory.create(ConfigFactory.load().getConfig("audio"), AudioConf.class);
+
+    private final AudioFormat format = AudioUtil.getAudioFormat(audioConf);
+
+    @Test
+    void speechIsTrimmedWithItsPadding() throws IOException {
+        byte[] record = fixture("speech.raw");
+        VoiceActivityDetector detector = new VoiceActivityDetector(audioConf, format);
+
+        assertTrue(detector.process(record, record.length));
+        assertTrue(detector.hasSpeech());
+        assertEquals((1000 - 200) * BYTES_PER_MS, detector.getSpeechStart());
+        // The "s" is speech by its zero crossing rate, the speech ends after it
+        assertEquals((2060 + 200) * BYTES_PER_MS, detector.getSpeechEnd(record.length));
+    }
+
+    @Test
+    void endOfSpeechIsDetectedAsTheRecordGrows() throws IOException {
+        byte[] record = fixture("speech.raw");
+        VoiceActivityDetector detector = new VoiceActivityDetector(audioConf, format);
+
+        // Chunks which do not match the frames, as read from the microphone
+        int chunk = 1000;
+        int length = 0;
+        while (length < record.length && !detector.process(record, length)) {
+            length = Math.min(record.length, length + chunk);
+        }
+
+        // 800 ms of silence after the end of the "s"
+        int endOfSpeech = (2060 + 800) * BYTES_PER_MS;
+        assertTrue(detector.isEndOfSpeech());
+        assertTrue(length >= endOfSpeech && length < endOfSpeech + chunk, "detected at " + length);
+        assertEquals((1000 - 200) * BYTES_PER_MS, detector.getSpeechStart());
+        assertEquals((2060 + 200) * BYTES_PER_MS, detector.getSpeechEnd(length));
+    }
+
+    @Test
+    void quietLowFrequencySoundIsNotSpeech() throws IOException {
+        byte[] record = fixture("hum.raw");
+        VoiceActivityDetector detector = new VoiceActivityDetector(audioConf, format);
+
+        assertFalse(detector.process(record, 5000 * BYTES_PER_MS - 1));
+        assertTrue(detector.process(record, record.length));
+        assertFalse(detector.hasSpeech());
+        assertEquals(0, detector.getSpeechStart());
+        assertEquals(0, detector.getSpeechEnd(record.length));
+    }
+
+    private static byte[] fixture(String name) throws IOException {
+        try (InputStream in = VoiceActivityDetectorTests.class.getResourceAsStream("/audio/" + name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.mautini.assistant.demo.device;
+
+import com.mautini.assistant.demo.config.DeviceRegisterConf;
+import com.mautini.assistant.demo.json.JsonUtil;
+import com.typesafe.config.ConfigBeanFactory;
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The registrations are read from the files, the registration api is never called
+ */
+class DeviceRegistrationCacheTests {
+
+    @TempDir
+    Path directory;
+
+    private Path modelFile;
+
+    private Path instanceFile;
+
+    private DeviceRegistrationCache cache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        modelFile = directory.resolve("device_model.json");
+        instanceFile = directory.resolve("device_instance.json");
+        DeviceRegisterConf conf = ConfigBeanFactory.create(ConfigFactory.load().getConfig("deviceRegister"), DeviceRegisterConf.class);
+        conf.setDeviceModelFilePath(modelFile.toString());
+        conf.setDeviceInstanceFilePath(instanceFile.toString());
+        cache = new DeviceRegistrationCache(conf);
+        writeModel();
+        writeInstance("device-1");
+    }
+
+    @Test
+    void firstRejectionKeepsTheModel() throws Exception {
+        assertEquals("device-1", cache.get("token").getDevice().getId());
+
+        cache.invalidate();
+
+        assertFalse(Files.exists(instanceFile));
+        assertTrue(Files.exists(modelFile));
+    }
+
+    @Test
+    void secondRejectionOfTheSameModelDropsTheModel() throws Exception {
+        cache.get("token");
+        cache.invalidate();
+        // Registered again with the same model
+        writeInstance("device-2");
+        assertEquals("device-2", cache.get("token").getDevice().getId());
+
+        cache.invalidate();
+
+        assertFalse(Files.exists(instanceFile));
+        assertFalse(Files.exists(modelFile));
+    }
+
+    private void writeModel() throws IOException {
+        DeviceModel deviceModel = new DeviceModel();
+        deviceModel.setProjectId("project");
+        deviceModel.setDeviceModelId("model");
+        Files.write(modelFile, JsonUtil.GSON.toJson(deviceModel).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeInstance(String id) throws IOException {
+        Device device = new Device();
+        device.setId(id);
+        device.setModelId("model");
+        Files.write(instanceFile, JsonUtil.GSON.toJson(device).getBytes(StandardCharsets.UTF_8));
+    }
+}
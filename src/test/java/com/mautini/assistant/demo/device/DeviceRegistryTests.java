@@ -0,0 +1,173 @@
+package com.mautini.assistant.demo.device;
+
+import com.mautini.assistant.demo.exception.DeviceRegisterException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DeviceRegistryTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recordsAreReadAfterReopen() throws Exception {
+        Path file = directory.resolve("registry.bin");
+        try (DeviceRegistry registry = DeviceRegistry.open(file.toString())) {
+            registry.putAll(Collections.singletonList(deviceModel("model")),
+                    Arrays.asList(device("device-1", "model"), device("device-2", "model")));
+            assertDevice(registry, "device-1", "model");
+        }
+
+        try (DeviceRegistry registry = DeviceRegistry.open(file.toString())) {
+            DeviceModel deviceModel = registry.getDeviceModel("model").orElseThrow(AssertionError::new);
+            assertEquals("project", deviceModel.getProjectId());
+            assertEquals("Light", deviceModel.getManifest().getProductName());
+            assertNull(deviceModel.getName());
+            assertDevice(registry, "device-2", "model");
+            assertEquals(Arrays.asList("device-1", "device-2"), deviceIds(registry, "model"));
+            assertEquals(1, registry.getDeviceModelCount());
+            assertEquals(2, registry.getDeviceCount());
+        }
+    }
+
+    @Test
+    void latestRecordReplacesThePreviousOne() throws Exception {
+        Path file = directory.resolve("registry.bin");
+        try (DeviceRegistry registry = DeviceRegistry.open(file.toString())) {
+            registry.putDevice(device("device", "model"));
+            Device device = device("device", "model");
+            device.setClientType("SDK_LIBRARY");
+            registry.putDevice(device);
+
+            assertEquals("SDK_LIBRARY", registry.getDevice("device").orElseThrow(AssertionError::new).getClientType());
+            assertEquals(1, registry.getDeviceCount());
+            assertEquals(Collections.singletonList("device"), deviceIds(registry, "model"));
+        }
+
+        try (DeviceRegistry registry = DeviceRegistry.open(file.toString())) {
+            assertEquals("SDK_LIBRARY", registry.getDevice("device").orElseThrow(AssertionError::new).getClientType());
+            assertEquals(Collections.singletonList("device"), deviceIds(registry, "model"));
+        }
+    }
+
+    @Test
+    void deviceMovesToItsNewModel() throws Exception {
+        Path file = directory.resolve("registry.bin");
+        try (DeviceRegistry registry = DeviceRegistry.open(file.toString())) {
+            registry.putDevice(device("device", "old-model"));
+            registry.putDevice(device("device", "new-model"));
+
+            assertDevice(registry, "device", "new-model");
+            assertEquals(Collections.emptyList(), deviceIds(registry, "old-model"));
+            assertEquals(Collections.singletonList("device"), deviceIds(registry, "new-model"));
+        }
+
+        try (DeviceRegistry registry = DeviceRegistry.open(file.toString())) {
+            assertEquals(Collections.emptyList(), deviceIds(registry, "old-model"));
+            assertEquals(Collections.singletonList("device"), deviceIds(registry, "new-model"));
+        }
+    }
+
+    @Test
+    void recordsWrittenOneByOneAreRead() throws Exception {
+        try (DeviceRegistry registry = DeviceRegistry.open(directory.resolve("registry.bin").toString())) {
+            // Most of them are read from the channel, after the mapped part of the file
+            for (int i = 0; i < 500; i++) {
+                registry.putDevice(device("device-" + i, "model-" + i % 3));
+            }
+            for (int i = 0; i < 500; i++) {
+                assertDevice(registry, "device-" + i, "model-" + i % 3);
+            }
+            assertEquals(167, deviceIds(registry, "model-0").size());
+        }
+    }
+
+    @Test
+    void tornRecordIsDroppedOnReopen() throws Exception {
+        Path file = directory.resolve("registry.bin");
+        try (DeviceRegistry registry = DeviceRegistry.open(file.toString())) {
+            registry.putDevice(device("device-1", "model"));
+        }
+        long size = Files.size(file);
+        // Header of a record of 100 bytes followed by 3 of them, as if the write was interrupted
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{2, 0, 0, 0, 100, 1, 2, 3}));
+        }
+
+        try (DeviceRegistry registry = DeviceRegistry.open(file.toString())) {
+            assertEquals(size, Files.size(file));
+            assertEquals(1, registry.getDeviceCount());
+            registry.putDevice(device("device-2", "model"));
+        }
+
+        try (DeviceRegistry registry = DeviceRegistry.open(file.toString())) {
+            assertDevice(registry, "device-1", "model");
+            assertDevice(registry, "device-2", "model");
+        }
+    }
+
+    @Test
+    void corruptStringLengthIsRejected() throws Exception {
+        Path file = directory.resolve("registry.bin");
+        try (DeviceRegistry registry = DeviceRegistry.open(file.toString())) {
+            registry.putDevice(device("device", "model"));
+        }
+        // Length of the device id, just after the file header and the record header
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(2).putShort(0, (short) -2), 13);
+        }
+
+        assertThrows(DeviceRegisterException.class, () -> DeviceRegistry.open(file.toString()));
+    }
+
+    @Test
+    void otherFileIsRejected() throws IOException {
+        Path file = directory.resolve("registry.bin");
+        Files.write(file, "not a registry".getBytes());
+
+        assertThrows(DeviceRegisterException.class, () -> DeviceRegistry.open(file.toString()));
+    }
+
+    private static void assertDevice(DeviceRegistry registry, String deviceId, String deviceModelId) {
+        Device device = registry.getDevice(deviceId).orElseThrow(AssertionError::new);
+        assertEquals(deviceId, device.getId());
+        assertEquals(deviceModelId, device.getModelId());
+    }
+
+    private static List<String> deviceIds(DeviceRegistry registry, String deviceModelId) {
+        return registry.getDevicesByModel(deviceModelId).stream().map(Device::getId).collect(Collectors.toList());
+    }
+
+    private static DeviceModel deviceModel(String deviceModelId) {
+        DeviceModel.Manifest manifest = new DeviceModel.Manifest();
+        manifest.setManufacturer("Manufacturer");
+        manifest.setProductName("Light");
+        DeviceModel deviceModel = new DeviceModel();
+        deviceModel.setDeviceModelId(deviceModelId);
+        deviceModel.setProjectId("project");
+        deviceModel.setManifest(manifest);
+        return deviceModel;
+    }
+
+    private static Device device(String deviceId, String deviceModelId) {
+        Device device = new Device();
+        device.setId(deviceId);
+        device.setModelId(deviceModelId);
+        return device;
+    }
+}
@@ -0,0 +1,237 @@
+package com.mautini.assistant.demo.device;
+
+import com.mautini.assistant.demo.config.DeviceRegisterConf;
+import com.typesafe.config.ConfigBeanFactory;
+import com.typesafe.config.ConfigFactory;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import okio.Timeout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Registration of a fleet against a stub of the registration api
+ */
+class FleetRegisterTests {
+
+    @TempDir
+    Path directory;
+
+    private DeviceRegisterConf conf;
+
+    private DeviceRegistry registry;
+
+    private StubDeviceInterface api;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        conf = ConfigBeanFactory.create(ConfigFactory.load().getConfig("deviceRegister"), DeviceRegisterConf.class);
+        conf.setFleetParallelism(1);
+        conf.setFleetRequestsPerSecond(1000);
+        conf.setFleetMaxRetries(2);
+        registry = DeviceRegistry.open(directory.resolve("registry.bin").toString());
+        api = new StubDeviceInterface();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        registry.close();
+    }
+
+    @Test
+    void alreadyRegisteredDeviceIsRegistered() throws Exception {
+        api.reply(409, null);
+
+        List<Device> registered = register();
+
+        assertEquals(1, registered.size());
+        assertEquals("device", registered.get(0).getId());
+        assertEquals(1, api.deviceCalls.size());
+        assertTrue(registry.getDevice("device").isPresent());
+    }
+
+    @Test
+    void retryAfterDelaysTheNextRequest() throws Exception {
+        api.reply(429, "1");
+        api.reply(200, null);
+
+        List<Device> registered = register();
+
+        assertEquals(1, registered.size());
+        assertEquals(2, api.deviceCalls.size());
+        long delayMs = TimeUnit.NANOSECONDS.toMillis(api.deviceCalls.get(1) - api.deviceCalls.get(0));
+        assertTrue(delayMs >= 1000, "Retried after " + delayMs + " ms");
+    }
+
+    @Test
+    void failedRegistrationIsRetriedWithBackoff() throws Exception {
+        api.reply(503, null);
+        api.reply(500, null);
+        api.reply(200, null);
+
+        List<Device> registered = register();
+
+        assertEquals(1, registered.size());
+        assertEquals(3, api.deviceCalls.size());
+        long firstDelayMs = TimeUnit.NANOSECONDS.toMillis(api.deviceCalls.get(1) - api.deviceCalls.get(0));
+        long secondDelayMs = TimeUnit.NANOSECONDS.toMillis(api.deviceCalls.get(2) - api.deviceCalls.get(1));
+        assertTrue(firstDelayMs >= 200, "First retry after " + firstDelayMs + " ms");
+        assertTrue(secondDelayMs >= 400, "Second retry after " + secondDelayMs + " ms");
+    }
+
+    @Test
+    void registrationStopsAfterTheLastRetry() throws Exception {
+        api.reply(500, null);
+        api.reply(500, null);
+        api.reply(500, null);
+
+        List<Device> registered = register();
+
+        assertTrue(registered.isEmpty());
+        assertEquals(3, api.deviceCalls.size());
+        assertEquals(0, registry.getDeviceCount());
+    }
+
+    @Test
+    void refusedRegistrationIsNotRetried() throws Exception {
+        api.reply(400, null);
+
+        assertTrue(register().isEmpty());
+        assertEquals(1, api.deviceCalls.size());
+    }
+
+    @Test
+    void retryAfterIsParsed() {
+        assertEquals(0, FleetRegister.parseRetryAfterMs(null));
+        assertEquals(0, FleetRegister.parseRetryAfterMs("soon"));
+        assertEquals(3000, FleetRegister.parseRetryAfterMs(" 3 "));
+        assertEquals(TimeUnit.MINUTES.toMillis(1), FleetRegister.parseRetryAfterMs("3600"));
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now().plusSeconds(30));
+        long delayMs = FleetRegister.parseRetryAfterMs(date);
+        assertTrue(delayMs > 28_000 && delayMs <= 30_000, "Parsed " + delayMs + " ms");
+    }
+
+    private List<Device> register() throws Exception {
+        DeviceModel deviceModel = new DeviceModel();
+        deviceModel.setDeviceModelId("model");
+        Device device = new Device();
+        device.setId("device");
+        device.setModelId("model");
+        return new FleetRegister(conf, api, registry)
+                .register(Collections.singletonList(deviceModel), Collections.singletonList(device));
+    }
+
+    /**
+     * Registers the models, answers the device registrations with the queued codes
+     */
+    private static class StubDeviceInterface implements DeviceInterface {
+
+        private final Deque<Response<Device>> deviceResponses = new ArrayDeque<>();
+
+        // Time (System.nanoTime) of each device registration request
+        private final List<Long> deviceCalls = new CopyOnWriteArrayList<>();
+
+        void reply(int code, String retryAfter) {
+            if (code == 200) {
+                // The registered device is answered without a body
+                deviceResponses.add(Response.success(null));
+                return;
+            }
+            okhttp3.Response.Builder raw = new okhttp3.Response.Builder()
+                    .code(code)
+                    .message("Stub")
+                    .protocol(Protocol.HTTP_1_1)
+                    .request(new Request.Builder().url("http://localhost/").build());
+            if (retryAfter != null) {
+                raw.header("Retry-After", retryAfter);
+            }
+            deviceResponses.add(Response.error(ResponseBody.create(null, ""), raw.build()));
+        }
+
+        @Override
+        public Call<DeviceModel> registerModel(String projectId, DeviceModel deviceModel) {
+            return new StubCall<>(() -> Response.success(deviceModel));
+        }
+
+        @Override
+        public Call<Device> registerDevice(String projectId, Device device) {
+            return new StubCall<>(() -> {
+                deviceCalls.add(System.nanoTime());
+                Response<Device> response = deviceResponses.poll();
+                return response != null ? response : Response.success(device);
+            });
+        }
+    }
+
+    private static class StubCall<T> implements Call<T> {
+
+        private final Supplier<Response<T>> response;
+
+        private boolean executed;
+
+        StubCall(Supplier<Response<T>> response) {
+            this.response = response;
+        }
+
+        @Override
+        public Response<T> execute() {
+            executed = true;
+            return response.get();
+        }
+
+        @Override
+        public void enqueue(Callback<T> callback) {
+            callback.onResponse(this, execute());
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return executed;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return false;
+        }
+
+        @Override
+        public Call<T> clone() {
+            return new StubCall<>(response);
+        }
+
+        @Override
+        public Request request() {
+            return new Request.Builder().url("http://localhost/").build();
+        }
+
+        @Override
+        public Timeout timeout() {
+            return Timeout.NONE;
+        }
+    }
+}
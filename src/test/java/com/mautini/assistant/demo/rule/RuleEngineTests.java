@@ -0,0 +1,118 @@
+package com.mautini.assistant.demo.rule;
+
+import com.mautini.assistant.demo.config.DeviceStateConf;
+import com.mautini.assistant.demo.device.DeviceStateCache;
+import com.mautini.assistant.demo.exception.RateLimitException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RuleEngineTests {
+
+    private static final String QUERY = "Is the TV on";
+
+    private static final String COMMAND = "Switch off the light";
+
+    @Test
+    void failedCommandIsSentAgainOnTheNextTick() throws Exception {
+        RuleEngine engine = engine();
+        List<String> commands = new ArrayList<>();
+        boolean[] rateLimited = {true};
+
+        for (int tick = 0; tick < 3; tick++) {
+            engine.tick(Instant.now(), query -> {
+                if (query.equals(QUERY)) {
+                    return CompletableFuture.completedFuture("The TV is on");
+                }
+                commands.add(query);
+                CompletableFuture<String> answer = new CompletableFuture<>();
+                if (rateLimited[0]) {
+                    answer.completeExceptionally(new RateLimitException("Too many requests"));
+                } else {
+                    answer.complete("OK, switching off the light");
+                }
+                return answer;
+            });
+            // Only the first try is rate limited
+            rateLimited[0] = false;
+        }
+
+        // Retried on the second tick, then the inputs did not change
+        assertEquals(2, commands.size());
+    }
+
+    @Test
+    void ruleWithARejectedPollIsSkipped() throws Exception {
+        RuleEngine engine = engine();
+        List<String> commands = new ArrayList<>();
+
+        int skippedRules = engine.tick(Instant.now(), query -> {
+            if (!query.equals(QUERY)) {
+                commands.add(query);
+            }
+            CompletableFuture<String> answer = new CompletableFuture<>();
+            answer.completeExceptionally(new RateLimitException("Too many requests"));
+            return answer;
+        });
+
+        assertEquals(1, skippedRules);
+        assertEquals(Collections.emptyList(), commands);
+    }
+
+    @Test
+    void sentCommandIsNotRepeatedWhileTheInputsDoNotChange() throws Exception {
+        RuleEngine engine = engine();
+        List<String> commands = new ArrayList<>();
+
+        for (int tick = 0; tick < 3; tick++) {
+            engine.tick(Instant.now(), query -> {
+                if (!query.equals(QUERY)) {
+                    commands.add(query);
+                }
+                return CompletableFuture.completedFuture(query.equals(QUERY) ? "The TV is on" : "OK");
+            });
+        }
+
+        assertEquals(Collections.singletonList(COMMAND), commands);
+    }
+
+    @Test
+    void answerWithoutTextDoesNotHoldANegatedCondition() throws Exception {
+        Rule rule = new Rule("tv off", Collections.singletonList(new NotCondition(new QueryCondition(QUERY, "on"))),
+                new Command("light", "on", "Switch on the light"));
+        RuleEngine engine = engine(rule);
+        List<String> commands = new ArrayList<>();
+
+        engine.tick(Instant.now(), query -> {
+            if (!query.equals(QUERY)) {
+                commands.add(query);
+            }
+            // The assistant answered without any text
+            return CompletableFuture.completedFuture(query.equals(QUERY) ? null : "OK");
+        });
+
+        assertEquals(Collections.emptyList(), commands);
+    }
+
+    private static RuleEngine engine() {
+        return engine(new Rule("tv on", Collections.singletonList(new QueryCondition(QUERY, "on")),
+                new Command("light", "off", COMMAND)));
+    }
+
+    private static RuleEngine engine(Rule rule) {
+        DeviceStateConf deviceStateConf = new DeviceStateConf();
+        deviceStateConf.setKnownStateTtl(Duration.ofMinutes(10));
+        deviceStateConf.setCommandedStateTtl(Duration.ofMinutes(1));
+        CommandDispatcher commandDispatcher = new CommandDispatcher(new DeviceStateCache(deviceStateConf, Clock.systemUTC()));
+        return new RuleEngine(Collections.singletonList(rule), "home", ZoneOffset.UTC, commandDispatcher);
+    }
+}
@@ -0,0 +1,109 @@
+package com.mautini.assistant.demo.schedule;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HomeSchedulerTests {
+
+    private static final long TICK_MS = 1000;
+
+    private static final long START_MS = 1_700_000_000_000L;
+
+    @Test
+    void eachHomeRunsOncePerPeriodSpreadOverThePeriod() {
+        VirtualClock clock = new VirtualClock(START_MS);
+        HomeScheduler scheduler = new HomeScheduler(TICK_MS, clock, Runnable::run);
+        long periodMs = TimeUnit.MINUTES.toMillis(1);
+        Map<String, List<Long>> runs = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            String homeId = "home-" + i;
+            scheduler.schedule(homeId, periodMs, () -> runs.computeIfAbsent(homeId, id -> new ArrayList<>()).add(clock.currentTimeMillis()));
+        }
+
+        Map<Long, Integer> runsPerTick = new HashMap<>();
+        for (int tick = 0; tick < 10 * periodMs / TICK_MS; tick++) {
+            clock.advance(TICK_MS);
+            long before = scheduler.getRunCount();
+            scheduler.advance();
+            runsPerTick.put(clock.currentTimeMillis(), (int) (scheduler.getRunCount() - before));
+        }
+
+        assertEquals(1000, runs.size());
+        for (List<Long> times : runs.values()) {
+            // A run starts in the tick of its deadline (up to a tick early), away from the ends of the simulation
+            // any window of 8 periods holds 8 runs
+            assertEquals(8, times.stream().filter(time -> time > START_MS + periodMs && time <= START_MS + 9 * periodMs).count());
+            for (int i = 1; i < times.size(); i++) {
+                assertEquals(periodMs, times.get(i) - times.get(i - 1));
+            }
+        }
+        // 1000 homes over 60 ticks, about 17 per tick instead of 1000 at once
+        int maxPerTick = runsPerTick.values().stream().max(Integer::compare).orElse(0);
+        assertTrue(maxPerTick < 60, "max runs per tick " + maxPerTick);
+        assertTrue(scheduler.getMaxLagMs() < TICK_MS);
+        assertEquals(0, scheduler.getSkippedRunCount());
+    }
+
+    @Test
+    void cancelledOrReplacedJobsDoNotRunAgain() {
+        VirtualClock clock = new VirtualClock(START_MS);
+        HomeScheduler scheduler = new HomeScheduler(TICK_MS, clock, Runnable::run);
+        long periodMs = TimeUnit.MINUTES.toMillis(5);
+        int[] cancelledRuns = {0};
+        int[] replacedRuns = {0};
+        int[] replacingRuns = {0};
+        scheduler.schedule("cancelled", periodMs, () -> cancelledRuns[0]++);
+        scheduler.schedule("replaced", periodMs, () -> replacedRuns[0]++);
+
+        advance(clock, scheduler, periodMs);
+        assertEquals(1, cancelledRuns[0]);
+        assertEquals(1, replacedRuns[0]);
+
+        scheduler.cancel("cancelled");
+        scheduler.schedule("replaced", periodMs, () -> replacingRuns[0]++);
+        assertEquals(1, scheduler.getJobCount());
+        advance(clock, scheduler, 3 * periodMs);
+
+        assertEquals(1, cancelledRuns[0]);
+        assertEquals(1, replacedRuns[0]);
+        assertEquals(3, replacingRuns[0]);
+    }
+
+    @Test
+    void jobWithAPeriodBeyondTheWheelRunsAtItsDeadlines() {
+        VirtualClock clock = new VirtualClock(START_MS);
+        HomeScheduler scheduler = new HomeScheduler(TICK_MS, clock, Runnable::run);
+        // 64^4 ticks of a second are 194 days
+        long periodMs = TimeUnit.DAYS.toMillis(400);
+        List<Long> runs = new ArrayList<>();
+        scheduler.schedule("home", periodMs, () -> runs.add(clock.currentTimeMillis()));
+
+        // Hour by hour, as a driver late by many ticks would
+        advance(clock, scheduler, 2 * periodMs + TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+
+        assertTrue(runs.size() >= 2, "runs " + runs.size());
+        assertTrue(runs.get(0) - START_MS <= periodMs + TimeUnit.HOURS.toMillis(1));
+        for (int i = 1; i < runs.size(); i++) {
+            assertEquals(periodMs, runs.get(i) - runs.get(i - 1));
+        }
+    }
+
+    private static void advance(VirtualClock clock, HomeScheduler scheduler, long durationMs) {
+        advance(clock, scheduler, durationMs, TICK_MS);
+    }
+
+    private static void advance(VirtualClock clock, HomeScheduler scheduler, long durationMs, long stepMs) {
+        for (long elapsed = 0; elapsed < durationMs; elapsed += stepMs) {
+            clock.advance(stepMs);
+            scheduler.advance();
+        }
+    }
+}
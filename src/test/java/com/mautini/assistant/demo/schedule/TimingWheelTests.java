@@ -0,0 +1,140 @@
+package com.mautini.assistant.demo.schedule;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTests {
+
+    // Ticks covered by the levels of the wheel
+    private static final long LEVEL_1 = 64;
+
+    private static final long LEVEL_2 = 64 * 64;
+
+    private static final long LEVEL_3 = 64 * 64 * 64;
+
+    private static final long ALL_LEVELS = 64L * 64 * 64 * 64;
+
+    @Test
+    void timersCascadeAcrossTheLevelsAndExpireAtTheirDeadline() {
+        TimingWheel wheel = new TimingWheel(1, 0);
+        Map<TimingWheel.Timer, Long> expirations = new HashMap<>();
+        List<TimingWheel.Timer> timers = new ArrayList<>();
+
+        // The bounds of each level, and random deadlines over the first 3 levels
+        long[] deadlines = {1, LEVEL_1 - 1, LEVEL_1, LEVEL_1 + 1, LEVEL_2 - 1, LEVEL_2, LEVEL_2 + 1,
+                LEVEL_3 - 1, LEVEL_3, LEVEL_3 + 1, 3 * LEVEL_3 + 17};
+        Random random = new Random(42);
+        long[] tick = {0};
+        for (long deadline : deadlines) {
+            timers.add(timer(deadline));
+        }
+        for (int i = 0; i < 2000; i++) {
+            timers.add(timer(1 + random.nextInt((int) (4 * LEVEL_3))));
+        }
+        timers.forEach(timer -> wheel.add(timer, expired -> expirations.put(expired, tick[0])));
+        assertEquals(timers.size(), wheel.size());
+
+        long end = 4 * LEVEL_3 + 1;
+        for (tick[0] = 1; tick[0] <= end; tick[0]++) {
+            wheel.advance(tick[0], expired -> expirations.put(expired, tick[0]));
+        }
+
+        for (TimingWheel.Timer timer : timers) {
+            assertEquals(timer.deadlineMs, (long) expirations.get(timer), "deadline " + timer.deadlineMs);
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void deadlinesAreRoundedToTheTickOfTheWheel() {
+        long start = 1_700_000_000_123L;
+        TimingWheel wheel = new TimingWheel(1000, start);
+        List<TimingWheel.Timer> expired = new ArrayList<>();
+        TimingWheel.Timer timer = timer(start + 90_500);
+        wheel.add(timer, expired::add);
+
+        wheel.advance(start + 89_000, expired::add);
+        assertTrue(expired.isEmpty());
+        // Same tick as the deadline
+        wheel.advance(start + 89_900, expired::add);
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    void pastDeadlineExpiresImmediately() {
+        TimingWheel wheel = new TimingWheel(1, 1000);
+        List<TimingWheel.Timer> expired = new ArrayList<>();
+        wheel.add(timer(1000), expired::add);
+        wheel.add(timer(10), expired::add);
+        assertEquals(2, expired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void cancelledTimersNeverExpire() {
+        TimingWheel wheel = new TimingWheel(1, 0);
+        List<TimingWheel.Timer> expired = new ArrayList<>();
+        List<TimingWheel.Timer> kept = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            // Spread over the first 2 levels
+            TimingWheel.Timer timer = timer(1 + i * 37L);
+            wheel.add(timer, expired::add);
+            if (i % 2 == 0) {
+                wheel.remove(timer);
+            } else {
+                kept.add(timer);
+            }
+        }
+        assertEquals(100, wheel.size());
+
+        // Cancel a timer after it moved down a level
+        wheel.advance(LEVEL_1 * 2, expired::add);
+        TimingWheel.Timer cascaded = kept.get(kept.size() - 1);
+        assertFalse(expired.contains(cascaded));
+        wheel.remove(cascaded);
+        kept.remove(cascaded);
+
+        wheel.advance(200 * 37L, expired::add);
+        assertEquals(kept.size(), expired.size());
+        assertTrue(expired.containsAll(kept));
+        assertEquals(0, wheel.size());
+
+        // Removing an expired timer does nothing
+        wheel.remove(expired.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void farFutureTimerWaitsInTheLastLevelUntilItsDeadline() {
+        TimingWheel wheel = new TimingWheel(1, 0);
+        List<TimingWheel.Timer> expired = new ArrayList<>();
+        // Beyond the range of the 4 levels, the timer goes around the last level
+        long deadline = 2 * ALL_LEVELS + 12_345;
+        TimingWheel.Timer timer = timer(deadline);
+        wheel.add(timer, expired::add);
+
+        wheel.advance(ALL_LEVELS, expired::add);
+        assertTrue(expired.isEmpty());
+        assertEquals(1, wheel.size());
+        wheel.advance(deadline - 1, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(deadline, expired::add);
+        assertEquals(1, expired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    private static TimingWheel.Timer timer(long deadlineMs) {
+        TimingWheel.Timer timer = new TimingWheel.Timer();
+        timer.deadlineMs = deadlineMs;
+        return timer;
+    }
+}
@@ -0,0 +1,46 @@
+package com.mautini.assistant.demo.sun;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SunEventServiceTests {
+
+    private static final ZoneId PARIS = ZoneId.of("Europe/Paris");
+
+    @Test
+    void smallestWindowGivesTheSameEventsAsALargeOne() {
+        SunEventService oneDay = service(1);
+        SunEventService month = service(30);
+        LocalDate start = LocalDate.of(2024, 3, 25);
+
+        // Forward day by day, then back to the day before (kept in the window) and far back
+        for (int day = 0; day < 40; day++) {
+            assertSameEvents(oneDay, month, start.plusDays(day));
+        }
+        assertSameEvents(oneDay, month, start.plusDays(38));
+        assertSameEvents(oneDay, month, start.minusDays(100));
+    }
+
+    @Test
+    void windowOfLessThanADayIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new SunEventService(0));
+    }
+
+    private static void assertSameEvents(SunEventService actual, SunEventService expected, LocalDate date) {
+        for (SunEvent event : SunEvent.values()) {
+            assertEquals(expected.getEventEpochSecond("paris", event, date), actual.getEventEpochSecond("paris", event, date),
+                    event + " of " + date);
+        }
+    }
+
+    private static SunEventService service(int windowDays) {
+        SunEventService service = new SunEventService(windowDays);
+        service.addLocation("paris", "48.8566", "2.3522", PARIS);
+        return service;
+    }
+}